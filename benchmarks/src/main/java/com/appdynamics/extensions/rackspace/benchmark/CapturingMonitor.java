@@ -0,0 +1,70 @@
+/*
+ *   Copyright 2018. AppDynamics LLC and its affiliates.
+ *   All Rights Reserved.
+ *   This is unpublished proprietary source code of AppDynamics LLC and its affiliates.
+ *   The copyright notice above does not evidence any actual or intended publication of such source code.
+ *
+ */
+package com.appdynamics.extensions.rackspace.benchmark;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.appdynamics.extensions.rackspace.RackspaceMonitor;
+import com.singularity.ee.agent.systemagent.api.MetricWriter;
+
+/**
+ * RackspaceMonitor whose MetricWriters record the values printed instead of
+ * handing them to the machine agent
+ */
+public class CapturingMonitor extends RackspaceMonitor {
+
+	private final Map<String, String> values = new ConcurrentHashMap<String, String>();
+
+	private final AtomicLong printed = new AtomicLong();
+
+	private final AtomicLong writersCreated = new AtomicLong();
+
+	@Override
+	public MetricWriter getMetricWriter(String metricName, String aggregation, String timeRollup, String cluster) {
+		writersCreated.incrementAndGet();
+		return new CapturingMetricWriter(metricName, aggregation, timeRollup, cluster);
+	}
+
+	/**
+	 * Last value printed per metric path
+	 */
+	public Map<String, String> getValues() {
+		return values;
+	}
+
+	public long getPrinted() {
+		return printed.get();
+	}
+
+	public long getWritersCreated() {
+		return writersCreated.get();
+	}
+
+	public void resetCounters() {
+		printed.set(0);
+		writersCreated.set(0);
+	}
+
+	private class CapturingMetricWriter extends MetricWriter {
+
+		private final String metricName;
+
+		public CapturingMetricWriter(String metricName, String aggregation, String timeRollup, String cluster) {
+			super(CapturingMonitor.this, metricName, aggregation, timeRollup, cluster);
+			this.metricName = metricName;
+		}
+
+		@Override
+		public void printMetric(String value) {
+			values.put(metricName, value);
+			printed.incrementAndGet();
+		}
+	}
+}
@@ -0,0 +1,99 @@
+/*
+ *   Copyright 2018. AppDynamics LLC and its affiliates.
+ *   All Rights Reserved.
+ *   This is unpublished proprietary source code of AppDynamics LLC and its affiliates.
+ *   The copyright notice above does not evidence any actual or intended publication of such source code.
+ *
+ */
+package com.appdynamics.extensions.rackspace.benchmark;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.appdynamics.extensions.rackspace.RackspaceMonitor;
+import com.appdynamics.extensions.rackspace.collector.CollectorResult;
+import com.appdynamics.extensions.rackspace.collector.MetricEmitter;
+import com.appdynamics.extensions.rackspace.collector.MetricWriterFactory;
+import com.appdynamics.extensions.rackspace.exception.RackspaceMonitorException;
+import com.appdynamics.extensions.rackspace.stats.MetricTable;
+import com.appdynamics.extensions.rackspace.stats.NextGenServerStats;
+import com.singularity.ee.agent.systemagent.api.AManagedMonitor;
+import com.singularity.ee.agent.systemagent.api.MetricWriter;
+
+/**
+ * Writing one run of server metrics: the MetricEmitter, which keeps the
+ * metric paths and writers across runs, against formatting the path and
+ * getting a writer for every value as the monitor did before.
+ */
+@State(Scope.Thread)
+@BenchmarkMode({ Mode.AverageTime, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 2)
+@Fork(2)
+public class EmitBenchmark {
+
+	private static final String PREFIX = "Custom Metrics|Rackspace|";
+
+	private static final String REGION = "DFW";
+
+	@Param({ "100", "10000", "100000" })
+	public int entities;
+
+	private AManagedMonitor monitor;
+
+	private MetricTable metrics;
+
+	private MetricEmitter emitter;
+
+	@Setup
+	public void setUp() throws IOException, RackspaceMonitorException {
+		monitor = new RackspaceMonitor();
+		metrics = MetricMappingBenchmark.map(FlavorJoinBenchmark.read(Fixtures.servers(entities), "servers",
+				ServiceReaders.reader(Fixtures.SERVERS)));
+		emitter = new MetricEmitter(PREFIX, new MetricWriterFactory() {
+			public MetricWriter getMetricWriter(String metricName, String aggregation, String timeRollup, String cluster) {
+				return new NullMetricWriter(monitor, metricName, aggregation, timeRollup, cluster);
+			}
+		});
+	}
+
+	@Benchmark
+	public MetricEmitter emitter() {
+		emitter.emit(new CollectorResult("NextGen Server", NextGenServerStats.metricPath, REGION, metrics));
+		emitter.flush();
+		return emitter;
+	}
+
+	@Benchmark
+	public long formatPerValue() {
+		String[] metricNames = metrics.getMetricNames();
+		long printed = 0;
+		for (int row = 0; row < metrics.size(); row++) {
+			for (int metric = 0; metric < metricNames.length; metric++) {
+				String metricPath = PREFIX + String.format(NextGenServerStats.metricPath, REGION, metrics.getEntity(row)) + metricNames[metric];
+				MetricWriter metricWriter = newWriter(metricPath);
+				metricWriter.printMetric(String.valueOf(metrics.get(row, metric)));
+				printed += metricPath.length();
+			}
+		}
+		return printed;
+	}
+
+	private NullMetricWriter newWriter(String metricPath) {
+		return new NullMetricWriter(monitor, metricPath, MetricWriter.METRIC_AGGREGATION_TYPE_AVERAGE,
+				MetricWriter.METRIC_TIME_ROLLUP_TYPE_AVERAGE, MetricWriter.METRIC_CLUSTER_ROLLUP_TYPE_COLLECTIVE);
+	}
+}
@@ -0,0 +1,160 @@
+/*
+ *   Copyright 2018. AppDynamics LLC and its affiliates.
+ *   All Rights Reserved.
+ *   This is unpublished proprietary source code of AppDynamics LLC and its affiliates.
+ *   The copyright notice above does not evidence any actual or intended publication of such source code.
+ *
+ */
+package com.appdynamics.extensions.rackspace.benchmark;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.appdynamics.extensions.rackspace.common.Json;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+/**
+ * Service responses for the benchmarks. Each fixture under /fixtures is a
+ * recorded response holding a single entity, which is replicated to the
+ * requested number of entities with unique names and ids.
+ */
+public final class Fixtures {
+
+	public static final String SERVERS = "servers";
+
+	public static final String CONTAINERS = "containers";
+
+	public static final String INSTANCES = "instances";
+
+	public static final String LOAD_BALANCERS = "loadbalancers";
+
+	private static final ObjectMapper WRITER = new ObjectMapper();
+
+	private Fixtures() {
+	}
+
+	/**
+	 * Returns the response of the service listing the given number of
+	 * entities
+	 * 
+	 * @param service
+	 * @param entities
+	 * @return
+	 * @throws IOException
+	 */
+	public static byte[] response(String service, int entities) throws IOException {
+		JsonNode document = load(service);
+		ArrayNode array = arrayField(service) != null ? ((ObjectNode) document).putArray(arrayField(service)) : ((ArrayNode) document).removeAll();
+		array.addAll(entities(service, entities));
+		return write(document);
+	}
+
+	public static byte[] servers(int entities) throws IOException {
+		return response(SERVERS, entities);
+	}
+
+	/**
+	 * Returns the given number of entities of the service, each one a copy of
+	 * the recorded entity with a unique name and id. Servers cycle through the
+	 * flavors of the flavors fixture.
+	 * 
+	 * @param service
+	 * @param entities
+	 * @return
+	 * @throws IOException
+	 */
+	public static List<JsonNode> entities(String service, int entities) throws IOException {
+		JsonNode document = load(service);
+		String arrayField = arrayField(service);
+		ObjectNode template = (ObjectNode) (arrayField != null ? document.get(arrayField) : document).get(0);
+		List<String> flavorIds = flavorIds();
+
+		List<JsonNode> copies = new ArrayList<JsonNode>(entities);
+		for (int i = 0; i < entities; i++) {
+			ObjectNode entity = template.deepCopy();
+			if (SERVERS.equals(service)) {
+				entity.put("id", uuid(i));
+				entity.put("name", "server-" + i);
+				((ObjectNode) entity.get("flavor")).put("id", flavorIds.get(i % flavorIds.size()));
+			} else if (CONTAINERS.equals(service)) {
+				entity.put("name", "container-" + i);
+				entity.put("count", i * 7L);
+				entity.put("bytes", i * 1048576L);
+			} else if (INSTANCES.equals(service)) {
+				entity.put("id", uuid(i));
+				entity.put("name", "instance-" + i);
+				((ObjectNode) entity.get("volume")).put("size", 1 + i % 50);
+			} else if (LOAD_BALANCERS.equals(service)) {
+				entity.put("id", i);
+				entity.put("name", "lb-" + i);
+				entity.put("nodeCount", 1 + i % 10);
+			}
+			copies.add(entity);
+		}
+		return copies;
+	}
+
+	/**
+	 * The field holding the entities of the service response, null for the
+	 * top level array of Cloud Files
+	 */
+	public static String arrayField(String service) {
+		if (SERVERS.equals(service)) {
+			return "servers";
+		} else if (INSTANCES.equals(service)) {
+			return "instances";
+		} else if (LOAD_BALANCERS.equals(service)) {
+			return "loadBalancers";
+		} else if (CONTAINERS.equals(service)) {
+			return null;
+		}
+		throw new IllegalArgumentException("No fixture for " + service);
+	}
+
+	/**
+	 * NextGen flavors/detail as recorded
+	 */
+	public static byte[] flavors() throws IOException {
+		return write(load("flavors"));
+	}
+
+	/**
+	 * Identity tokens response as recorded
+	 */
+	public static byte[] tokens() throws IOException {
+		return write(load("tokens"));
+	}
+
+	public static List<String> flavorIds() throws IOException {
+		List<String> ids = new ArrayList<String>();
+		for (JsonNode flavor : load("flavors").get("flavors")) {
+			ids.add(flavor.get("id").asText());
+		}
+		return ids;
+	}
+
+	private static String uuid(int i) {
+		return String.format("%08x-b5e4-4bb8-86df-5ac56230f841", i);
+	}
+
+	private static JsonNode load(String fixture) throws IOException {
+		InputStream in = Fixtures.class.getResourceAsStream("/fixtures/" + fixture + ".json");
+		if (in == null) {
+			throw new IOException("Missing fixture " + fixture);
+		}
+		try {
+			return Json.readTree(in);
+		} finally {
+			in.close();
+		}
+	}
+
+	public static byte[] write(JsonNode document) throws IOException {
+		return WRITER.writeValueAsBytes(document);
+	}
+}
@@ -0,0 +1,114 @@
+/*
+ *   Copyright 2018. AppDynamics LLC and its affiliates.
+ *   All Rights Reserved.
+ *   This is unpublished proprietary source code of AppDynamics LLC and its affiliates.
+ *   The copyright notice above does not evidence any actual or intended publication of such source code.
+ *
+ */
+package com.appdynamics.extensions.rackspace.benchmark;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.appdynamics.extensions.rackspace.common.Json;
+import com.appdynamics.extensions.rackspace.exception.RackspaceMonitorException;
+import com.appdynamics.extensions.rackspace.stats.EntityHandler;
+import com.appdynamics.extensions.rackspace.stats.EntityReader;
+import com.appdynamics.extensions.rackspace.stats.ServerFlavor;
+import com.fasterxml.jackson.core.JsonParser;
+
+/**
+ * Joining servers to their flavor: the map lookup of the FlavorCache against
+ * the scan of the flavor list done before flavors were cached.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 2)
+@Fork(2)
+public class FlavorJoinBenchmark {
+
+	private static final int FLAVOR_ID = 3;
+
+	@Param({ "100", "10000", "100000" })
+	public int entities;
+
+	private List<String[]> servers;
+
+	private List<ServerFlavor> flavorList;
+
+	private Map<String, ServerFlavor> flavorMap;
+
+	@Setup
+	public void setUp() throws IOException, RackspaceMonitorException {
+		servers = read(Fixtures.servers(entities), "servers", ServiceReaders.reader(Fixtures.SERVERS));
+		flavorList = new ArrayList<ServerFlavor>();
+		flavorMap = new HashMap<String, ServerFlavor>();
+		for (String[] values : read(Fixtures.flavors(), "flavors", new EntityReader("id", "name", "ram", "swap", "vcpus", "disk"))) {
+			ServerFlavor flavor = new ServerFlavor();
+			flavor.setId(values[0]);
+			flavor.setName(values[1]);
+			flavor.setRam((int) EntityReader.asLong(values[2]));
+			flavor.setSwap((int) EntityReader.asLong(values[3]));
+			flavor.setVcpus((int) EntityReader.asLong(values[4]));
+			flavor.setDisk((int) EntityReader.asLong(values[5]));
+			flavorList.add(flavor);
+			flavorMap.put(flavor.getId(), flavor);
+		}
+	}
+
+	@Benchmark
+	public void hashLookup(Blackhole blackhole) {
+		for (String[] server : servers) {
+			ServerFlavor flavor = server[FLAVOR_ID] != null ? flavorMap.get(server[FLAVOR_ID]) : null;
+			if (flavor != null) {
+				blackhole.consume(flavor.getRam());
+			}
+		}
+	}
+
+	@Benchmark
+	public void linearScan(Blackhole blackhole) {
+		for (String[] server : servers) {
+			for (ServerFlavor flavor : flavorList) {
+				if (flavor.getId().equals(server[FLAVOR_ID])) {
+					blackhole.consume(flavor.getRam());
+				}
+			}
+		}
+	}
+
+	static List<String[]> read(byte[] response, String arrayField, EntityReader reader) throws IOException, RackspaceMonitorException {
+		final List<String[]> entities = new ArrayList<String[]>();
+		JsonParser parser = Json.createParser(new ByteArrayInputStream(response));
+		try {
+			reader.read(parser, arrayField, new EntityHandler() {
+				public void onEntity(String[] values) {
+					entities.add(values);
+				}
+			});
+		} finally {
+			parser.close();
+		}
+		return entities;
+	}
+}
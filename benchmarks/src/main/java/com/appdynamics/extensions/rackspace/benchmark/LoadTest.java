@@ -0,0 +1,126 @@
+/*
+ *   Copyright 2018. AppDynamics LLC and its affiliates.
+ *   All Rights Reserved.
+ *   This is unpublished proprietary source code of AppDynamics LLC and its affiliates.
+ *   The copyright notice above does not evidence any actual or intended publication of such source code.
+ *
+ */
+package com.appdynamics.extensions.rackspace.benchmark;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.management.ThreadInfo;
+import java.lang.management.ThreadMXBean;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Runs RackspaceMonitor.execute end to end against the RackspaceSimulator and
+ * reports per cycle the wall time, the requests served, the metric values
+ * printed and the heap allocated by the monitor threads. Arguments are
+ * name=value pairs; the simulator is configured by
+ *
+ * <pre>
+ * regions=1 servers=100 firstgen-servers=0 containers=100 instances=100 loadbalancers=100
+ * max-page-size=1000 latency-ms=0 error-rate=0.0 validators=true compression=true
+ * simulator-threads=16 cycles=5
+ * </pre>
+ *
+ * and all other pairs are passed as task arguments to the monitor, e.g.
+ * page-size=1000 collector-threads=8.
+ */
+public class LoadTest {
+
+	public static void main(String[] args) throws Exception {
+		Map<String, String> settings = new HashMap<String, String>();
+		Map<String, String> taskArguments = new HashMap<String, String>();
+		taskArguments.put("username", "simulator");
+		taskArguments.put("api-key", "simulator");
+		taskArguments.put("account-base", "US");
+		for (String arg : args) {
+			int equals = arg.indexOf('=');
+			if (equals < 0) {
+				throw new IllegalArgumentException("Expected name=value, got " + arg);
+			}
+			settings.put(arg.substring(0, equals), arg.substring(equals + 1));
+		}
+
+		RackspaceSimulator simulator = new RackspaceSimulator();
+		simulator.setRegions(intSetting(settings, "regions", 1));
+		simulator.setServers(intSetting(settings, "servers", 100));
+		simulator.setFirstGenServers(intSetting(settings, "firstgen-servers", 0));
+		simulator.setContainers(intSetting(settings, "containers", 100));
+		simulator.setInstances(intSetting(settings, "instances", 100));
+		simulator.setLoadBalancers(intSetting(settings, "loadbalancers", 100));
+		simulator.setMaxPageSize(intSetting(settings, "max-page-size", 1000));
+		simulator.setLatencyMillis(intSetting(settings, "latency-ms", 0));
+		simulator.setThreads(intSetting(settings, "simulator-threads", 16));
+		simulator.setValidators(!"false".equalsIgnoreCase(settings.remove("validators")));
+		simulator.setCompression(!"false".equalsIgnoreCase(settings.remove("compression")));
+		simulator.setErrorRate(settings.containsKey("error-rate") ? Double.parseDouble(settings.remove("error-rate")) : 0);
+		int cycles = intSetting(settings, "cycles", 5);
+		taskArguments.putAll(settings);
+
+		simulator.start();
+		taskArguments.put("auth-url", simulator.getAuthUrl());
+		try {
+			CapturingMonitor monitor = new CapturingMonitor();
+			for (int cycle = 1; cycle <= cycles; cycle++) {
+				runCycle(cycle, monitor, simulator, taskArguments);
+			}
+		} finally {
+			simulator.stop();
+		}
+	}
+
+	private static void runCycle(int cycle, CapturingMonitor monitor, RackspaceSimulator simulator, Map<String, String> taskArguments) {
+		simulator.resetCounters();
+		monitor.resetCounters();
+		long allocatedBefore = allocatedBytes();
+		long start = System.nanoTime();
+		String outcome = "ok";
+		try {
+			monitor.execute(new HashMap<String, String>(taskArguments), null);
+		} catch (Exception e) {
+			outcome = "failed: " + e;
+		}
+		long wallMillis = (System.nanoTime() - start) / 1000000;
+		long allocated = allocatedBytes() - allocatedBefore;
+
+		MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+		System.out.println(String.format("cycle %d %s: wall %d ms, requests %d (errors %d, not modified %d), received %.1f MB, "
+				+ "metrics printed %d (writers created %d), allocated %.1f MB, heap used %.1f MB", cycle, outcome, wallMillis,
+				simulator.getTotalRequests(), simulator.getErrors(), simulator.getNotModified(), simulator.getBytesSent() / 1048576.0,
+				monitor.getPrinted(), monitor.getWritersCreated(), allocated / 1048576.0, memory.getHeapMemoryUsage().getUsed() / 1048576.0));
+		System.out.println("  requests by resource " + new TreeMap<String, Long>(simulator.getRequests()));
+	}
+
+	/**
+	 * Bytes allocated so far by the live threads other than the simulator's.
+	 * Threads that end during the cycle, such as idle page prefetchers, are
+	 * not counted.
+	 */
+	private static long allocatedBytes() {
+		ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+		if (!(threads instanceof com.sun.management.ThreadMXBean)) {
+			return 0;
+		}
+		com.sun.management.ThreadMXBean allocations = (com.sun.management.ThreadMXBean) threads;
+		long[] ids = threads.getAllThreadIds();
+		ThreadInfo[] infos = threads.getThreadInfo(ids);
+		long[] allocated = allocations.getThreadAllocatedBytes(ids);
+		long total = 0;
+		for (int i = 0; i < ids.length; i++) {
+			if (infos[i] != null && !infos[i].getThreadName().startsWith("Simulator-") && allocated[i] > 0) {
+				total += allocated[i];
+			}
+		}
+		return total;
+	}
+
+	private static int intSetting(Map<String, String> settings, String name, int defaultValue) {
+		String value = settings.remove(name);
+		return value != null ? Integer.parseInt(value.trim()) : defaultValue;
+	}
+}
@@ -0,0 +1,100 @@
+/*
+ *   Copyright 2018. AppDynamics LLC and its affiliates.
+ *   All Rights Reserved.
+ *   This is unpublished proprietary source code of AppDynamics LLC and its affiliates.
+ *   The copyright notice above does not evidence any actual or intended publication of such source code.
+ *
+ */
+package com.appdynamics.extensions.rackspace.benchmark;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.appdynamics.extensions.rackspace.exception.RackspaceMonitorException;
+import com.appdynamics.extensions.rackspace.stats.EntityReader;
+import com.appdynamics.extensions.rackspace.stats.MetricTable;
+import com.appdynamics.extensions.rackspace.stats.Status;
+
+/**
+ * Mapping parsed servers to metrics: the columnar MetricTable the collectors
+ * return against the Map of Maps of boxed values they returned before. Run
+ * with -prof gc to compare the allocation per server.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 2)
+@Fork(2)
+public class MetricMappingBenchmark {
+
+	static final String[] METRICS = { "Progress", "Status", "RAM", "Swap", "vCPUs", "Disk Space" };
+
+	private static final int NAME = 0, PROGRESS = 1, STATUS = 2;
+
+	@Param({ "100", "10000", "100000" })
+	public int entities;
+
+	private List<String[]> servers;
+
+	@Setup
+	public void setUp() throws IOException, RackspaceMonitorException {
+		servers = FlavorJoinBenchmark.read(Fixtures.servers(entities), "servers", ServiceReaders.reader(Fixtures.SERVERS));
+	}
+
+	@Benchmark
+	public MetricTable metricTable() {
+		return map(servers);
+	}
+
+	@Benchmark
+	public Map<String, Map<String, Long>> nestedMaps() {
+		Map<String, Map<String, Long>> serverStats = new HashMap<String, Map<String, Long>>();
+		for (String[] server : servers) {
+			Map<String, Long> stats = new HashMap<String, Long>();
+			stats.put("Progress", EntityReader.asLong(server[PROGRESS]));
+			stats.put("Status", Long.valueOf(status(server)));
+			stats.put("RAM", Long.valueOf(2048));
+			stats.put("Swap", Long.valueOf(0));
+			stats.put("vCPUs", Long.valueOf(2));
+			stats.put("Disk Space", Long.valueOf(40));
+			serverStats.put(server[NAME], stats);
+		}
+		return serverStats;
+	}
+
+	static MetricTable map(List<String[]> servers) {
+		MetricTable serverStats = new MetricTable(METRICS);
+		for (String[] server : servers) {
+			int row = serverStats.addEntity(server[NAME]);
+			serverStats.set(row, 0, EntityReader.asLong(server[PROGRESS]));
+			serverStats.set(row, 1, status(server));
+			serverStats.set(row, 2, 2048);
+			serverStats.set(row, 3, 0);
+			serverStats.set(row, 4, 2);
+			serverStats.set(row, 5, 40);
+		}
+		return serverStats;
+	}
+
+	// The status code is package private to the collectors, the lookup is
+	// what costs
+	private static int status(String[] server) {
+		return Status.valueOf(server[STATUS]).ordinal();
+	}
+}
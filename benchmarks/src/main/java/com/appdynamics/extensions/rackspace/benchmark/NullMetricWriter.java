@@ -0,0 +1,40 @@
+/*
+ *   Copyright 2018. AppDynamics LLC and its affiliates.
+ *   All Rights Reserved.
+ *   This is unpublished proprietary source code of AppDynamics LLC and its affiliates.
+ *   The copyright notice above does not evidence any actual or intended publication of such source code.
+ *
+ */
+package com.appdynamics.extensions.rackspace.benchmark;
+
+import com.singularity.ee.agent.systemagent.api.AManagedMonitor;
+import com.singularity.ee.agent.systemagent.api.MetricWriter;
+
+/**
+ * MetricWriter that counts the values printed instead of handing them to the
+ * machine agent
+ */
+class NullMetricWriter extends MetricWriter {
+
+	private long printed;
+
+	private long printedChars;
+
+	NullMetricWriter(AManagedMonitor monitor, String metricName, String aggregation, String timeRollup, String cluster) {
+		super(monitor, metricName, aggregation, timeRollup, cluster);
+	}
+
+	@Override
+	public void printMetric(String value) {
+		printed++;
+		printedChars += value.length();
+	}
+
+	long getPrinted() {
+		return printed;
+	}
+
+	long getPrintedChars() {
+		return printedChars;
+	}
+}
@@ -0,0 +1,57 @@
+/*
+ *   Copyright 2018. AppDynamics LLC and its affiliates.
+ *   All Rights Reserved.
+ *   This is unpublished proprietary source code of AppDynamics LLC and its affiliates.
+ *   The copyright notice above does not evidence any actual or intended publication of such source code.
+ *
+ */
+package com.appdynamics.extensions.rackspace.benchmark;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.appdynamics.extensions.rackspace.common.Json;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Reading the identity response into a tree with the shared, warmed up
+ * mapper of Json against a new ObjectMapper per response.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 2)
+@Fork(2)
+public class ObjectMapperBenchmark {
+
+	private byte[] tokens;
+
+	@Setup
+	public void setUp() throws IOException {
+		tokens = Fixtures.tokens();
+	}
+
+	@Benchmark
+	public JsonNode sharedMapper() throws IOException {
+		return Json.readTree(new ByteArrayInputStream(tokens));
+	}
+
+	@Benchmark
+	public JsonNode mapperPerResponse() throws IOException {
+		return new ObjectMapper().readTree(new ByteArrayInputStream(tokens));
+	}
+}
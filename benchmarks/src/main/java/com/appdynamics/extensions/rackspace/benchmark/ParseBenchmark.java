@@ -0,0 +1,96 @@
+/*
+ *   Copyright 2018. AppDynamics LLC and its affiliates.
+ *   All Rights Reserved.
+ *   This is unpublished proprietary source code of AppDynamics LLC and its affiliates.
+ *   The copyright notice above does not evidence any actual or intended publication of such source code.
+ *
+ */
+package com.appdynamics.extensions.rackspace.benchmark;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.appdynamics.extensions.rackspace.common.Json;
+import com.appdynamics.extensions.rackspace.exception.RackspaceMonitorException;
+import com.appdynamics.extensions.rackspace.stats.EntityHandler;
+import com.appdynamics.extensions.rackspace.stats.EntityReader;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.databind.JsonNode;
+
+/**
+ * Parsing of a service response: the streaming EntityReader the collectors
+ * use against reading the whole response into a tree and walking it.
+ */
+@State(Scope.Thread)
+@BenchmarkMode({ Mode.AverageTime, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 2)
+@Fork(2)
+public class ParseBenchmark {
+
+	@Param({ Fixtures.SERVERS, Fixtures.CONTAINERS, Fixtures.INSTANCES, Fixtures.LOAD_BALANCERS })
+	public String service;
+
+	@Param({ "100", "10000", "100000" })
+	public int entities;
+
+	private byte[] response;
+
+	private String arrayField;
+
+	private String[] fields;
+
+	private EntityReader reader;
+
+	@Setup
+	public void setUp() throws IOException {
+		response = Fixtures.response(service, entities);
+		arrayField = Fixtures.arrayField(service);
+		fields = ServiceReaders.fields(service);
+		reader = ServiceReaders.reader(service);
+	}
+
+	@Benchmark
+	public boolean stream(final Blackhole blackhole) throws IOException, RackspaceMonitorException {
+		JsonParser parser = Json.createParser(new ByteArrayInputStream(response));
+		try {
+			return reader.read(parser, arrayField, new EntityHandler() {
+				public void onEntity(String[] values) {
+					blackhole.consume(values);
+				}
+			});
+		} finally {
+			parser.close();
+		}
+	}
+
+	@Benchmark
+	public void tree(Blackhole blackhole) throws IOException {
+		JsonNode document = Json.readTree(new ByteArrayInputStream(response));
+		JsonNode array = arrayField != null ? document.get(arrayField) : document;
+		for (JsonNode entity : array) {
+			for (String field : fields) {
+				JsonNode node = entity;
+				for (String name : field.split("\\.")) {
+					node = node.path(name);
+				}
+				blackhole.consume(node.asText());
+			}
+		}
+	}
+}
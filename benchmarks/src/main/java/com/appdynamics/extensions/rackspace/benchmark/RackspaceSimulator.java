@@ -0,0 +1,575 @@
+/*
+ *   Copyright 2018. AppDynamics LLC and its affiliates.
+ *   All Rights Reserved.
+ *   This is unpublished proprietary source code of AppDynamics LLC and its affiliates.
+ *   The copyright notice above does not evidence any actual or intended publication of such source code.
+ *
+ */
+package com.appdynamics.extensions.rackspace.benchmark;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPOutputStream;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * In-process stand-in for the Rackspace APIs read by the extension. It serves
+ * the identity tokens request, with a service catalog of the configured
+ * number of regions, and per region the NextGen servers, flavors and limits,
+ * Cloud Files containers, Cloud Databases instances and Cloud Load Balancers,
+ * plus optionally FirstGen servers. Collections are paged by limit and marker
+ * (offset for FirstGen) and capped at maxPageSize entities per page. Unless
+ * validators are disabled, collections come with an ETag and conditional
+ * requests are answered with 304 Not Modified, and responses are gzip
+ * compressed for clients accepting it unless compression is disabled. Latency
+ * and server errors can be injected. Configure it with the setters before
+ * calling start.
+ */
+public class RackspaceSimulator {
+
+	private static final String[] REGION_NAMES = { "DFW", "ORD", "IAD", "LON", "SYD", "HKG" };
+
+	private static final String FIRSTGEN = "firstgen";
+
+	private static final String FLAVORS = "flavors";
+
+	private static final String LIMITS = "limits";
+
+	private static final String TOKENS = "tokens";
+
+	private static final int MIN_COMPRESSED_SIZE = 1024;
+
+	private final ObjectMapper mapper = new ObjectMapper();
+
+	private int regions = 1;
+
+	private int servers = 100;
+
+	private int firstGenServers;
+
+	private int containers = 100;
+
+	private int instances = 100;
+
+	private int loadBalancers = 100;
+
+	private int maxPageSize = 1000;
+
+	private long latencyMillis;
+
+	private double errorRate;
+
+	private int threads = 16;
+
+	private boolean validators = true;
+
+	private boolean compression = true;
+
+	private HttpServer server;
+
+	private ExecutorService executor;
+
+	private String baseUrl;
+
+	// Entities of every collection pre-rendered once, shared by all regions
+	private final Map<String, EntityCollection> collections = new HashMap<String, EntityCollection>();
+
+	private byte[] flavors;
+
+	private byte[] firstGenFlavors;
+
+	private byte[] limits;
+
+	private final ConcurrentMap<String, AtomicLong> requests = new ConcurrentHashMap<String, AtomicLong>();
+
+	private final AtomicLong errors = new AtomicLong();
+
+	private final AtomicLong notModified = new AtomicLong();
+
+	private final AtomicLong bytesSent = new AtomicLong();
+
+	public void setRegions(int regions) {
+		this.regions = regions;
+	}
+
+	public void setServers(int servers) {
+		this.servers = servers;
+	}
+
+	public void setFirstGenServers(int firstGenServers) {
+		this.firstGenServers = firstGenServers;
+	}
+
+	public void setContainers(int containers) {
+		this.containers = containers;
+	}
+
+	public void setInstances(int instances) {
+		this.instances = instances;
+	}
+
+	public void setLoadBalancers(int loadBalancers) {
+		this.loadBalancers = loadBalancers;
+	}
+
+	public void setMaxPageSize(int maxPageSize) {
+		this.maxPageSize = maxPageSize;
+	}
+
+	public void setLatencyMillis(long latencyMillis) {
+		this.latencyMillis = latencyMillis;
+	}
+
+	public void setErrorRate(double errorRate) {
+		this.errorRate = errorRate;
+	}
+
+	public void setValidators(boolean validators) {
+		this.validators = validators;
+	}
+
+	public void setCompression(boolean compression) {
+		this.compression = compression;
+	}
+
+	public void setThreads(int threads) {
+		this.threads = threads;
+	}
+
+	/**
+	 * Renders the collections and starts serving on an ephemeral port of the
+	 * loopback address
+	 *
+	 * @throws IOException
+	 */
+	public void start() throws IOException {
+		collections.put(Fixtures.SERVERS, new EntityCollection(Fixtures.entities(Fixtures.SERVERS, servers), "id", "servers_links"));
+		collections.put(Fixtures.CONTAINERS, new EntityCollection(Fixtures.entities(Fixtures.CONTAINERS, containers), "name", null));
+		collections.put(Fixtures.INSTANCES, new EntityCollection(Fixtures.entities(Fixtures.INSTANCES, instances), "id", "links"));
+		collections.put(Fixtures.LOAD_BALANCERS, new EntityCollection(Fixtures.entities(Fixtures.LOAD_BALANCERS, loadBalancers), "id", "links"));
+		collections.put(FIRSTGEN, new EntityCollection(firstGenServerEntities(), "id", null));
+		flavors = Fixtures.flavors();
+		firstGenFlavors = Fixtures.write(firstGenFlavorsDocument());
+		limits = Fixtures.write(limitsDocument());
+
+		server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+		executor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+			private final AtomicInteger count = new AtomicInteger();
+
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, "Simulator-" + count.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		server.setExecutor(executor);
+		server.createContext("/", new HttpHandler() {
+			public void handle(HttpExchange exchange) throws IOException {
+				try {
+					dispatch(exchange);
+				} finally {
+					exchange.close();
+				}
+			}
+		});
+		server.start();
+		baseUrl = "http://127.0.0.1:" + server.getAddress().getPort();
+	}
+
+	public void stop() {
+		if (server != null) {
+			server.stop(0);
+			executor.shutdownNow();
+		}
+	}
+
+	/**
+	 * The identity endpoint to give the monitor as auth-url
+	 */
+	public String getAuthUrl() {
+		return baseUrl + "/v2.0";
+	}
+
+	/**
+	 * Requests served per resource since the last reset
+	 */
+	public Map<String, Long> getRequests() {
+		Map<String, Long> counts = new HashMap<String, Long>();
+		for (Map.Entry<String, AtomicLong> count : requests.entrySet()) {
+			counts.put(count.getKey(), count.getValue().get());
+		}
+		return counts;
+	}
+
+	public long getTotalRequests() {
+		long total = 0;
+		for (AtomicLong count : requests.values()) {
+			total += count.get();
+		}
+		return total;
+	}
+
+	public long getErrors() {
+		return errors.get();
+	}
+
+	public long getNotModified() {
+		return notModified.get();
+	}
+
+	public long getBytesSent() {
+		return bytesSent.get();
+	}
+
+	public void resetCounters() {
+		requests.clear();
+		errors.set(0);
+		notModified.set(0);
+		bytesSent.set(0);
+	}
+
+	private void dispatch(HttpExchange exchange) throws IOException {
+		// /v2.0/tokens, or /{service}/{region}/{resource}
+		String[] path = exchange.getRequestURI().getPath().substring(1).split("/");
+		Map<String, String> query = parseQuery(exchange.getRequestURI().getRawQuery());
+		drain(exchange.getRequestBody());
+
+		if (path.length == 2 && "v2.0".equals(path[0]) && TOKENS.equals(path[1])) {
+			count(TOKENS);
+			delay();
+			send(exchange, 200, tokensResponse());
+			return;
+		}
+		if (path.length < 2 || (!FIRSTGEN.equals(path[0]) && !isRegion(path[1]))) {
+			send(exchange, 404, error("itemNotFound", 404, "Resource not found"));
+			return;
+		}
+		String resource = joinFrom(path, FIRSTGEN.equals(path[0]) ? 1 : 2);
+		String counted = path[0] + resource;
+		count(counted);
+		delay();
+		if (errorRate > 0 && ThreadLocalRandom.current().nextDouble() < errorRate) {
+			errors.incrementAndGet();
+			send(exchange, 503, error("serviceUnavailable", 503, "Simulated failure of " + counted));
+			return;
+		}
+
+		if ("servers".equals(path[0]) && "/servers/detail".equals(resource)) {
+			sendPage(exchange, Fixtures.SERVERS, "servers", query);
+		} else if ("servers".equals(path[0]) && "/flavors/detail".equals(resource)) {
+			sendCollection(exchange, flavors);
+		} else if ("servers".equals(path[0]) && "/limits".equals(resource)) {
+			sendCollection(exchange, limits);
+		} else if ("files".equals(path[0]) && "".equals(resource)) {
+			sendPage(exchange, Fixtures.CONTAINERS, null, query);
+		} else if ("databases".equals(path[0]) && "/instances".equals(resource)) {
+			sendPage(exchange, Fixtures.INSTANCES, "instances", query);
+		} else if ("loadbalancers".equals(path[0]) && "/loadbalancers".equals(resource)) {
+			sendPage(exchange, Fixtures.LOAD_BALANCERS, "loadBalancers", query);
+		} else if (FIRSTGEN.equals(path[0]) && "/servers/detail".equals(resource)) {
+			sendPage(exchange, FIRSTGEN, "servers", query);
+		} else if (FIRSTGEN.equals(path[0]) && "/flavors/detail".equals(resource)) {
+			sendCollection(exchange, firstGenFlavors);
+		} else {
+			send(exchange, 404, error("itemNotFound", 404, "Resource not found"));
+		}
+	}
+
+	/**
+	 * Sends the body with an ETag if validators are enabled, or 304 Not
+	 * Modified if the request was conditional on that ETag
+	 */
+	private void sendCollection(HttpExchange exchange, byte[] body) throws IOException {
+		if (validators) {
+			String etag = "\"" + Integer.toHexString(Arrays.hashCode(body)) + "-" + body.length + "\"";
+			exchange.getResponseHeaders().set("ETag", etag);
+			if (etag.equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+				notModified.incrementAndGet();
+				exchange.sendResponseHeaders(304, -1);
+				return;
+			}
+		}
+		send(exchange, 200, body);
+	}
+
+	/**
+	 * Sends the page of the collection starting after the marker, or at the
+	 * offset, of at most limit and maxPageSize entities. If entities remain a
+	 * next link is added to the links field of the collection.
+	 */
+	private void sendPage(HttpExchange exchange, String collectionName, String arrayField, Map<String, String> query) throws IOException {
+		EntityCollection collection = collections.get(collectionName);
+		int limit = Math.min(parseInt(query.get("limit"), maxPageSize), maxPageSize);
+		int start = parseInt(query.get("offset"), 0);
+		String marker = query.get("marker");
+		if (marker != null) {
+			Integer index = collection.markers.get(marker);
+			start = index != null ? index.intValue() + 1 : collection.entities.size();
+		}
+		int end = Math.min(start + limit, collection.entities.size());
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream(Math.max(256, (end - start) * collection.averageSize()));
+		out.write(arrayField != null ? ("{\"" + arrayField + "\":[").getBytes("UTF-8") : "[".getBytes("UTF-8"));
+		for (int i = start; i < end; i++) {
+			if (i > start) {
+				out.write(',');
+			}
+			out.write(collection.entities.get(i));
+		}
+		out.write(']');
+		if (arrayField != null) {
+			if (collection.linksField != null) {
+				out.write((",\"" + collection.linksField + "\":[").getBytes("UTF-8"));
+				if (end < collection.entities.size() && end > start) {
+					String next = exchange.getRequestURI().getPath() + "?limit=" + limit + "&marker=" + collection.markerOf(end - 1);
+					out.write(("{\"href\":\"" + baseUrl + next + "\",\"rel\":\"next\"}").getBytes("UTF-8"));
+				}
+				out.write(']');
+			}
+			out.write('}');
+		}
+		sendCollection(exchange, out.toByteArray());
+	}
+
+	private byte[] tokensResponse() throws IOException {
+		SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'");
+		format.setTimeZone(TimeZone.getTimeZone("UTC"));
+
+		ObjectNode document = mapper.createObjectNode();
+		ObjectNode access = document.putObject("access");
+		ObjectNode token = access.putObject("token");
+		token.put("id", "simulated-" + System.nanoTime());
+		token.put("expires", format.format(new Date(System.currentTimeMillis() + 24 * 3600 * 1000L)));
+		token.putObject("tenant").put("id", "010101");
+
+		ArrayNode catalog = access.putArray("serviceCatalog");
+		addService(catalog, "cloudServersOpenStack", "servers");
+		addService(catalog, "cloudFiles", "files");
+		addService(catalog, "cloudDatabases", "databases");
+		addService(catalog, "cloudLoadBalancers", "loadbalancers");
+		if (firstGenServers > 0) {
+			ObjectNode service = catalog.addObject();
+			service.put("name", "cloudServers");
+			service.putArray("endpoints").addObject().put("publicURL", baseUrl + "/" + FIRSTGEN);
+		}
+
+		ObjectNode user = access.putObject("user");
+		user.put("name", "simulator");
+		user.put("RAX-AUTH:defaultRegion", regionName(0));
+		return Fixtures.write(document);
+	}
+
+	private void addService(ArrayNode catalog, String name, String path) {
+		ObjectNode service = catalog.addObject();
+		service.put("name", name);
+		ArrayNode endpoints = service.putArray("endpoints");
+		for (int i = 0; i < regions; i++) {
+			ObjectNode endpoint = endpoints.addObject();
+			endpoint.put("region", regionName(i));
+			endpoint.put("publicURL", baseUrl + "/" + path + "/" + regionName(i));
+		}
+	}
+
+	private List<JsonNode> firstGenServerEntities() {
+		List<JsonNode> entities = new ArrayList<JsonNode>(firstGenServers);
+		for (int i = 0; i < firstGenServers; i++) {
+			ObjectNode server = mapper.createObjectNode();
+			server.put("id", i);
+			server.put("name", "firstgen-" + i);
+			server.put("progress", 100);
+			server.put("status", "ACTIVE");
+			server.put("flavorId", 1 + i % 7);
+			server.put("imageId", 112);
+			entities.add(server);
+		}
+		return entities;
+	}
+
+	private JsonNode firstGenFlavorsDocument() {
+		ObjectNode document = mapper.createObjectNode();
+		ArrayNode flavorsNode = document.putArray(FLAVORS);
+		for (int i = 1; i <= 7; i++) {
+			ObjectNode flavor = flavorsNode.addObject();
+			flavor.put("id", i);
+			flavor.put("name", (256 << (i - 1)) + " server");
+			flavor.put("ram", 256 << (i - 1));
+			flavor.put("disk", 10 << (i - 1));
+		}
+		return document;
+	}
+
+	private JsonNode limitsDocument() {
+		ObjectNode document = mapper.createObjectNode();
+		ObjectNode limitsNode = document.putObject(LIMITS);
+		limitsNode.putArray("rate");
+		ObjectNode absolute = limitsNode.putObject("absolute");
+		absolute.put("totalCoresUsed", servers * 2);
+		absolute.put("totalFloatingIpsUsed", 0);
+		absolute.put("totalInstancesUsed", servers);
+		absolute.put("totalPrivateNetworksUsed", 1);
+		absolute.put("totalRAMUsed", servers * 2048);
+		absolute.put("totalSecurityGroupsUsed", 0);
+		absolute.put("maxTotalInstances", Math.max(100, servers * 2));
+		absolute.put("maxImageMeta", 40);
+		return document;
+	}
+
+	private byte[] error(String type, int code, String message) throws IOException {
+		ObjectNode document = mapper.createObjectNode();
+		ObjectNode fault = document.putObject(type);
+		fault.put("code", code);
+		fault.put("message", message);
+		return Fixtures.write(document);
+	}
+
+	private void send(HttpExchange exchange, int status, byte[] body) throws IOException {
+		exchange.getResponseHeaders().set("Content-Type", "application/json");
+		String acceptEncoding = exchange.getRequestHeaders().getFirst("Accept-Encoding");
+		if (compression && acceptEncoding != null && acceptEncoding.contains("gzip") && body.length > MIN_COMPRESSED_SIZE) {
+			ByteArrayOutputStream compressed = new ByteArrayOutputStream(body.length / 4);
+			GZIPOutputStream gzip = new GZIPOutputStream(compressed);
+			gzip.write(body);
+			gzip.close();
+			body = compressed.toByteArray();
+			exchange.getResponseHeaders().set("Content-Encoding", "gzip");
+		}
+		exchange.sendResponseHeaders(status, body.length);
+		OutputStream out = exchange.getResponseBody();
+		out.write(body);
+		out.close();
+		bytesSent.addAndGet(body.length);
+	}
+
+	private void count(String resource) {
+		AtomicLong count = requests.get(resource);
+		if (count == null) {
+			requests.putIfAbsent(resource, new AtomicLong());
+			count = requests.get(resource);
+		}
+		count.incrementAndGet();
+	}
+
+	private void delay() {
+		if (latencyMillis > 0) {
+			try {
+				Thread.sleep(latencyMillis);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	private boolean isRegion(String region) {
+		for (int i = 0; i < regions; i++) {
+			if (regionName(i).equals(region)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static String regionName(int region) {
+		return region < REGION_NAMES.length ? REGION_NAMES[region] : "R" + region;
+	}
+
+	private static String joinFrom(String[] path, int from) {
+		StringBuilder resource = new StringBuilder();
+		for (int i = from; i < path.length; i++) {
+			resource.append('/').append(path[i]);
+		}
+		return resource.toString();
+	}
+
+	private static Map<String, String> parseQuery(String rawQuery) throws UnsupportedEncodingException {
+		Map<String, String> query = new HashMap<String, String>();
+		if (rawQuery != null) {
+			for (String parameter : rawQuery.split("&")) {
+				int equals = parameter.indexOf('=');
+				if (equals > 0) {
+					query.put(parameter.substring(0, equals), URLDecoder.decode(parameter.substring(equals + 1), "UTF-8"));
+				}
+			}
+		}
+		return query;
+	}
+
+	private static int parseInt(String value, int defaultValue) {
+		try {
+			return value != null ? Integer.parseInt(value) : defaultValue;
+		} catch (NumberFormatException e) {
+			return defaultValue;
+		}
+	}
+
+	private static void drain(InputStream in) throws IOException {
+		byte[] buffer = new byte[1024];
+		while (in.read(buffer) >= 0) {
+			// Discard the request body
+		}
+	}
+
+	/**
+	 * Rendered entities of a collection with the index of each marker
+	 */
+	private static class EntityCollection {
+
+		private final List<byte[]> entities = new ArrayList<byte[]>();
+
+		private final List<String> markerValues = new ArrayList<String>();
+
+		private final Map<String, Integer> markers = new HashMap<String, Integer>();
+
+		private final String linksField;
+
+		private long totalSize;
+
+		public EntityCollection(List<JsonNode> nodes, String markerField, String linksField) throws IOException {
+			this.linksField = linksField;
+			for (JsonNode node : nodes) {
+				byte[] entity = Fixtures.write(node);
+				entities.add(entity);
+				totalSize += entity.length;
+				String marker = node.path(markerField).asText();
+				markers.put(marker, markerValues.size());
+				markerValues.add(marker);
+			}
+		}
+
+		public String markerOf(int index) throws UnsupportedEncodingException {
+			return URLEncoder.encode(markerValues.get(index), "UTF-8");
+		}
+
+		public int averageSize() {
+			return entities.isEmpty() ? 0 : (int) (totalSize / entities.size()) + 1;
+		}
+	}
+}
@@ -0,0 +1,37 @@
+/*
+ *   Copyright 2018. AppDynamics LLC and its affiliates.
+ *   All Rights Reserved.
+ *   This is unpublished proprietary source code of AppDynamics LLC and its affiliates.
+ *   The copyright notice above does not evidence any actual or intended publication of such source code.
+ *
+ */
+package com.appdynamics.extensions.rackspace.benchmark;
+
+import com.appdynamics.extensions.rackspace.stats.EntityReader;
+
+/**
+ * The fields and arrays read by the collectors for each fixture, the first
+ * field being the entity name
+ */
+final class ServiceReaders {
+
+	private ServiceReaders() {
+	}
+
+	static String[] fields(String service) {
+		if (Fixtures.SERVERS.equals(service)) {
+			return new String[] { "name", "progress", "status", "flavor.id", "id" };
+		} else if (Fixtures.CONTAINERS.equals(service)) {
+			return new String[] { "name", "count", "bytes" };
+		} else if (Fixtures.INSTANCES.equals(service)) {
+			return new String[] { "name", "status", "volume.size", "id" };
+		} else if (Fixtures.LOAD_BALANCERS.equals(service)) {
+			return new String[] { "name", "status", "nodeCount", "id" };
+		}
+		throw new IllegalArgumentException("No reader for " + service);
+	}
+
+	static EntityReader reader(String service) {
+		return new EntityReader(fields(service));
+	}
+}
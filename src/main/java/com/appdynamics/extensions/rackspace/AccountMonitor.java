@@ -0,0 +1,539 @@
+/*
+ *   Copyright 2018. AppDynamics LLC and its affiliates.
+ *   All Rights Reserved.
+ *   This is unpublished proprietary source code of AppDynamics LLC and its affiliates.
+ *   The copyright notice above does not evidence any actual or intended publication of such source code.
+ *
+ */
+package com.appdynamics.extensions.rackspace;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.Executor;
+
+import org.apache.log4j.Logger;
+
+import com.appdynamics.extensions.http.SimpleHttpClient;
+import com.appdynamics.extensions.rackspace.collector.CircuitBreaker;
+import com.appdynamics.extensions.rackspace.collector.CollectionScheduler;
+import com.appdynamics.extensions.rackspace.collector.CollectorResult;
+import com.appdynamics.extensions.rackspace.collector.CollectorTask;
+import com.appdynamics.extensions.rackspace.collector.MetricEmitter;
+import com.appdynamics.extensions.rackspace.collector.MetricWriterFactory;
+import com.appdynamics.extensions.rackspace.collector.MonitorHealth;
+import com.appdynamics.extensions.rackspace.collector.RateStage;
+import com.appdynamics.extensions.rackspace.common.Account;
+import com.appdynamics.extensions.rackspace.common.AsyncHttpClient;
+import com.appdynamics.extensions.rackspace.common.Authenticator;
+import com.appdynamics.extensions.rackspace.exception.RackspaceMonitorException;
+import com.appdynamics.extensions.rackspace.stats.CloudFilesStats;
+import com.appdynamics.extensions.rackspace.stats.CloudMonitoringStats;
+import com.appdynamics.extensions.rackspace.stats.DatabaseStats;
+import com.appdynamics.extensions.rackspace.stats.FirstGenServerStats;
+import com.appdynamics.extensions.rackspace.stats.FlavorCache;
+import com.appdynamics.extensions.rackspace.stats.LoadBalancerStats;
+import com.appdynamics.extensions.rackspace.stats.LoadBalancerTrafficStats;
+import com.appdynamics.extensions.rackspace.stats.NextGenServerStats;
+import com.appdynamics.extensions.rackspace.stats.ResponseCache;
+import com.appdynamics.extensions.rackspace.stats.Stats;
+import com.appdynamics.extensions.rackspace.stats.StatsContext;
+
+/**
+ * Collection state of one account, kept across runs: its flavor and response
+ * caches, the schedule and circuits of its collectors, its health and the
+ * emitter of its metric prefix. Its caches and rate samples are also kept
+ * across restarts in the snapshot. Every run, prepare returns the collector
+ * tasks of the account that are due and report prints the metrics they
+ * collected.
+ */
+class AccountMonitor {
+
+	private static final Logger LOG = Logger.getLogger("com.singularity.extensions.AccountMonitor");
+
+	private static final int DEFAULT_PAGE_SIZE = 1000;
+
+	private static final int DEFAULT_FLAVOR_CACHE_TTL_SECS = 3600;
+
+	private static final int DEFAULT_DELTA_REFRESH_CYCLES = 10;
+
+	// Longest gap of an unchanged metric with delta-reporting
+	private static final int MAX_DELTA_REFRESH_CYCLES = 15;
+
+	// Cached responses of urls not requested for this long are dropped, it
+	// is longer than the longest stretched collection interval
+	private static final long RESPONSE_CACHE_MAX_IDLE_MILLIS = 60 * 60 * 1000L;
+
+	private static final int DEFAULT_INTERVAL_SECS = 60;
+
+	private static final int DEFAULT_STATIC_INTERVAL_SECS = 300;
+
+	private static final int DEFAULT_MAX_INTERVAL_STRETCH = 4;
+
+	private static final int DEFAULT_CIRCUIT_FAILURE_THRESHOLD = 3;
+
+	private static final int DEFAULT_CIRCUIT_BACKOFF_SECS = 60;
+
+	private static final int DEFAULT_CIRCUIT_MAX_BACKOFF_SECS = 1800;
+
+	private static final int DEFAULT_LOAD_BALANCER_TRAFFIC_CONCURRENCY = 4;
+
+	private static final int DEFAULT_FILES_CONTAINER_DETAILS_CONCURRENCY = 4;
+
+	private static final String FIRSTGEN_SERVER = "FirstGen Server";
+
+	private static final String ACCOUNT_LIMITS = "Account limits";
+
+	private static final String NEXTGEN_SERVER = "NextGen Server";
+
+	private static final String FILE = "File";
+
+	private static final String DATABASE = "Database";
+
+	private static final String LOAD_BALANCER = "LoadBalancer";
+
+	private static final String LOAD_BALANCER_TRAFFIC = "LoadBalancer Traffic";
+
+	private static final String MONITORING = "Monitoring";
+
+	private Account account;
+
+	private final FlavorCache flavorCache;
+
+	private final ResponseCache responseCache = new ResponseCache(RESPONSE_CACHE_MAX_IDLE_MILLIS);
+
+	// Samples of series not collected for as long as cached responses are
+	// dropped as well
+	private final RateStage rateStage = new RateStage(RESPONSE_CACHE_MAX_IDLE_MILLIS);
+
+	private final MonitorHealth health = new MonitorHealth();
+
+	private final CollectionScheduler scheduler = new CollectionScheduler(DEFAULT_INTERVAL_SECS * 1000L);
+
+	private final CircuitBreaker circuitBreaker;
+
+	private MetricEmitter emitter;
+
+	private Authenticator authenticator;
+
+	private StatsContext statsContext;
+
+	// Tasks of the current run
+	private List<CollectorTask> tasks = Collections.emptyList();
+
+	private List<CollectorTask> dueTasks = Collections.emptyList();
+
+	private List<CollectorTask> allowedTasks = Collections.emptyList();
+
+	public AccountMonitor(Account account, Map<String, String> taskArguments) {
+		this.account = account;
+		this.flavorCache = new FlavorCache(RackspaceMonitor.getIntArgument(taskArguments, "flavor-cache-ttl-in-secs",
+				DEFAULT_FLAVOR_CACHE_TTL_SECS) * 1000L);
+		this.circuitBreaker = new CircuitBreaker(DEFAULT_CIRCUIT_FAILURE_THRESHOLD, DEFAULT_CIRCUIT_BACKOFF_SECS * 1000L,
+				DEFAULT_CIRCUIT_MAX_BACKOFF_SECS * 1000L);
+	}
+
+	public Account getAccount() {
+		return account;
+	}
+
+	/**
+	 * Updates the api key or metric prefix of the account
+	 */
+	public void setAccount(Account account) {
+		this.account = account;
+	}
+
+	/**
+	 * Writes the flavors, the cached responses and the rate samples of the
+	 * account to the snapshot
+	 * 
+	 * @param out
+	 * @throws IOException
+	 */
+	public void writeTo(DataOutput out) throws IOException {
+		flavorCache.writeTo(out);
+		responseCache.writeTo(out);
+		rateStage.writeTo(out);
+	}
+
+	/**
+	 * Restores the state of a snapshot written by writeTo, before the first
+	 * run of the account
+	 * 
+	 * @param in
+	 * @throws IOException
+	 */
+	public void restore(DataInput in) throws IOException {
+		flavorCache.restore(in);
+		responseCache.restore(in);
+		rateStage.restore(in);
+	}
+
+	/**
+	 * Gets a valid token of the account, and returns the tasks of the account
+	 * that are due in this run and whose circuit is not open
+	 * 
+	 * @param taskArguments
+	 * @param httpClient
+	 * @param asyncHttpClient
+	 *            null if requests are not sent asynchronously
+	 * @param prefetchExecutor
+	 * @param authenticator
+	 *            of the account
+	 * @return
+	 * @throws RackspaceMonitorException
+	 */
+	public List<CollectorTask> prepare(Map<String, String> taskArguments, SimpleHttpClient httpClient, AsyncHttpClient asyncHttpClient,
+			Executor prefetchExecutor, Authenticator authenticator) throws RackspaceMonitorException {
+		health.startRun();
+		tasks = Collections.emptyList();
+		dueTasks = Collections.emptyList();
+		allowedTasks = Collections.emptyList();
+		configure(taskArguments);
+
+		this.authenticator = authenticator;
+		String authToken = authenticator.getValidAuthToken();
+		Map<String, Map<String, String>> endpoints = authenticator.getEndpoints();
+		String defRegion = authenticator.getDefaultRegion();
+
+		statsContext = new StatsContext(httpClient, asyncHttpClient, authenticator, RackspaceMonitor.getIntArgument(taskArguments, "page-size",
+				DEFAULT_PAGE_SIZE), prefetchExecutor, flavorCache, responseCache);
+
+		List<CollectorTask> accountTasks = new ArrayList<CollectorTask>();
+		addFirstGenServerTasks(accountTasks, endpoints.get("cloudServers"), authToken, defRegion);
+		addAccountLimitsTask(accountTasks, endpoints.get("cloudServersOpenStack"), authToken, defRegion);
+		addNextGenServerTasks(accountTasks, endpoints.get("cloudServersOpenStack"), authToken);
+		int containerDetailsConcurrency = 0;
+		if ("true".equalsIgnoreCase(taskArguments.get("files-container-details"))) {
+			containerDetailsConcurrency = RackspaceMonitor.getIntArgument(taskArguments, "files-container-details-concurrency",
+					DEFAULT_FILES_CONTAINER_DETAILS_CONCURRENCY);
+		}
+		addFileTasks(accountTasks, endpoints.get("cloudFiles"), endpoints.get("cloudFilesCDN"), authToken, containerDetailsConcurrency);
+		addDatabaseTasks(accountTasks, endpoints.get("cloudDatabases"), authToken);
+		addLoadBalancerTasks(accountTasks, endpoints.get("cloudLoadBalancers"), authToken);
+		if ("true".equalsIgnoreCase(taskArguments.get("loadbalancer-traffic"))) {
+			addLoadBalancerTrafficTasks(accountTasks, endpoints.get("cloudLoadBalancers"), authToken, RackspaceMonitor.getIntArgument(taskArguments,
+					"loadbalancer-traffic-concurrency", DEFAULT_LOAD_BALANCER_TRAFFIC_CONCURRENCY));
+		}
+		if ("true".equalsIgnoreCase(taskArguments.get("cloud-monitoring"))) {
+			addMonitoringTask(accountTasks, endpoints.get("cloudMonitoring"), authToken, defRegion);
+		}
+
+		tasks = accountTasks;
+		dueTasks = scheduler.getDueTasks(tasks);
+		allowedTasks = circuitBreaker.getAllowedTasks(dueTasks);
+		return allowedTasks;
+	}
+
+	/**
+	 * Prints the metrics of the tasks of the account that completed, together
+	 * with the last metrics of the ones that were not due and the health of
+	 * the account
+	 * 
+	 * @param results
+	 *            results of the run, of all accounts
+	 * @param taskArguments
+	 * @param writerFactory
+	 * @param collectionTimeoutMillis
+	 */
+	public void report(List<CollectorResult> results, Map<String, String> taskArguments, MetricWriterFactory writerFactory,
+			long collectionTimeoutMillis) {
+		if (authenticator == null || tasks.isEmpty()) {
+			return;
+		}
+		List<CollectorResult> accountResults = new ArrayList<CollectorResult>();
+		for (CollectorResult result : results) {
+			if (account.getName() == null ? result.getAccount() == null : account.getName().equals(result.getAccount())) {
+				accountResults.add(result);
+			}
+		}
+		circuitBreaker.record(allowedTasks, accountResults);
+
+		// Rates are derived before the results are kept by the scheduler,
+		// which leaves them out when it reports a result again
+		MetricEmitter emitter = getEmitter(taskArguments, writerFactory);
+		for (CollectorResult result : scheduler.complete(tasks, rateStage.apply(accountResults))) {
+			emitter.emit(result);
+		}
+		// Taken even when not reported, so that the next report only covers
+		// its own run
+		List<CollectorResult> healthResults = health.report(authenticator, collectionTimeoutMillis, tasks.size(), dueTasks.size(),
+				accountResults.size());
+		healthResults.addAll(circuitBreaker.report(tasks));
+		if (!"false".equalsIgnoreCase(taskArguments.get("monitor-health-metrics"))) {
+			for (CollectorResult result : healthResults) {
+				emitter.emit(result);
+			}
+		}
+		emitter.flush();
+		responseCache.evictIdle();
+	}
+
+	/**
+	 * Sets the collection interval of every service and the thresholds of the
+	 * circuits from monitor.xml. Limits and Cloud Files change slowly and are
+	 * collected every 5 minutes by default, the other services on every run.
+	 */
+	private void configure(Map<String, String> taskArguments) {
+		scheduler.setInterval(FIRSTGEN_SERVER, RackspaceMonitor.getIntArgument(taskArguments, "firstgen-server-interval-in-secs",
+				DEFAULT_INTERVAL_SECS) * 1000L);
+		scheduler.setInterval(ACCOUNT_LIMITS, RackspaceMonitor.getIntArgument(taskArguments, "limits-interval-in-secs",
+				DEFAULT_STATIC_INTERVAL_SECS) * 1000L);
+		scheduler.setInterval(NEXTGEN_SERVER, RackspaceMonitor.getIntArgument(taskArguments, "nextgen-server-interval-in-secs",
+				DEFAULT_INTERVAL_SECS) * 1000L);
+		scheduler.setInterval(FILE, RackspaceMonitor.getIntArgument(taskArguments, "files-interval-in-secs", DEFAULT_STATIC_INTERVAL_SECS) * 1000L);
+		scheduler.setInterval(DATABASE, RackspaceMonitor.getIntArgument(taskArguments, "databases-interval-in-secs", DEFAULT_INTERVAL_SECS) * 1000L);
+		scheduler.setInterval(LOAD_BALANCER, RackspaceMonitor.getIntArgument(taskArguments, "loadbalancers-interval-in-secs",
+				DEFAULT_INTERVAL_SECS) * 1000L);
+		scheduler.setInterval(LOAD_BALANCER_TRAFFIC, RackspaceMonitor.getIntArgument(taskArguments, "loadbalancer-traffic-interval-in-secs",
+				DEFAULT_INTERVAL_SECS) * 1000L);
+		scheduler.setInterval(MONITORING, RackspaceMonitor.getIntArgument(taskArguments, "monitoring-interval-in-secs", DEFAULT_INTERVAL_SECS) * 1000L);
+		scheduler.setMaxStretch(RackspaceMonitor.getIntArgument(taskArguments, "max-interval-stretch", DEFAULT_MAX_INTERVAL_STRETCH));
+
+		circuitBreaker.configure(RackspaceMonitor.getIntArgument(taskArguments, "circuit-failure-threshold", DEFAULT_CIRCUIT_FAILURE_THRESHOLD),
+				RackspaceMonitor.getIntArgument(taskArguments, "circuit-backoff-in-secs", DEFAULT_CIRCUIT_BACKOFF_SECS) * 1000L,
+				RackspaceMonitor.getIntArgument(taskArguments, "circuit-max-backoff-in-secs", DEFAULT_CIRCUIT_MAX_BACKOFF_SECS) * 1000L);
+	}
+
+	/**
+	 * Returns the context of the collector of the task, recording the
+	 * requests it makes to the instruments of its service and region
+	 */
+	private StatsContext contextFor(CollectorTask task) {
+		return statsContext.withInstruments(health.get(task.getService(), task.getRegion()));
+	}
+
+	/**
+	 * Adds a task fetching FirstGen server metrics for the default region,
+	 * arguments being Map<Region, publicUrl>, authentication token, and default
+	 * region.
+	 * 
+	 * @param tasks
+	 * @param serviceEndPoints
+	 * @param authToken
+	 * @param defRegion
+	 */
+	private void addFirstGenServerTasks(List<CollectorTask> tasks, Map<String, String> serviceEndPoints, final String authToken, String defRegion) {
+		if (serviceEndPoints != null) {
+			final String serviceUrl = serviceEndPoints.get(defRegion);
+			tasks.add(new CollectorTask(account.getName(), FIRSTGEN_SERVER, defRegion) {
+				@Override
+				protected CollectorResult collect() throws RackspaceMonitorException {
+					FirstGenServerStats cloudServerStats = new FirstGenServerStats(contextFor(this));
+					return result(FirstGenServerStats.metricPath, cloudServerStats.getMetrics(authToken, serviceUrl));
+				}
+			});
+		} else {
+			LOG.error("Skipping fetching FirstGen Server Stats of " + account
+					+ ": Missing service with name 'cloudServers' in the authentication response (serviceCatalog - endPoints)");
+		}
+	}
+
+	/**
+	 * Adds a task fetching account limits for SecondGenServers, the input
+	 * arguments being endpoints of the service, authentication token and
+	 * default region
+	 * 
+	 * @param tasks
+	 * @param serviceEndPoints
+	 * @param authToken
+	 * @param defRegion
+	 */
+	private void addAccountLimitsTask(List<CollectorTask> tasks, Map<String, String> serviceEndPoints, final String authToken, String defRegion) {
+		if (serviceEndPoints != null && serviceEndPoints.get(defRegion) != null) {
+			final String url = serviceEndPoints.get(defRegion);
+			tasks.add(new CollectorTask(account.getName(), ACCOUNT_LIMITS, defRegion) {
+				@Override
+				protected CollectorResult collect() throws RackspaceMonitorException {
+					return result(NextGenServerStats.limitsPath, Stats.await(new NextGenServerStats(contextFor(this)).getLimitsAsync(url, authToken)));
+				}
+			});
+		} else {
+			LOG.error("Skipping fetching Account limits of " + account
+					+ ": Missing service with name 'cloudServersOpenStack' for the default region in the authentication response (serviceCatalog - endPoints)");
+		}
+	}
+
+	/**
+	 * Adds a task per region fetching NextGen server metrics
+	 * 
+	 * @param tasks
+	 * @param serviceEndPoints
+	 * @param authToken
+	 */
+	private void addNextGenServerTasks(List<CollectorTask> tasks, Map<String, String> serviceEndPoints, final String authToken) {
+		if (serviceEndPoints != null) {
+			for (final Entry<String, String> regionEndPoint : serviceEndPoints.entrySet()) {
+				tasks.add(new CollectorTask(account.getName(), NEXTGEN_SERVER, regionEndPoint.getKey()) {
+					@Override
+					protected CollectorResult collect() throws RackspaceMonitorException {
+						NextGenServerStats cloudServerStats = new NextGenServerStats(contextFor(this));
+						return result(NextGenServerStats.metricPath, Stats.await(cloudServerStats.getMetricsAsync(authToken, regionEndPoint.getValue())));
+					}
+				});
+			}
+		} else {
+			LOG.error("Skipping fetching Next Gen Server Stats of " + account
+					+ ": Missing service with name 'cloudServersOpenStack' in the authentication response (serviceCatalog - endPoints)");
+		}
+	}
+
+	/**
+	 * Adds a task per region fetching Files metrics. With a
+	 * containerDetailsConcurrency every container is requested for its
+	 * details as well, that many containers at a time.
+	 * 
+	 * @param tasks
+	 * @param serviceEndPoints
+	 * @param cdnEndPoints
+	 *            null if the account has no CDN service
+	 * @param authToken
+	 * @param containerDetailsConcurrency
+	 *            0 to read the container listing only
+	 */
+	private void addFileTasks(List<CollectorTask> tasks, Map<String, String> serviceEndPoints, final Map<String, String> cdnEndPoints,
+			final String authToken, final int containerDetailsConcurrency) {
+		if (serviceEndPoints != null) {
+			for (final Entry<String, String> regionEndPoint : serviceEndPoints.entrySet()) {
+				tasks.add(new CollectorTask(account.getName(), FILE, regionEndPoint.getKey()) {
+					@Override
+					protected CollectorResult collect() throws RackspaceMonitorException {
+						String cdnUrl = cdnEndPoints != null ? cdnEndPoints.get(regionEndPoint.getKey()) : null;
+						CloudFilesStats fileStats = new CloudFilesStats(contextFor(this), containerDetailsConcurrency, cdnUrl);
+						return result(CloudFilesStats.metricPath, fileStats.getMetrics(authToken, regionEndPoint.getValue()));
+					}
+				});
+			}
+		} else {
+			LOG.error("Skipping fetching File Stats of " + account
+					+ ": Missing service with name 'cloudFiles' in the authentication response (serviceCatalog - endPoints)");
+		}
+	}
+
+	/**
+	 * Adds a task per region fetching Database metrics
+	 * 
+	 * @param tasks
+	 * @param serviceEndPoints
+	 * @param authToken
+	 */
+	private void addDatabaseTasks(List<CollectorTask> tasks, Map<String, String> serviceEndPoints, final String authToken) {
+		if (serviceEndPoints != null) {
+			for (final Entry<String, String> regionEndPoint : serviceEndPoints.entrySet()) {
+				tasks.add(new CollectorTask(account.getName(), DATABASE, regionEndPoint.getKey()) {
+					@Override
+					protected CollectorResult collect() throws RackspaceMonitorException {
+						DatabaseStats databaseStats = new DatabaseStats(contextFor(this));
+						return result(DatabaseStats.metricPath, databaseStats.getMetrics(authToken, regionEndPoint.getValue()));
+					}
+				});
+			}
+		} else {
+			LOG.error("Skipping fetching Database Stats of " + account
+					+ ": Missing service with name 'cloudDatabases' in the authentication response (serviceCatalog - endPoints)");
+		}
+
+	}
+
+	/**
+	 * Adds a task per region fetching LoadBalancer metrics
+	 * 
+	 * @param tasks
+	 * @param serviceEndPoints
+	 * @param authToken
+	 */
+	private void addLoadBalancerTasks(List<CollectorTask> tasks, Map<String, String> serviceEndPoints, final String authToken) {
+		if (serviceEndPoints != null) {
+			for (final Entry<String, String> regionEndPoint : serviceEndPoints.entrySet()) {
+				tasks.add(new CollectorTask(account.getName(), LOAD_BALANCER, regionEndPoint.getKey()) {
+					@Override
+					protected CollectorResult collect() throws RackspaceMonitorException {
+						LoadBalancerStats loadbalancerStats = new LoadBalancerStats(contextFor(this));
+						return result(LoadBalancerStats.metricPath, loadbalancerStats.getMetrics(authToken, regionEndPoint.getValue()));
+					}
+				});
+			}
+		} else {
+			LOG.error("Skipping fetching Loadbalancer Stats of " + account
+					+ ": Missing service with name 'cloudLoadbalancers' in the authentication response (serviceCatalog - endPoints)");
+		}
+
+	}
+
+	/**
+	 * Adds a task per region fetching the traffic of every LoadBalancer, with
+	 * at most maxConcurrentRequests LoadBalancers requested at a time
+	 * 
+	 * @param tasks
+	 * @param serviceEndPoints
+	 * @param authToken
+	 * @param maxConcurrentRequests
+	 */
+	private void addLoadBalancerTrafficTasks(List<CollectorTask> tasks, Map<String, String> serviceEndPoints, final String authToken,
+			final int maxConcurrentRequests) {
+		if (serviceEndPoints != null) {
+			for (final Entry<String, String> regionEndPoint : serviceEndPoints.entrySet()) {
+				tasks.add(new CollectorTask(account.getName(), LOAD_BALANCER_TRAFFIC, regionEndPoint.getKey()) {
+					@Override
+					protected CollectorResult collect() throws RackspaceMonitorException {
+						LoadBalancerTrafficStats trafficStats = new LoadBalancerTrafficStats(contextFor(this), maxConcurrentRequests);
+						return result(LoadBalancerStats.metricPath, trafficStats.getMetrics(authToken, regionEndPoint.getValue()));
+					}
+				});
+			}
+		}
+	}
+
+	/**
+	 * Adds a task fetching the utilization of the servers monitored by Cloud
+	 * Monitoring. The service is global, its metrics are reported under the
+	 * default region.
+	 * 
+	 * @param tasks
+	 * @param serviceEndPoints
+	 * @param authToken
+	 * @param defRegion
+	 */
+	private void addMonitoringTask(List<CollectorTask> tasks, Map<String, String> serviceEndPoints, final String authToken, String defRegion) {
+		if (serviceEndPoints != null && serviceEndPoints.get(defRegion) != null) {
+			final String url = serviceEndPoints.get(defRegion);
+			tasks.add(new CollectorTask(account.getName(), MONITORING, defRegion) {
+				@Override
+				protected CollectorResult collect() throws RackspaceMonitorException {
+					CloudMonitoringStats monitoringStats = new CloudMonitoringStats(contextFor(this));
+					return result(CloudMonitoringStats.metricPath, monitoringStats.getMetrics(authToken, url));
+				}
+			});
+		} else {
+			LOG.error("Skipping fetching Cloud Monitoring Stats of " + account
+					+ ": Missing service with name 'cloudMonitoring' in the authentication response (serviceCatalog - endPoints)");
+		}
+	}
+
+	/**
+	 * Returns the emitter of the metric prefix of the account, the emitter and
+	 * its resolved MetricWriters are kept across runs. With delta-reporting
+	 * unchanged values are only reported every delta-refresh-cycles runs, at
+	 * most every MAX_DELTA_REFRESH_CYCLES runs.
+	 */
+	private MetricEmitter getEmitter(Map<String, String> taskArguments, MetricWriterFactory writerFactory) {
+		int refreshCycles = 0;
+		if ("true".equalsIgnoreCase(taskArguments.get("delta-reporting"))) {
+			refreshCycles = RackspaceMonitor.getIntArgument(taskArguments, "delta-refresh-cycles", DEFAULT_DELTA_REFRESH_CYCLES);
+			if (refreshCycles > MAX_DELTA_REFRESH_CYCLES) {
+				LOG.warn("delta-refresh-cycles " + refreshCycles + " is above " + MAX_DELTA_REFRESH_CYCLES + ", using " + MAX_DELTA_REFRESH_CYCLES);
+				refreshCycles = MAX_DELTA_REFRESH_CYCLES;
+			}
+		}
+		if (emitter == null || !emitter.getMetricPrefix().equals(account.getMetricPrefix()) || emitter.getRefreshCycles() != refreshCycles) {
+			emitter = new MetricEmitter(account.getMetricPrefix(), writerFactory, refreshCycles);
+		}
+		return emitter;
+	}
+}
@@ -7,21 +7,40 @@
  */
 package com.appdynamics.extensions.rackspace;
 
-import java.util.HashMap;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
-import java.util.Map.Entry;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 import org.apache.log4j.Logger;
 
 import com.appdynamics.extensions.http.SimpleHttpClient;
+import com.appdynamics.extensions.rackspace.collector.CollectorResult;
+import com.appdynamics.extensions.rackspace.collector.CollectorTask;
+import com.appdynamics.extensions.rackspace.collector.MetricWriterFactory;
+import com.appdynamics.extensions.rackspace.collector.ParallelCollector;
+import com.appdynamics.extensions.rackspace.common.Account;
 import com.appdynamics.extensions.rackspace.common.AccountBase;
 import com.appdynamics.extensions.rackspace.common.Authenticator;
+import com.appdynamics.extensions.rackspace.common.AsyncHttpClient;
+import com.appdynamics.extensions.rackspace.common.HttpClientPool;
+import com.appdynamics.extensions.rackspace.common.SnapshotFile;
 import com.appdynamics.extensions.rackspace.exception.RackspaceMonitorException;
-import com.appdynamics.extensions.rackspace.stats.CloudFilesStats;
-import com.appdynamics.extensions.rackspace.stats.DatabaseStats;
-import com.appdynamics.extensions.rackspace.stats.FirstGenServerStats;
-import com.appdynamics.extensions.rackspace.stats.LoadBalancerStats;
-import com.appdynamics.extensions.rackspace.stats.NextGenServerStats;
 import com.singularity.ee.agent.systemagent.api.AManagedMonitor;
 import com.singularity.ee.agent.systemagent.api.MetricWriter;
 import com.singularity.ee.agent.systemagent.api.TaskExecutionContext;
@@ -34,14 +53,77 @@ public class RackspaceMonitor extends AManagedMonitor {
 
 	private static final String DEFAULT_METRIC_PREFIX = "Custom Metrics|Rackspace|";
 
-	private static String metric_path_prefix = DEFAULT_METRIC_PREFIX;
+	// Accounts are given as account.<index>.<argument>
+	private static final Pattern ACCOUNT_USERNAME = Pattern.compile("account\\.(\\d+)\\.username");
+
+	private static final int DEFAULT_COLLECTOR_THREADS = 8;
+
+	private static final int DEFAULT_TASK_TIMEOUT_SECS = 30;
+
+	private static final int DEFAULT_COLLECTION_TIMEOUT_SECS = 50;
+
+	private static final int DEFAULT_MAX_CONNECTIONS_PER_ROUTE = 10;
+
+	private static final int DEFAULT_MAX_TOTAL_CONNECTIONS = 50;
+
+	private static final int DEFAULT_CONNECT_TIMEOUT_MILLIS = 10000;
+
+	private static final int DEFAULT_SOCKET_TIMEOUT_MILLIS = 20000;
+
+	private static final int DEFAULT_IDLE_CONNECTION_TIMEOUT_SECS = 120;
+
+	// Written next to monitor.xml, in the directory of the extension
+	private static final String SNAPSHOT_FILE_NAME = "rackspace-monitor.snapshot";
+
+	private static final String AUTHENTICATOR_SECTION = "authenticator|";
+
+	private static final String ACCOUNT_SECTION = "account|";
+
+	private HttpClientPool httpClientPool;
 
 	private SimpleHttpClient httpClient;
 
+	// null unless async-http is set
+	private AsyncHttpClient asyncHttpClient;
+
+	private ParallelCollector collector;
+
+	// Map<userName|authUrl, Authenticator>, shared by the accounts with the
+	// same credentials
+	private final Map<String, Authenticator> authenticators = new LinkedHashMap<String, Authenticator>();
+
+	// Map<Account key, AccountMonitor>
+	private final Map<String, AccountMonitor> accountMonitors = new LinkedHashMap<String, AccountMonitor>();
+
+	private final MetricWriterFactory writerFactory = new MetricWriterFactory() {
+		public MetricWriter getMetricWriter(String metricName, String aggregation, String timeRollup, String cluster) {
+			return RackspaceMonitor.this.getMetricWriter(metricName, aggregation, timeRollup, cluster);
+		}
+	};
+
+	// null if the directory of the extension is unknown
+	private final SnapshotFile snapshotFile;
+
+	// Map<Section, State> of the snapshot of the previous process, a section
+	// is removed once the Authenticator or AccountMonitor it belongs to has
+	// been created
+	private final Map<String, byte[]> restoredSections;
+
+	private boolean snapshotEnabled = true;
+
 	public RackspaceMonitor() {
 		String msg = "Using Monitor Version [" + getImplementationVersion() + "]";
 		LOG.info(msg);
 		System.out.println(msg);
+
+		// Read before the first run so that it starts with the tokens, flavors
+		// and cached responses of the previous process
+		File snapshotLocation = getSnapshotLocation();
+		snapshotFile = snapshotLocation != null ? new SnapshotFile(snapshotLocation) : null;
+		restoredSections = snapshotFile != null ? snapshotFile.read() : new LinkedHashMap<String, byte[]>();
+		if (!restoredSections.isEmpty()) {
+			LOG.info("Restoring " + restoredSections.size() + " sections of the snapshot " + snapshotLocation);
+		}
 	}
 
 	/**
@@ -53,31 +135,31 @@ public class RackspaceMonitor extends AManagedMonitor {
 		LOG.info("Starting the Rackspace Monitoring Task");
 
 		try {
-			taskArguments = checkArguments(taskArguments);
+			List<Account> accounts = getAccounts(checkArguments(taskArguments));
+			configureSnapshot(taskArguments);
 
 			if (LOG.isDebugEnabled()) {
-				LOG.debug("Valid task arguments in monitor.xml");
+				LOG.debug("Valid task arguments in monitor.xml for " + accounts.size() + " accounts");
 			}
 
-			httpClient = SimpleHttpClient.builder(new HashMap<String, String>()).build();
-
-			Authenticator authenticator = initAuthenticator(taskArguments);
-			Map<String, Map<String, String>> endpoints = authenticator.getEndpoints();
-			String authToken = authenticator.getAuthToken();
-			String defRegion = authenticator.getDefaultRegion();
-
-			// Fetches and prints metrics
-			populateFirstGenServerStats(endpoints.get("cloudServers"), authToken, defRegion);
-
-			populateAccountLimits(endpoints.get("cloudServersOpenStack").get(defRegion), authToken);
-
-			populateNextGenServerStats(endpoints.get("cloudServersOpenStack"), authToken);
-
-			populateFileStats(endpoints.get("cloudFiles"), authToken);
-
-			populateDatabaseStats(endpoints.get("cloudDatabases"), authToken);
+			initHttpClient(taskArguments);
+			ParallelCollector collector = getCollector(taskArguments);
+			List<AccountMonitor> monitors = getAccountMonitors(accounts, taskArguments);
+
+			// Fetches metrics of every (service, region) of every account that
+			// is due in parallel, and prints the ones that completed together
+			// with the last metrics of the ones that were not due
+			List<CollectorTask> tasks = prepare(monitors, taskArguments, collector);
+			int maxTasksPerAccount = Integer.MAX_VALUE;
+			if (monitors.size() > 1) {
+				maxTasksPerAccount = getIntArgument(taskArguments, "max-collectors-per-account", Math.max(collector.getConcurrency() / 2, 1));
+			}
+			List<CollectorResult> results = collector.collect(tasks, maxTasksPerAccount);
 
-			populateLoadBalancerStats(endpoints.get("cloudLoadBalancers"), authToken);
+			for (AccountMonitor monitor : monitors) {
+				monitor.report(results, taskArguments, writerFactory, collector.getCollectionTimeoutMillis());
+			}
+			checkpoint();
 
 			LOG.info("Completed Rackspace Monitor Task");
 		} catch (Exception e) {
@@ -87,244 +169,344 @@ public class RackspaceMonitor extends AManagedMonitor {
 		return new TaskOutput("Rackspace Stats uploaded succcessfully");
 	}
 
-	private Authenticator initAuthenticator(Map<String, String> taskArguments) throws RackspaceMonitorException {
-		String userName = taskArguments.get("username");
-		String apiKey = taskArguments.get("api-key");
-		String accountBase = taskArguments.get("account-base");
-
-		// Authenticates and retrieves the token and endPoints from response
-		String authEndPointUrl = getAuthUrl(accountBase);
-		Authenticator authenticator = new Authenticator(httpClient);
-		authenticator.authenticate(userName, apiKey, authEndPointUrl);
-		return authenticator;
-	}
+	/**
+	 * Authenticates the accounts, in parallel if there are several, and
+	 * returns the tasks of the run of all accounts. An account that fails is
+	 * skipped for the run, the run fails only if every account failed.
+	 */
+	private List<CollectorTask> prepare(List<AccountMonitor> monitors, final Map<String, String> taskArguments, final ParallelCollector collector)
+			throws RackspaceMonitorException {
+		List<FutureTask<List<CollectorTask>>> futures = new ArrayList<FutureTask<List<CollectorTask>>>();
+		for (final AccountMonitor monitor : monitors) {
+			final Authenticator authenticator = getAuthenticator(monitor.getAccount());
+			FutureTask<List<CollectorTask>> future = new FutureTask<List<CollectorTask>>(new Callable<List<CollectorTask>>() {
+				public List<CollectorTask> call() throws Exception {
+					return monitor.prepare(taskArguments, httpClient, asyncHttpClient, collector.getPrefetchExecutor(), authenticator);
+				}
+			});
+			if (monitors.size() == 1) {
+				future.run();
+			} else {
+				// The cached pool of page prefetchers is idle until the
+				// tasks run
+				collector.getPrefetchExecutor().execute(future);
+			}
+			futures.add(future);
+		}
+		pruneAuthenticators();
 
-	private Map<String, String> checkArguments(Map<String, String> taskArguments) {
-		if (taskArguments == null) {
-			throw new IllegalArgumentException("No task arguments in monitor.xml");
+		List<CollectorTask> tasks = new ArrayList<CollectorTask>();
+		Throwable failure = null;
+		for (int i = 0; i < futures.size(); i++) {
+			try {
+				tasks.addAll(futures.get(i).get());
+			} catch (ExecutionException e) {
+				failure = e.getCause();
+				LOG.error("Error authenticating " + monitors.get(i).getAccount() + ", skipping the account for this run", failure);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new RackspaceMonitorException(e);
+			}
 		}
-		if (argumentInvalid(taskArguments, "username") || argumentInvalid(taskArguments, "api-key") || argumentInvalid(taskArguments, "account-base")) {
-			throw new IllegalArgumentException("Required task arguments missing in monitor.xml. Please provide rackspace parameters in monitor.xml");
+		if (tasks.isEmpty() && failure != null) {
+			throw failure instanceof RackspaceMonitorException ? (RackspaceMonitorException) failure : new RackspaceMonitorException(failure);
 		}
-		String prefix = taskArguments.get("metric-prefix");
-		if (prefix != null && prefix != "") {
-			metric_path_prefix = prefix;
-			if (!metric_path_prefix.endsWith("|")) {
-				metric_path_prefix += "|";
+		return tasks;
+	}
+
+	/**
+	 * Keeps the AccountMonitors of the previous run, and with them their
+	 * caches and schedules, for the accounts still in monitor.xml
+	 */
+	private List<AccountMonitor> getAccountMonitors(List<Account> accounts, Map<String, String> taskArguments) {
+		List<AccountMonitor> monitors = new ArrayList<AccountMonitor>();
+		Set<String> keys = new HashSet<String>();
+		for (Account account : accounts) {
+			keys.add(account.getKey());
+			AccountMonitor monitor = accountMonitors.get(account.getKey());
+			if (monitor == null) {
+				monitor = new AccountMonitor(account, taskArguments);
+				DataInputStream state = getRestoredSection(ACCOUNT_SECTION + account.getKey());
+				if (state != null) {
+					try {
+						monitor.restore(state);
+					} catch (IOException e) {
+						LOG.error("Error restoring the state of " + account + " from the snapshot", e);
+					}
+				}
+				accountMonitors.put(account.getKey(), monitor);
+			} else {
+				monitor.setAccount(account);
 			}
-			taskArguments.put("metric-prefix", metric_path_prefix);
+			monitors.add(monitor);
 		}
-		return taskArguments;
-
+		accountMonitors.keySet().retainAll(keys);
+		return monitors;
 	}
 
-	private boolean argumentInvalid(Map<String, String> taskArguments, String argumentKey) {
-		String value = taskArguments.get(argumentKey);
-		return value == null || "".equals(value.trim());
+	/**
+	 * Returns the Authenticator of the account, keeping the one of the
+	 * previous run, and with it the cached token and endpoints, unless the
+	 * credentials in monitor.xml have changed
+	 */
+	private synchronized Authenticator getAuthenticator(Account account) {
+		String key = account.getUserName() + "|" + account.getAuthUrl();
+		Authenticator authenticator = authenticators.get(key);
+		if (authenticator == null || !authenticator.isFor(account.getUserName(), account.getApiKey(), account.getAuthUrl())) {
+			if (authenticator != null) {
+				authenticator.shutdown();
+			}
+			authenticator = new Authenticator(httpClient, account.getUserName(), account.getApiKey(), account.getAuthUrl());
+			DataInputStream state = getRestoredSection(AUTHENTICATOR_SECTION + key);
+			if (state != null) {
+				try {
+					authenticator.restore(state);
+				} catch (IOException e) {
+					LOG.error("Error restoring the token of " + account + " from the snapshot", e);
+				}
+			}
+			authenticators.put(key, authenticator);
+		}
+		return authenticator;
 	}
 
 	/**
-	 * Determines the authentication endpoint url based on the region (US/UK)
-	 * where the account is based. The region one of the inputs in monitor.xml
-	 * 
-	 * @param accountBase
-	 * @return authUrl
-	 * @throws RackspaceMonitorException
+	 * Shuts down the Authenticators of accounts no longer in monitor.xml
 	 */
-	private String getAuthUrl(String accountBase) throws RackspaceMonitorException {
-		String authUrl;
-		try {
-			authUrl = AccountBase.valueOf(accountBase).getAuthUrl();
-		} catch (IllegalArgumentException e) {
-			LOG.error("Specify valid account base (US/UK in monitor.xml)");
-			throw new RackspaceMonitorException(e);
+	private synchronized void pruneAuthenticators() {
+		Set<String> keys = new HashSet<String>();
+		for (AccountMonitor monitor : accountMonitors.values()) {
+			keys.add(monitor.getAccount().getUserName() + "|" + monitor.getAccount().getAuthUrl());
 		}
-		return authUrl;
+		Iterator<Map.Entry<String, Authenticator>> entries = authenticators.entrySet().iterator();
+		while (entries.hasNext()) {
+			Map.Entry<String, Authenticator> entry = entries.next();
+			if (!keys.contains(entry.getKey())) {
+				entry.getValue().shutdown();
+				entries.remove();
+			}
+		}
+	}
 
+	/**
+	 * With snapshot="false" the state of the previous process is not used and
+	 * the snapshot is deleted, as it holds the tokens of the accounts
+	 */
+	private void configureSnapshot(Map<String, String> taskArguments) {
+		snapshotEnabled = snapshotFile != null && !"false".equalsIgnoreCase(taskArguments.get("snapshot"));
+		if (!snapshotEnabled && snapshotFile != null) {
+			synchronized (this) {
+				restoredSections.clear();
+			}
+			snapshotFile.delete();
+		}
 	}
 
 	/**
-	 * Populates and prints FirstGen server metrics to AppDynamics Controller,
-	 * arguments being Map<Region, publicUrl>, authentication token, and default
-	 * region.
+	 * Returns the state of the section of the snapshot, once
 	 * 
-	 * @param serviceEndPoints
-	 * @param authToken
-	 * @param defRegion
+	 * @param name
+	 * @return null if the snapshot has no such section
 	 */
-	private void populateFirstGenServerStats(Map<String, String> serviceEndPoints, String authToken, String defRegion) {
-		if (serviceEndPoints != null) {
-			try {
-				String serviceUrl = serviceEndPoints.get(defRegion);
-				FirstGenServerStats cloudServerStats = new FirstGenServerStats(httpClient);
-				Map<String, Map<String, Long>> metricsMap = cloudServerStats.getMetrics(authToken, serviceUrl);
-				for (Entry<String, Map<String, Long>> serverMetrics : metricsMap.entrySet()) {
-					String serverName = serverMetrics.getKey();
-					Map<String, Long> serverStats = serverMetrics.getValue();
-					for (Entry<String, Long> stats : serverStats.entrySet()) {
-						printMetric(String.format(FirstGenServerStats.metricPath, defRegion, serverName), stats.getKey(), stats.getValue());
+	private synchronized DataInputStream getRestoredSection(String name) {
+		byte[] section = restoredSections.remove(name);
+		return section != null ? new DataInputStream(new ByteArrayInputStream(section)) : null;
+	}
+
+	/**
+	 * Replaces the snapshot with the tokens of the Authenticators and the
+	 * state of the AccountMonitors after the run. Sections of the previous
+	 * process not restored by now are of accounts no longer in monitor.xml,
+	 * and are dropped.
+	 */
+	private void checkpoint() {
+		if (!snapshotEnabled) {
+			return;
+		}
+		long start = System.currentTimeMillis();
+		Map<String, byte[]> sections = new LinkedHashMap<String, byte[]>();
+		try {
+			synchronized (this) {
+				restoredSections.clear();
+				for (Map.Entry<String, Authenticator> authenticator : authenticators.entrySet()) {
+					if (authenticator.getValue().getAuthToken() != null) {
+						ByteArrayOutputStream state = new ByteArrayOutputStream();
+						authenticator.getValue().writeTo(new DataOutputStream(state));
+						sections.put(AUTHENTICATOR_SECTION + authenticator.getKey(), state.toByteArray());
 					}
 				}
-			} catch (Exception e) {
-				LOG.error("Error fetching First GenServer stats ", e);
 			}
-		} else {
-			LOG.error("Skipping fetching FirstGen Server Stats: Missing service with name 'cloudServers' in the authentication response (serviceCatalog - endPoints)");
+			for (Map.Entry<String, AccountMonitor> monitor : accountMonitors.entrySet()) {
+				ByteArrayOutputStream state = new ByteArrayOutputStream();
+				monitor.getValue().writeTo(new DataOutputStream(state));
+				sections.put(ACCOUNT_SECTION + monitor.getKey(), state.toByteArray());
+			}
+			snapshotFile.write(sections);
+			if (LOG.isDebugEnabled()) {
+				LOG.debug("Wrote the snapshot " + snapshotFile.getFile() + " in " + (System.currentTimeMillis() - start) + "ms");
+			}
+		} catch (IOException e) {
+			LOG.error("Error writing the snapshot " + snapshotFile.getFile() + ", the state of this run is not kept across a restart", e);
 		}
 	}
 
 	/**
-	 * Fetches account limits for SecondGenServers and uploads them to
-	 * AppDynamics Controller, the input arguments being endpointUrl for default
-	 * region and authentication token
-	 * 
-	 * @param url
-	 * @param authToken
+	 * Returns the snapshot file in the directory of the extension jar, which
+	 * is where monitor.xml is
 	 */
-	private void populateAccountLimits(String url, String authToken) {
+	private static File getSnapshotLocation() {
 		try {
-			Map<String, Long> limitsMap = new NextGenServerStats(httpClient).getLimits(url, authToken);
-			for (Entry<String, Long> limits : limitsMap.entrySet()) {
-				printMetric(NextGenServerStats.limitsPath, limits.getKey(), limits.getValue());
-			}
+			File codeSource = new File(RackspaceMonitor.class.getProtectionDomain().getCodeSource().getLocation().toURI());
+			return new File(codeSource.isFile() ? codeSource.getParentFile() : codeSource, SNAPSHOT_FILE_NAME);
 		} catch (Exception e) {
-			LOG.error("Error fetching Account limits for NextGen Server", e);
+			LOG.warn("Could not locate the directory of the extension, its state is not kept across restarts", e);
+			return null;
 		}
 	}
 
 	/**
-	 * Populates and prints NextGen server metrics to AppDynamics Controller
-	 * 
-	 * @param serviceEndPoints
-	 * @param authToken
+	 * Creates the collector on the first run. The pool is kept across runs so
+	 * that threads are not created every minute. With virtual-threads every
+	 * task runs on a virtual thread of its own and as many tasks run at a time
+	 * as half the connections of the pool, the other half being left to the
+	 * pages and requests they fetch ahead; tasks and prefetches together
+	 * never run more requests than the pool has connections.
 	 */
-	private void populateNextGenServerStats(Map<String, String> serviceEndPoints, String authToken) {
-		if (serviceEndPoints != null) {
-			for (Entry<String, String> regionEndPoint : serviceEndPoints.entrySet()) {
-				try {
-					NextGenServerStats cloudServerStats = new NextGenServerStats(httpClient);
-					Map<String, Map<String, Long>> metricsMap = cloudServerStats.getMetrics(authToken, regionEndPoint.getValue());
-					for (Entry<String, Map<String, Long>> serverMetrics : metricsMap.entrySet()) {
-						String serverName = serverMetrics.getKey();
-						Map<String, Long> serverStats = serverMetrics.getValue();
-						for (Entry<String, Long> stats : serverStats.entrySet()) {
-							printMetric(String.format(NextGenServerStats.metricPath, regionEndPoint.getKey(), serverName), stats.getKey(),
-									stats.getValue());
-						}
-					}
-				} catch (Exception e) {
-					LOG.error("Error populating NextGen Server Stats for region " + regionEndPoint.getKey(), e);
-				}
+	private ParallelCollector getCollector(Map<String, String> taskArguments) {
+		if (collector == null) {
+			long taskTimeout = getIntArgument(taskArguments, "task-timeout-in-secs", DEFAULT_TASK_TIMEOUT_SECS) * 1000L;
+			long collectionTimeout = getIntArgument(taskArguments, "collection-timeout-in-secs", DEFAULT_COLLECTION_TIMEOUT_SECS) * 1000L;
+			if ("true".equalsIgnoreCase(taskArguments.get("virtual-threads"))) {
+				int maxConnections = getIntArgument(taskArguments, "max-total-connections", DEFAULT_MAX_TOTAL_CONNECTIONS);
+				collector = new ParallelCollector(Math.max(maxConnections / 2, 1), taskTimeout, collectionTimeout, true, maxConnections);
+			} else {
+				int threads = getIntArgument(taskArguments, "collector-threads", DEFAULT_COLLECTOR_THREADS);
+				collector = new ParallelCollector(threads, taskTimeout, collectionTimeout);
 			}
-		} else {
-			LOG.error("Skipping fetching Next Gen Server Stats: Missing service with name 'cloudServersOpenStack' in the authentication response (serviceCatalog - endPoints)");
 		}
+		return collector;
 	}
 
 	/**
-	 * Populates and prints Files metrics to AppDynamics Controller
-	 * 
-	 * @param serviceEndPoints
-	 * @param authToken
+	 * Creates the pooled http client on the first run, it is reused by all
+	 * further runs and shared by all accounts so that kept alive connections
+	 * can be reused. With async-http the non blocking client is created
+	 * alongside it.
 	 */
-	private void populateFileStats(Map<String, String> serviceEndPoints, String authToken) {
-		if (serviceEndPoints != null) {
-			for (Entry<String, String> regionEndPoint : serviceEndPoints.entrySet()) {
-				try {
-					CloudFilesStats fileStats = new CloudFilesStats(httpClient);
-					Map<String, Map<String, Long>> metricsMap = fileStats.getMetrics(authToken, regionEndPoint.getValue());
-					for (Entry<String, Map<String, Long>> containerMetrics : metricsMap.entrySet()) {
-						String containerName = containerMetrics.getKey();
-						Map<String, Long> containerStats = containerMetrics.getValue();
-						for (Entry<String, Long> stats : containerStats.entrySet()) {
-							printMetric(String.format(CloudFilesStats.metricPath, regionEndPoint.getKey(), containerName), stats.getKey(),
-									stats.getValue());
-						}
-					}
-				} catch (Exception e) {
-					LOG.error("Error fetching File metrics for region " + regionEndPoint.getKey(), e);
-				}
+	private void initHttpClient(Map<String, String> taskArguments) {
+		if (httpClientPool == null) {
+			httpClientPool = new HttpClientPool(getIntArgument(taskArguments, "max-connections-per-route", DEFAULT_MAX_CONNECTIONS_PER_ROUTE),
+					getIntArgument(taskArguments, "max-total-connections", DEFAULT_MAX_TOTAL_CONNECTIONS), getIntArgument(taskArguments,
+							"connect-timeout-in-millis", DEFAULT_CONNECT_TIMEOUT_MILLIS), getIntArgument(taskArguments, "socket-timeout-in-millis",
+							DEFAULT_SOCKET_TIMEOUT_MILLIS), getIntArgument(taskArguments, "idle-connection-timeout-in-secs",
+							DEFAULT_IDLE_CONNECTION_TIMEOUT_SECS) * 1000L);
+			httpClient = httpClientPool.getHttpClient();
+			if ("true".equalsIgnoreCase(taskArguments.get("async-http"))) {
+				asyncHttpClient = new AsyncHttpClient(getIntArgument(taskArguments, "connect-timeout-in-millis", DEFAULT_CONNECT_TIMEOUT_MILLIS),
+						getIntArgument(taskArguments, "socket-timeout-in-millis", DEFAULT_SOCKET_TIMEOUT_MILLIS));
 			}
-		} else {
-			LOG.error("Skipping fetching File Stats: Missing service with name 'cloudFiles' in the authentication response (serviceCatalog - endPoints)");
 		}
+	}
 
+	private Map<String, String> checkArguments(Map<String, String> taskArguments) {
+		if (taskArguments == null) {
+			throw new IllegalArgumentException("No task arguments in monitor.xml");
+		}
+		return taskArguments;
 	}
 
 	/**
-	 * Populates and prints Database metrics to AppDynamics Controller
-	 * 
-	 * @param serviceEndPoints
-	 * @param authToken
+	 * Returns the accounts in monitor.xml: the account given by username,
+	 * api-key, account-base and metric-prefix, and the accounts given by
+	 * account.N.username, account.N.api-key, account.N.account-base and
+	 * account.N.metric-prefix. The metrics of an indexed account without
+	 * metric prefix are reported under the default prefix and its username.
+	 *
+	 * @param taskArguments
+	 * @return
+	 * @throws RackspaceMonitorException
 	 */
-	private void populateDatabaseStats(Map<String, String> serviceEndPoints, String authToken) {
-		if (serviceEndPoints != null) {
-			for (Entry<String, String> regionEndPoint : serviceEndPoints.entrySet()) {
-				try {
-					DatabaseStats databaseStats = new DatabaseStats(httpClient);
-					Map<String, Map<String, Long>> metricsMap = databaseStats.getMetrics(authToken, regionEndPoint.getValue());
-					for (Entry<String, Map<String, Long>> instanceMetrics : metricsMap.entrySet()) {
-						String instanceName = instanceMetrics.getKey();
-						Map<String, Long> instanceStats = instanceMetrics.getValue();
-						for (Entry<String, Long> stats : instanceStats.entrySet()) {
-							printMetric(String.format(DatabaseStats.metricPath, regionEndPoint.getKey(), instanceName), stats.getKey(),
-									stats.getValue());
-						}
-					}
-				} catch (Exception e) {
-					LOG.error("Error fetching Database Stats for region " + regionEndPoint.getKey(), e);
-				}
+	private List<Account> getAccounts(Map<String, String> taskArguments) throws RackspaceMonitorException {
+		List<Account> accounts = new ArrayList<Account>();
+		if (!argumentInvalid(taskArguments, "username")) {
+			accounts.add(getAccount(taskArguments, null, DEFAULT_METRIC_PREFIX));
+		}
+		TreeSet<Integer> indexes = new TreeSet<Integer>();
+		for (String argument : taskArguments.keySet()) {
+			Matcher matcher = ACCOUNT_USERNAME.matcher(argument);
+			if (matcher.matches() && !argumentInvalid(taskArguments, argument)) {
+				indexes.add(Integer.valueOf(matcher.group(1)));
 			}
-		} else {
-			LOG.error("Skipping fetching Database Stats: Missing service with name 'cloudDatabases' in the authentication response (serviceCatalog - endPoints)");
 		}
-
+		for (Integer index : indexes) {
+			String name = index.toString();
+			accounts.add(getAccount(taskArguments, name, DEFAULT_METRIC_PREFIX + taskArguments.get("account." + name + ".username") + "|"));
+		}
+		if (accounts.isEmpty()) {
+			throw new IllegalArgumentException("Required task arguments missing in monitor.xml. Please provide rackspace parameters in monitor.xml");
+		}
+		return accounts;
 	}
 
-	/**
-	 * Populates and prints LoadBalancer metrics to AppDynamics Controller
-	 * 
-	 * @param serviceEndPoints
-	 * @param authToken
-	 */
-	private void populateLoadBalancerStats(Map<String, String> serviceEndPoints, String authToken) {
-		if (serviceEndPoints != null) {
-			for (Entry<String, String> regionEndPoint : serviceEndPoints.entrySet()) {
-				try {
-					LoadBalancerStats loadbalancerStats = new LoadBalancerStats(httpClient);
-					Map<String, Map<String, Long>> metricsMap = loadbalancerStats.getMetrics(authToken, regionEndPoint.getValue());
-					for (Entry<String, Map<String, Long>> instanceMetrics : metricsMap.entrySet()) {
-						String instanceName = instanceMetrics.getKey();
-						Map<String, Long> instanceStats = instanceMetrics.getValue();
-						for (Entry<String, Long> stats : instanceStats.entrySet()) {
-							printMetric(String.format(LoadBalancerStats.metricPath, regionEndPoint.getKey(), instanceName), stats.getKey(),
-									stats.getValue());
-						}
-					}
-				} catch (Exception e) {
-					LOG.error("Error fetching load balancer metrics for region " + regionEndPoint.getKey(), e);
-				}
-			}
-		} else {
-			LOG.error("Skipping fetching Loadbalancer Stats: Missing service with name 'cloudLoadbalancers' in the authentication response (serviceCatalog - endPoints)");
+	private Account getAccount(Map<String, String> taskArguments, String name, String defaultPrefix) throws RackspaceMonitorException {
+		String argumentPrefix = name != null ? "account." + name + "." : "";
+		if (argumentInvalid(taskArguments, argumentPrefix + "api-key")
+				|| (argumentInvalid(taskArguments, argumentPrefix + "account-base") && argumentInvalid(taskArguments, argumentPrefix + "auth-url"))) {
+			throw new IllegalArgumentException("Required task arguments missing in monitor.xml for " + argumentPrefix
+					+ "username. Please provide rackspace parameters in monitor.xml");
 		}
+		String prefix = taskArguments.get(argumentPrefix + "metric-prefix");
+		if (prefix == null || "".equals(prefix.trim())) {
+			prefix = defaultPrefix;
+		} else if (!prefix.endsWith("|")) {
+			prefix += "|";
+		}
+		return new Account(name, taskArguments.get(argumentPrefix + "username"), taskArguments.get(argumentPrefix + "api-key"), getAuthUrl(
+				taskArguments, argumentPrefix), prefix);
+	}
 
+	static int getIntArgument(Map<String, String> taskArguments, String argumentKey, int defaultValue) {
+		if (argumentInvalid(taskArguments, argumentKey)) {
+			return defaultValue;
+		}
+		try {
+			int value = Integer.parseInt(taskArguments.get(argumentKey).trim());
+			return value > 0 ? value : defaultValue;
+		} catch (NumberFormatException e) {
+			LOG.error("Invalid value for " + argumentKey + " in monitor.xml, using default " + defaultValue);
+			return defaultValue;
+		}
 	}
 
-	private void printMetric(String metricPath, String metricName, Object metricValue) {
-		printMetric(getMetricPrefix() + metricPath, metricName, metricValue, MetricWriter.METRIC_AGGREGATION_TYPE_AVERAGE,
-				MetricWriter.METRIC_TIME_ROLLUP_TYPE_AVERAGE, MetricWriter.METRIC_CLUSTER_ROLLUP_TYPE_COLLECTIVE);
+	static boolean argumentInvalid(Map<String, String> taskArguments, String argumentKey) {
+		String value = taskArguments.get(argumentKey);
+		return value == null || "".equals(value.trim());
 	}
 
-	private void printMetric(String metricPath, String metricName, Object metricValue, String aggregation, String timeRollup, String cluster) {
-		MetricWriter metricWriter = super.getMetricWriter(metricPath + metricName, aggregation, timeRollup, cluster);
-		if (metricValue != null) {
-			metricWriter.printMetric(String.valueOf(metricValue));
+	/**
+	 * Determines the authentication endpoint url based on the region (US/UK)
+	 * where the account is based. The region one of the inputs in monitor.xml,
+	 * an auth-url given in monitor.xml takes precedence over it.
+	 *
+	 * @param taskArguments
+	 * @param argumentPrefix
+	 *            prefix of the arguments of the account
+	 * @return authUrl
+	 * @throws RackspaceMonitorException
+	 */
+	private String getAuthUrl(Map<String, String> taskArguments, String argumentPrefix) throws RackspaceMonitorException {
+		if (!argumentInvalid(taskArguments, argumentPrefix + "auth-url")) {
+			return taskArguments.get(argumentPrefix + "auth-url").trim();
 		}
-	}
+		String authUrl;
+		try {
+			authUrl = AccountBase.valueOf(taskArguments.get(argumentPrefix + "account-base")).getAuthUrl();
+		} catch (IllegalArgumentException e) {
+			LOG.error("Specify valid " + argumentPrefix + "account-base (US/UK in monitor.xml)");
+			throw new RackspaceMonitorException(e);
+		}
+		return authUrl;
 
-	private String getMetricPrefix() {
-		return metric_path_prefix;
 	}
 
 	private static String getImplementationVersion() {
@@ -0,0 +1,215 @@
+/*
+ *   Copyright 2018. AppDynamics LLC and its affiliates.
+ *   All Rights Reserved.
+ *   This is unpublished proprietary source code of AppDynamics LLC and its affiliates.
+ *   The copyright notice above does not evidence any actual or intended publication of such source code.
+ *
+ */
+package com.appdynamics.extensions.rackspace.collector;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.TreeMap;
+
+import org.apache.log4j.Logger;
+
+import com.appdynamics.extensions.rackspace.stats.MetricTable;
+
+/**
+ * A circuit per (service, region) collector. The circuit opens after
+ * failureThreshold runs in a row in which the collector failed or timed out,
+ * and the collector is then skipped without calling its endpoint until the
+ * backoff is over. The next run lets a single probe through (half open): if
+ * it succeeds the circuit closes, otherwise it opens again for twice the
+ * backoff, up to maxBackoffMillis.
+ */
+public class CircuitBreaker {
+
+	private static final Logger LOG = Logger.getLogger("com.singularity.extensions.CircuitBreaker");
+
+	public static final String metricPath = "Monitor Health|%s|%s|Circuit|";
+
+	private static final String[] METRICS = { "State", "Stale Data", "Consecutive Failures" };
+
+	public enum State {
+		CLOSED(0), HALF_OPEN(1), OPEN(2);
+
+		private final int value;
+
+		private State(int value) {
+			this.value = value;
+		}
+
+		public int getValue() {
+			return value;
+		}
+	}
+
+	private int failureThreshold = 1;
+
+	private long backoffMillis;
+
+	private long maxBackoffMillis;
+
+	// Map<Service|Region, Circuit>
+	private final Map<String, Circuit> circuits = new HashMap<String, Circuit>();
+
+	public CircuitBreaker(int failureThreshold, long backoffMillis, long maxBackoffMillis) {
+		configure(failureThreshold, backoffMillis, maxBackoffMillis);
+	}
+
+	public synchronized void configure(int failureThreshold, long backoffMillis, long maxBackoffMillis) {
+		this.failureThreshold = Math.max(failureThreshold, 1);
+		this.backoffMillis = backoffMillis;
+		this.maxBackoffMillis = Math.max(maxBackoffMillis, backoffMillis);
+	}
+
+	/**
+	 * Returns the tasks whose circuit is closed, or whose backoff is over in
+	 * which case they are run as the probe of their circuit. The others are
+	 * skipped and their data marked stale.
+	 * 
+	 * @param tasks
+	 *            due tasks of the run
+	 * @return
+	 */
+	public synchronized List<CollectorTask> getAllowedTasks(List<CollectorTask> tasks) {
+		long now = System.currentTimeMillis();
+		List<CollectorTask> allowed = new ArrayList<CollectorTask>();
+		for (CollectorTask task : tasks) {
+			Circuit circuit = getCircuit(task.getService(), task.getRegion());
+			if (circuit.state == State.OPEN && now >= circuit.openUntil) {
+				circuit.state = State.HALF_OPEN;
+				LOG.info("Probing " + task + " after a backoff of " + (circuit.backoff / 1000) + "s");
+			}
+			if (circuit.state == State.OPEN) {
+				circuit.stale = true;
+				if (LOG.isDebugEnabled()) {
+					LOG.debug("Circuit open, skipping " + task + " for another " + ((circuit.openUntil - now) / 1000) + "s");
+				}
+			} else {
+				allowed.add(task);
+			}
+		}
+		return allowed;
+	}
+
+	/**
+	 * Closes the circuits of the tasks that completed, and counts a failure
+	 * for the others
+	 * 
+	 * @param tasks
+	 *            tasks that were run
+	 * @param results
+	 *            results of the tasks that completed
+	 */
+	public synchronized void record(List<CollectorTask> tasks, List<CollectorResult> results) {
+		Set<String> completed = new HashSet<String>();
+		for (CollectorResult result : results) {
+			completed.add(key(result.getService(), result.getRegion()));
+		}
+		long now = System.currentTimeMillis();
+		for (CollectorTask task : tasks) {
+			Circuit circuit = getCircuit(task.getService(), task.getRegion());
+			if (completed.contains(key(task.getService(), task.getRegion()))) {
+				if (circuit.state != State.CLOSED) {
+					LOG.info("Closing the circuit of " + task);
+				}
+				circuit.state = State.CLOSED;
+				circuit.failures = 0;
+				circuit.backoff = 0;
+				circuit.stale = false;
+				continue;
+			}
+			circuit.failures++;
+			circuit.stale = true;
+			if (circuit.state == State.HALF_OPEN || circuit.failures >= failureThreshold) {
+				circuit.backoff = circuit.backoff == 0 ? backoffMillis : Math.min(circuit.backoff * 2, maxBackoffMillis);
+				circuit.openUntil = now + circuit.backoff;
+				circuit.state = State.OPEN;
+				LOG.warn("Opening the circuit of " + task + " after " + circuit.failures + " failures, skipping it for " + (circuit.backoff / 1000)
+						+ "s");
+			}
+		}
+	}
+
+	/**
+	 * Returns the state of the circuits of the tasks, one table per service
+	 * with a row per region, and forgets the circuits of the (service, region)
+	 * pairs that are gone
+	 * 
+	 * @param tasks
+	 *            all tasks of the run
+	 * @return
+	 */
+	public synchronized List<CollectorResult> report(List<CollectorTask> tasks) {
+		Set<String> keys = new HashSet<String>();
+		Map<String, Map<String, Circuit>> services = new TreeMap<String, Map<String, Circuit>>();
+		for (CollectorTask task : tasks) {
+			String key = key(task.getService(), task.getRegion());
+			keys.add(key);
+			Circuit circuit = circuits.get(key);
+			if (circuit != null) {
+				Map<String, Circuit> regions = services.get(task.getService());
+				if (regions == null) {
+					regions = new TreeMap<String, Circuit>();
+					services.put(task.getService(), regions);
+				}
+				regions.put(task.getRegion(), circuit);
+			}
+		}
+		circuits.keySet().retainAll(keys);
+
+		List<CollectorResult> results = new ArrayList<CollectorResult>();
+		for (Entry<String, Map<String, Circuit>> service : services.entrySet()) {
+			MetricTable table = new MetricTable(service.getValue().size(), METRICS);
+			for (Entry<String, Circuit> region : service.getValue().entrySet()) {
+				Circuit circuit = region.getValue();
+				int row = table.addEntity(region.getKey());
+				table.set(row, 0, circuit.state.getValue());
+				table.set(row, 1, circuit.stale ? 1 : 0);
+				table.set(row, 2, circuit.failures);
+			}
+			results.add(new CollectorResult(service.getKey(), metricPath, service.getKey(), table));
+		}
+		return results;
+	}
+
+	public synchronized State getState(String service, String region) {
+		Circuit circuit = circuits.get(key(service, region));
+		return circuit != null ? circuit.state : State.CLOSED;
+	}
+
+	private Circuit getCircuit(String service, String region) {
+		String key = key(service, region);
+		Circuit circuit = circuits.get(key);
+		if (circuit == null) {
+			circuit = new Circuit();
+			circuits.put(key, circuit);
+		}
+		return circuit;
+	}
+
+	private static String key(String service, String region) {
+		return service + "|" + region;
+	}
+
+	private static class Circuit {
+
+		private State state = State.CLOSED;
+
+		private int failures;
+
+		private long backoff;
+
+		private long openUntil;
+
+		// True if the last run did not collect fresh metrics
+		private boolean stale;
+	}
+}
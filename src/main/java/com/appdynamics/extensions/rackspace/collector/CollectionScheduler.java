@@ -0,0 +1,199 @@
+/*
+ *   Copyright 2018. AppDynamics LLC and its affiliates.
+ *   All Rights Reserved.
+ *   This is unpublished proprietary source code of AppDynamics LLC and its affiliates.
+ *   The copyright notice above does not evidence any actual or intended publication of such source code.
+ *
+ */
+package com.appdynamics.extensions.rackspace.collector;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.log4j.Logger;
+
+import com.appdynamics.extensions.rackspace.stats.MetricTable;
+import com.appdynamics.extensions.rackspace.stats.MetricType;
+
+/**
+ * Decides which (service, region) collectors are run by a run of the monitor.
+ * Every service has its own interval, a collector is due once its interval
+ * has passed since it last ran. The interval of a collector whose metrics did
+ * not change is doubled, up to maxStretch times the interval of its service,
+ * and drops back to the interval of the service as soon as they change. The
+ * last metrics of the collectors that are not due are reported again, apart
+ * from their Delta and per Second metrics: those describe the change up to
+ * the last collection and would show a one-off change as a lasting rate.
+ */
+public class CollectionScheduler {
+
+	private static final Logger LOG = Logger.getLogger("com.singularity.extensions.CollectionScheduler");
+
+	// Runs of the machine agent drift by a few seconds, a collector due
+	// within this much is run now rather than a whole run later
+	private static final long SLACK_MILLIS = 5000;
+
+	private final Map<String, Long> intervals = new HashMap<String, Long>();
+
+	private final long defaultIntervalMillis;
+
+	private int maxStretch = 1;
+
+	// Map<Service|Region, Schedule>
+	private final Map<String, Schedule> schedules = new HashMap<String, Schedule>();
+
+	private long runStart;
+
+	public CollectionScheduler(long defaultIntervalMillis) {
+		this.defaultIntervalMillis = defaultIntervalMillis;
+	}
+
+	public synchronized void setInterval(String service, long intervalMillis) {
+		intervals.put(service, intervalMillis);
+	}
+
+	public synchronized void setMaxStretch(int maxStretch) {
+		this.maxStretch = Math.max(maxStretch, 1);
+	}
+
+	/**
+	 * Returns the tasks that are due in the run starting now
+	 *
+	 * @param tasks
+	 *            all tasks of the run
+	 * @return
+	 */
+	public synchronized List<CollectorTask> getDueTasks(List<CollectorTask> tasks) {
+		runStart = System.currentTimeMillis();
+		List<CollectorTask> due = new ArrayList<CollectorTask>();
+		Set<String> keys = new HashSet<String>();
+		for (CollectorTask task : tasks) {
+			String key = key(task.getService(), task.getRegion());
+			keys.add(key);
+			Schedule schedule = schedules.get(key);
+			if (schedule == null || runStart + SLACK_MILLIS >= schedule.nextRun) {
+				due.add(task);
+			}
+		}
+		// Forgets the collectors of regions and services that are gone
+		schedules.keySet().retainAll(keys);
+
+		if (LOG.isDebugEnabled()) {
+			LOG.debug(due.size() + " of " + tasks.size() + " collectors due");
+		}
+		return due;
+	}
+
+	/**
+	 * Schedules the next run of the collectors that completed and returns
+	 * their results together with the last results of the collectors that
+	 * were not due. Collectors that were due but failed are retried on the
+	 * next run.
+	 *
+	 * @param tasks
+	 *            all tasks of the run
+	 * @param results
+	 *            results of the due tasks that completed
+	 * @return
+	 */
+	public synchronized List<CollectorResult> complete(List<CollectorTask> tasks, List<CollectorResult> results) {
+		Set<String> collected = new HashSet<String>();
+		for (CollectorResult result : results) {
+			String key = key(result.getService(), result.getRegion());
+			collected.add(key);
+			Schedule schedule = schedules.get(key);
+			if (schedule == null) {
+				schedule = new Schedule();
+				schedules.put(key, schedule);
+			}
+			schedule.update(result, interval(result.getService()));
+		}
+
+		List<CollectorResult> reported = new ArrayList<CollectorResult>(results);
+		for (CollectorTask task : tasks) {
+			String key = key(task.getService(), task.getRegion());
+			Schedule schedule = schedules.get(key);
+			if (!collected.contains(key) && schedule != null && schedule.nextRun > runStart + SLACK_MILLIS) {
+				reported.add(schedule.replayedResult);
+			}
+		}
+		return reported;
+	}
+
+	/**
+	 * @return the result with no value for its DELTA and RATE metrics, the
+	 *         result itself if it has none
+	 */
+	private static CollectorResult withoutRates(CollectorResult result) {
+		MetricTable metrics = result.getMetrics();
+		MetricType[] types = metrics.getMetricTypes();
+		if (!hasRates(types)) {
+			return result;
+		}
+		MetricTable replayed = new MetricTable(metrics.size(), metrics.getMetricNames(), types);
+		for (int row = 0; row < metrics.size(); row++) {
+			int replayedRow = replayed.addEntity(metrics.getEntity(row));
+			for (int metric = 0; metric < types.length; metric++) {
+				if (types[metric] != MetricType.DELTA && types[metric] != MetricType.RATE) {
+					replayed.set(replayedRow, metric, metrics.get(row, metric));
+				}
+			}
+		}
+		return new CollectorResult(result.getAccount(), result.getService(), result.getPathFormat(), result.getRegion(), replayed,
+				result.getTimeMillis());
+	}
+
+	private static boolean hasRates(MetricType[] types) {
+		if (types != null) {
+			for (MetricType type : types) {
+				if (type == MetricType.DELTA || type == MetricType.RATE) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	private long interval(String service) {
+		Long interval = intervals.get(service);
+		return interval != null ? interval.longValue() : defaultIntervalMillis;
+	}
+
+	private static String key(String service, String region) {
+		return service + "|" + region;
+	}
+
+	/**
+	 * When a collector runs next, and what it collected last
+	 */
+	private class Schedule {
+
+		private CollectorResult lastResult;
+
+		// lastResult without its Delta and per Second metrics
+		private CollectorResult replayedResult;
+
+		private int stretch = 1;
+
+		private long nextRun;
+
+		public void update(CollectorResult result, long interval) {
+			if (lastResult != null && lastResult.getMetrics().hasSameValues(result.getMetrics())) {
+				stretch = Math.min(stretch * 2, maxStretch);
+			} else {
+				stretch = 1;
+			}
+			lastResult = result;
+			replayedResult = withoutRates(result);
+			nextRun = runStart + interval * stretch;
+			if (LOG.isDebugEnabled()) {
+				LOG.debug(result.getService() + " stats for region " + result.getRegion() + " next collected in " + (interval * stretch / 1000)
+						+ "s");
+			}
+		}
+	}
+}
@@ -0,0 +1,77 @@
+/*
+ *   Copyright 2018. AppDynamics LLC and its affiliates.
+ *   All Rights Reserved.
+ *   This is unpublished proprietary source code of AppDynamics LLC and its affiliates.
+ *   The copyright notice above does not evidence any actual or intended publication of such source code.
+ *
+ */
+package com.appdynamics.extensions.rackspace.collector;
+
+import com.appdynamics.extensions.rackspace.stats.MetricTable;
+
+/**
+ * Metrics collected by a CollectorTask, together with the account and service
+ * they were collected for, the metric path format of the service, the region
+ * they are reported under and when they were collected
+ */
+public class CollectorResult {
+
+	private final String account;
+
+	private final String service;
+
+	private final String pathFormat;
+
+	private final String region;
+
+	private final MetricTable metrics;
+
+	private final long timeMillis;
+
+	public CollectorResult(String service, String pathFormat, String region, MetricTable metrics) {
+		this(null, service, pathFormat, region, metrics);
+	}
+
+	public CollectorResult(String account, String service, String pathFormat, String region, MetricTable metrics) {
+		this(account, service, pathFormat, region, metrics, System.currentTimeMillis());
+	}
+
+	public CollectorResult(String account, String service, String pathFormat, String region, MetricTable metrics, long timeMillis) {
+		this.account = account;
+		this.service = service;
+		this.pathFormat = pathFormat;
+		this.region = region;
+		this.metrics = metrics;
+		this.timeMillis = timeMillis;
+	}
+
+	public String getAccount() {
+		return account;
+	}
+
+	public String getService() {
+		return service;
+	}
+
+	/**
+	 * @return format of the metric path taking the region and entity name
+	 */
+	public String getPathFormat() {
+		return pathFormat;
+	}
+
+	public String getRegion() {
+		return region;
+	}
+
+	public MetricTable getMetrics() {
+		return metrics;
+	}
+
+	/**
+	 * @return when the metrics were collected
+	 */
+	public long getTimeMillis() {
+		return timeMillis;
+	}
+}
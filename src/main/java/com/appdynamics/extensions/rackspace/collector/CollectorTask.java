@@ -0,0 +1,74 @@
+/*
+ *   Copyright 2018. AppDynamics LLC and its affiliates.
+ *   All Rights Reserved.
+ *   This is unpublished proprietary source code of AppDynamics LLC and its affiliates.
+ *   The copyright notice above does not evidence any actual or intended publication of such source code.
+ *
+ */
+package com.appdynamics.extensions.rackspace.collector;
+
+import java.util.concurrent.Callable;
+
+import com.appdynamics.extensions.rackspace.exception.RackspaceMonitorException;
+import com.appdynamics.extensions.rackspace.stats.MetricTable;
+
+/**
+ * A unit of collection for one (service, region) pair of an account
+ */
+public abstract class CollectorTask implements Callable<CollectorResult> {
+
+	private final String account;
+
+	private final String service;
+
+	private final String region;
+
+	public CollectorTask(String service, String region) {
+		this(null, service, region);
+	}
+
+	public CollectorTask(String account, String service, String region) {
+		this.account = account;
+		this.service = service;
+		this.region = region;
+	}
+
+	public CollectorResult call() throws Exception {
+		return collect();
+	}
+
+	protected abstract CollectorResult collect() throws RackspaceMonitorException;
+
+	/**
+	 * Creates the result of this task from the collected metrics and the
+	 * metric path format of the service, which takes the region and entity
+	 * name
+	 * 
+	 * @param pathFormat
+	 * @param metrics
+	 * @return
+	 */
+	protected CollectorResult result(String pathFormat, MetricTable metrics) {
+		return new CollectorResult(account, service, pathFormat, region, metrics);
+	}
+
+	/**
+	 * @return name of the account, null if the monitor has a single account
+	 */
+	public String getAccount() {
+		return account;
+	}
+
+	public String getService() {
+		return service;
+	}
+
+	public String getRegion() {
+		return region;
+	}
+
+	@Override
+	public String toString() {
+		return service + " stats for region " + region + (account != null ? " of account " + account : "");
+	}
+}
@@ -0,0 +1,275 @@
+/*
+ *   Copyright 2018. AppDynamics LLC and its affiliates.
+ *   All Rights Reserved.
+ *   This is unpublished proprietary source code of AppDynamics LLC and its affiliates.
+ *   The copyright notice above does not evidence any actual or intended publication of such source code.
+ *
+ */
+package com.appdynamics.extensions.rackspace.collector;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+import org.apache.log4j.Logger;
+
+import com.appdynamics.extensions.rackspace.stats.MetricTable;
+import com.appdynamics.extensions.rackspace.stats.MetricType;
+import com.singularity.ee.agent.systemagent.api.MetricWriter;
+
+/**
+ * Reports collected metrics to the controller. The metric path and
+ * MetricWriter of every (service, region, entity, metric) are resolved once
+ * and kept across runs; values are buffered as they are emitted and written
+ * in one batch by flush. Entities that are no longer reported by their
+ * service and region are evicted on flush. Metrics are aggregated by the
+ * controller as their MetricType calls for: deltas as observations, all
+ * others averaged.
+ * <p>
+ * With delta reporting a value is only written if it changed since it was
+ * last written, or if it has not been written for refreshCycles runs, so
+ * that static values are still written as a heartbeat at a bounded interval.
+ * Unchanged values are not written at all in between; the controller has no
+ * data for them in those minutes.
+ */
+public class MetricEmitter {
+
+	private static final Logger LOG = Logger.getLogger("com.singularity.extensions.MetricEmitter");
+
+	private static final int INITIAL_BUFFER_SIZE = 1024;
+
+	private final String metricPrefix;
+
+	private final MetricWriterFactory writerFactory;
+
+	// Map<Service|PathFormat, Map<Region, Group>>, services sharing a path
+	// format, such as the status and traffic of load balancers, have groups
+	// of their own as their metric schemas differ
+	private final Map<String, Map<String, Group>> groups = new HashMap<String, Map<String, Group>>();
+
+	private MetricWriter[] bufferedWriters = new MetricWriter[INITIAL_BUFFER_SIZE];
+
+	private long[] bufferedValues = new long[INITIAL_BUFFER_SIZE];
+
+	private int buffered;
+
+	private int cycle;
+
+	// 0 writes every value on every run
+	private final int refreshCycles;
+
+	// Unchanged values not written this run
+	private int suppressed;
+
+	public MetricEmitter(String metricPrefix, MetricWriterFactory writerFactory) {
+		this(metricPrefix, writerFactory, 0);
+	}
+
+	/**
+	 * Creates an emitter reporting only changed values, and unchanged ones
+	 * every refreshCycles runs. A refreshCycles of 0 reports every value.
+	 * 
+	 * @param metricPrefix
+	 * @param writerFactory
+	 * @param refreshCycles
+	 */
+	public MetricEmitter(String metricPrefix, MetricWriterFactory writerFactory, int refreshCycles) {
+		this.metricPrefix = metricPrefix;
+		this.writerFactory = writerFactory;
+		this.refreshCycles = refreshCycles;
+	}
+
+	public String getMetricPrefix() {
+		return metricPrefix;
+	}
+
+	public int getRefreshCycles() {
+		return refreshCycles;
+	}
+
+	/**
+	 * Buffers the metrics of a collector result to be written by flush
+	 * 
+	 * @param result
+	 */
+	public void emit(CollectorResult result) {
+		MetricTable metrics = result.getMetrics();
+		String[] metricNames = metrics.getMetricNames();
+		Group group = getGroup(result.getService(), result.getPathFormat(), result.getRegion());
+		group.reportedCycle = cycle;
+		for (int row = 0; row < metrics.size(); row++) {
+			EntityWriters entity = group.getEntity(metrics.getEntity(row), metrics);
+			entity.seenCycle = cycle;
+			for (int metric = 0; metric < metricNames.length; metric++) {
+				long value = metrics.get(row, metric);
+				if (value == MetricTable.NO_VALUE) {
+					continue;
+				}
+				if (refreshCycles == 0 || entity.isDue(metric, value)) {
+					buffer(entity.getWriter(metric), value);
+				} else {
+					suppressed++;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Writes all buffered values and evicts the entities that were not
+	 * reported this run by a service and region that did report
+	 */
+	public void flush() {
+		for (int i = 0; i < buffered; i++) {
+			bufferedWriters[i].printMetric(Long.toString(bufferedValues[i]));
+			bufferedWriters[i] = null;
+		}
+		if (LOG.isDebugEnabled()) {
+			LOG.debug("Flushed " + buffered + " metric values, " + suppressed + " unchanged values not reported");
+		}
+		buffered = 0;
+		suppressed = 0;
+		evictUnseenEntities();
+		cycle++;
+	}
+
+	private void buffer(MetricWriter writer, long value) {
+		if (buffered == bufferedValues.length) {
+			MetricWriter[] writers = new MetricWriter[buffered * 2];
+			long[] values = new long[buffered * 2];
+			System.arraycopy(bufferedWriters, 0, writers, 0, buffered);
+			System.arraycopy(bufferedValues, 0, values, 0, buffered);
+			bufferedWriters = writers;
+			bufferedValues = values;
+		}
+		bufferedWriters[buffered] = writer;
+		bufferedValues[buffered] = value;
+		buffered++;
+	}
+
+	private void evictUnseenEntities() {
+		for (Map<String, Group> regions : groups.values()) {
+			for (Group group : regions.values()) {
+				if (group.reportedCycle != cycle) {
+					// The service failed or was skipped, keep its entities
+					continue;
+				}
+				Iterator<EntityWriters> entities = group.entities.values().iterator();
+				while (entities.hasNext()) {
+					if (entities.next().seenCycle != cycle) {
+						entities.remove();
+					}
+				}
+			}
+		}
+	}
+
+	private Group getGroup(String service, String pathFormat, String region) {
+		String key = service + "|" + pathFormat;
+		Map<String, Group> regions = groups.get(key);
+		if (regions == null) {
+			regions = new HashMap<String, Group>();
+			groups.put(key, regions);
+		}
+		Group group = regions.get(region);
+		if (group == null) {
+			group = new Group(pathFormat, region);
+			regions.put(region, group);
+		}
+		return group;
+	}
+
+	/**
+	 * Entities of one service, path format and region
+	 */
+	private class Group {
+
+		private final String pathFormat;
+
+		private final String region;
+
+		private final Map<String, EntityWriters> entities = new HashMap<String, EntityWriters>();
+
+		private int reportedCycle;
+
+		public Group(String pathFormat, String region) {
+			this.pathFormat = pathFormat;
+			this.region = region;
+		}
+
+		public EntityWriters getEntity(String entityName, MetricTable metrics) {
+			String[] metricNames = metrics.getMetricNames();
+			EntityWriters entity = entities.get(entityName);
+			if (entity == null || (entity.metricNames != metricNames && !Arrays.equals(entity.metricNames, metricNames))) {
+				entity = new EntityWriters(metricPrefix + String.format(pathFormat, region, entityName), metricNames, metrics.getMetricTypes());
+				entities.put(entityName, entity);
+			}
+			return entity;
+		}
+	}
+
+	/**
+	 * MetricWriters of the metrics of one entity, indexed like the metric
+	 * schema of its collector
+	 */
+	private class EntityWriters {
+
+		private final String metricPath;
+
+		private final String[] metricNames;
+
+		// null if all metrics are gauges
+		private final MetricType[] metricTypes;
+
+		private final MetricWriter[] writers;
+
+		// Value and run each metric was last written in, for delta reporting
+		private long[] lastValues;
+
+		private int[] lastCycles;
+
+		private int seenCycle;
+
+		public EntityWriters(String metricPath, String[] metricNames, MetricType[] metricTypes) {
+			this.metricPath = metricPath;
+			this.metricNames = metricNames;
+			this.metricTypes = metricTypes;
+			this.writers = new MetricWriter[metricNames.length];
+		}
+
+		/**
+		 * Returns true, and records the value as written, if the value has
+		 * changed or is due for refresh
+		 */
+		public boolean isDue(int metric, long value) {
+			if (lastValues == null) {
+				lastValues = new long[metricNames.length];
+				lastCycles = new int[metricNames.length];
+				Arrays.fill(lastValues, MetricTable.NO_VALUE);
+			}
+			if (lastValues[metric] == value && cycle - lastCycles[metric] < refreshCycles) {
+				return false;
+			}
+			lastValues[metric] = value;
+			lastCycles[metric] = cycle;
+			return true;
+		}
+
+		public MetricWriter getWriter(int metric) {
+			MetricWriter writer = writers[metric];
+			if (writer == null) {
+				if (metricTypes != null && metricTypes[metric] == MetricType.DELTA) {
+					// The change since the previous collection, which may be
+					// several minutes back, so it can not be summed
+					writer = writerFactory.getMetricWriter(metricPath + metricNames[metric], MetricWriter.METRIC_AGGREGATION_TYPE_OBSERVATION,
+							MetricWriter.METRIC_TIME_ROLLUP_TYPE_CURRENT, MetricWriter.METRIC_CLUSTER_ROLLUP_TYPE_COLLECTIVE);
+				} else {
+					writer = writerFactory.getMetricWriter(metricPath + metricNames[metric], MetricWriter.METRIC_AGGREGATION_TYPE_AVERAGE,
+							MetricWriter.METRIC_TIME_ROLLUP_TYPE_AVERAGE, MetricWriter.METRIC_CLUSTER_ROLLUP_TYPE_COLLECTIVE);
+				}
+				writers[metric] = writer;
+			}
+			return writer;
+		}
+	}
+}
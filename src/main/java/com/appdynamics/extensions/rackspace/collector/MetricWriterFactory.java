@@ -0,0 +1,19 @@
+/*
+ *   Copyright 2018. AppDynamics LLC and its affiliates.
+ *   All Rights Reserved.
+ *   This is unpublished proprietary source code of AppDynamics LLC and its affiliates.
+ *   The copyright notice above does not evidence any actual or intended publication of such source code.
+ *
+ */
+package com.appdynamics.extensions.rackspace.collector;
+
+import com.singularity.ee.agent.systemagent.api.MetricWriter;
+
+/**
+ * Creates the MetricWriter of a metric, as AManagedMonitor.getMetricWriter
+ * does
+ */
+public interface MetricWriterFactory {
+
+	MetricWriter getMetricWriter(String metricName, String aggregation, String timeRollup, String cluster);
+}
@@ -0,0 +1,192 @@
+/*
+ *   Copyright 2018. AppDynamics LLC and its affiliates.
+ *   All Rights Reserved.
+ *   This is unpublished proprietary source code of AppDynamics LLC and its affiliates.
+ *   The copyright notice above does not evidence any actual or intended publication of such source code.
+ *
+ */
+package com.appdynamics.extensions.rackspace.collector;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import com.appdynamics.extensions.rackspace.common.Authenticator;
+import com.appdynamics.extensions.rackspace.common.Histogram;
+import com.appdynamics.extensions.rackspace.common.ServiceInstruments;
+import com.appdynamics.extensions.rackspace.stats.MetricTable;
+
+/**
+ * Health of the extension itself: the ServiceInstruments of every (service,
+ * region) and the duration of the runs. At the end of a run the values
+ * recorded during the run are turned into CollectorResults reported under
+ * "Monitor Health", per service and region, and for the run as a whole.
+ */
+public class MonitorHealth {
+
+	public static final String metricPath = "Monitor Health|%s|%s|";
+
+	// Run metrics have no entity
+	public static final String runPath = "Monitor Health|%s|";
+
+	private static final String RUN = "Run";
+
+	private static final String[] SERVICE_METRICS = { "Requests", "Not Modified", "Errors", "Latency Average (ms)", "Latency 95th Percentile (ms)",
+			"Latency Max (ms)", "Bytes Received", "Bytes Decompressed", "Parse Time (ms)", "Entities" };
+
+	private static final String[] RUN_METRICS = { "Cycle Time (ms)", "Cycle Time % of Collection Timeout", "Authentications",
+			"Authentication Time (ms)", "Collectors", "Collectors Due", "Collectors Completed" };
+
+	private static final String ERRORS = "Errors|";
+
+	private static final int NOT_MODIFIED = 304;
+
+	// Map<Service, Map<Region, ServiceInstruments>>
+	private final ConcurrentMap<String, ConcurrentMap<String, ServiceInstruments>> instruments = new ConcurrentHashMap<String, ConcurrentMap<String, ServiceInstruments>>();
+
+	private long runStart;
+
+	private Authenticator authenticator;
+
+	private long authentications;
+
+	private long authenticationMillis;
+
+	/**
+	 * Returns the instruments of the (service, region), creating them on
+	 * first use
+	 */
+	public ServiceInstruments get(String service, String region) {
+		ConcurrentMap<String, ServiceInstruments> regions = instruments.get(service);
+		if (regions == null) {
+			instruments.putIfAbsent(service, new ConcurrentHashMap<String, ServiceInstruments>());
+			regions = instruments.get(service);
+		}
+		ServiceInstruments regionInstruments = regions.get(region);
+		if (regionInstruments == null) {
+			regions.putIfAbsent(region, new ServiceInstruments());
+			regionInstruments = regions.get(region);
+		}
+		return regionInstruments;
+	}
+
+	public synchronized void startRun() {
+		runStart = System.currentTimeMillis();
+	}
+
+	/**
+	 * Takes the values recorded since the previous report. The instruments of
+	 * a (service, region) that made no request during the run are not
+	 * reported.
+	 * 
+	 * @param authenticator
+	 *            of the run, its authentications are counted since the
+	 *            previous report
+	 * @param collectionTimeoutMillis
+	 * @param tasks
+	 *            number of collectors of the run
+	 * @param due
+	 *            number of collectors that were due
+	 * @param completed
+	 *            number of due collectors that completed in time
+	 * @return
+	 */
+	public synchronized List<CollectorResult> report(Authenticator authenticator, long collectionTimeoutMillis, int tasks, int due, int completed) {
+		List<CollectorResult> results = new ArrayList<CollectorResult>();
+		for (Entry<String, ConcurrentMap<String, ServiceInstruments>> service : new TreeMap<String, ConcurrentMap<String, ServiceInstruments>>(
+				instruments).entrySet()) {
+			MetricTable table = reportService(service.getValue());
+			if (table.size() > 0) {
+				results.add(new CollectorResult(service.getKey(), metricPath, service.getKey(), table));
+			}
+		}
+
+		long cycleMillis = System.currentTimeMillis() - runStart;
+		MetricTable run = new MetricTable(1, RUN_METRICS);
+		int row = run.addEntity(RUN);
+		run.set(row, 0, cycleMillis);
+		run.set(row, 1, collectionTimeoutMillis > 0 ? cycleMillis * 100 / collectionTimeoutMillis : 0);
+		long totalAuthentications = authenticator.getAuthentications();
+		long totalAuthenticationMillis = authenticator.getAuthenticationMillis();
+		if (authenticator != this.authenticator) {
+			// A new Authenticator counts from zero
+			this.authenticator = authenticator;
+			authentications = 0;
+			authenticationMillis = 0;
+		}
+		run.set(row, 2, totalAuthentications - authentications);
+		run.set(row, 3, totalAuthenticationMillis - authenticationMillis);
+		authentications = totalAuthentications;
+		authenticationMillis = totalAuthenticationMillis;
+		run.set(row, 4, tasks);
+		run.set(row, 5, due);
+		run.set(row, 6, completed);
+		results.add(new CollectorResult(RUN, runPath, RUN, run));
+		return results;
+	}
+
+	/**
+	 * Builds the table of a service, one row per region. Error responses are
+	 * also counted per status code, in a column per status code seen during
+	 * the run.
+	 */
+	private MetricTable reportService(Map<String, ServiceInstruments> regions) {
+		Map<String, Histogram.Snapshot> latencies = new TreeMap<String, Histogram.Snapshot>();
+		Map<String, long[]> statusCounts = new TreeMap<String, long[]>();
+		TreeSet<Integer> errorCodes = new TreeSet<Integer>();
+		for (Entry<String, ServiceInstruments> region : regions.entrySet()) {
+			Histogram.Snapshot latency = region.getValue().takeLatency();
+			long[] counts = region.getValue().takeStatusCounts();
+			if (latency.getCount() > 0) {
+				latencies.put(region.getKey(), latency);
+				statusCounts.put(region.getKey(), counts);
+				for (int code = 0; code < counts.length; code++) {
+					if (counts[code] > 0 && isError(code)) {
+						errorCodes.add(code);
+					}
+				}
+			}
+		}
+
+		String[] metricNames = new String[SERVICE_METRICS.length + errorCodes.size()];
+		System.arraycopy(SERVICE_METRICS, 0, metricNames, 0, SERVICE_METRICS.length);
+		int column = SERVICE_METRICS.length;
+		for (Integer code : errorCodes) {
+			metricNames[column++] = ERRORS + (code.intValue() == ServiceInstruments.CONNECTION_ERROR ? "Connection" : code.toString());
+		}
+
+		MetricTable table = new MetricTable(latencies.size(), metricNames);
+		for (Entry<String, Histogram.Snapshot> region : latencies.entrySet()) {
+			ServiceInstruments regionInstruments = regions.get(region.getKey());
+			Histogram.Snapshot latency = region.getValue();
+			long[] counts = statusCounts.get(region.getKey());
+			int row = table.addEntity(region.getKey());
+			long errors = 0;
+			column = SERVICE_METRICS.length;
+			for (Integer code : errorCodes) {
+				errors += counts[code.intValue()];
+				table.set(row, column++, counts[code.intValue()]);
+			}
+			table.set(row, 0, latency.getCount());
+			table.set(row, 1, counts[NOT_MODIFIED]);
+			table.set(row, 2, errors);
+			table.set(row, 3, latency.getAverage());
+			table.set(row, 4, latency.getPercentile(95));
+			table.set(row, 5, latency.getMax());
+			table.set(row, 6, regionInstruments.takeBytesReceived());
+			table.set(row, 7, regionInstruments.takeBytesDecompressed());
+			table.set(row, 8, regionInstruments.takeParseNanos() / 1000000);
+			table.set(row, 9, regionInstruments.takeEntities());
+		}
+		return table;
+	}
+
+	private static boolean isError(int statusCode) {
+		return !(statusCode == 200 || statusCode == 203 || statusCode == 300 || statusCode == NOT_MODIFIED);
+	}
+}
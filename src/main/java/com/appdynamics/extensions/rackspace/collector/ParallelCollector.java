@@ -0,0 +1,378 @@
+/*
+ *   Copyright 2018. AppDynamics LLC and its affiliates.
+ *   All Rights Reserved.
+ *   This is unpublished proprietary source code of AppDynamics LLC and its affiliates.
+ *   The copyright notice above does not evidence any actual or intended publication of such source code.
+ *
+ */
+package com.appdynamics.extensions.rackspace.collector;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Runs CollectorTasks on a bounded pool of worker threads. Every task is
+ * cancelled once it has been running longer than the task timeout, and the
+ * whole collection gives up on unfinished tasks once the collection timeout
+ * is over. Results of the tasks that did finish are always returned. Tasks of
+ * several accounts are started round robin across the accounts, with at most
+ * a given number of tasks of an account running at a time.
+ * <p>
+ * With virtual threads every task and prefetched page runs on a virtual
+ * thread of its own, and up to concurrency tasks run at a time instead of
+ * one per worker thread. Tasks, prefetched pages and fanned out requests
+ * then share a permit per connection of the pool, so that they never wait
+ * for a pooled connection, which would pin their carrier thread.
+ */
+public class ParallelCollector {
+
+	private static final Logger LOG = Logger.getLogger("com.singularity.extensions.ParallelCollector");
+
+	private final ExecutorService workers;
+
+	private final ScheduledExecutorService watchdog;
+
+	private final ExecutorService prefetchers;
+
+	private final Executor prefetchExecutor;
+
+	// A permit per pooled connection with virtual threads, null otherwise
+	private final Semaphore connections;
+
+	private final long taskTimeoutMillis;
+
+	private final long collectionTimeoutMillis;
+
+	private final int concurrency;
+
+	private final boolean virtualThreads;
+
+	public ParallelCollector(int threads, long taskTimeoutMillis, long collectionTimeoutMillis) {
+		this(threads, taskTimeoutMillis, collectionTimeoutMillis, false, 0);
+	}
+
+	/**
+	 * @param concurrency
+	 *            number of worker threads, or with virtual threads the number
+	 *            of tasks running at a time
+	 * @param taskTimeoutMillis
+	 * @param collectionTimeoutMillis
+	 * @param virtualThreads
+	 * @param maxConnections
+	 *            connections of the http client pool, with virtual threads
+	 *            the most tasks and prefetches running at a time
+	 */
+	public ParallelCollector(int concurrency, long taskTimeoutMillis, long collectionTimeoutMillis, boolean virtualThreads, int maxConnections) {
+		if (virtualThreads) {
+			this.workers = Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("Rackspace-Collector-", 1).factory());
+			this.prefetchers = Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("Rackspace-Page-Prefetcher-", 1).factory());
+			this.connections = new Semaphore(Math.max(maxConnections, concurrency + 1));
+			this.prefetchExecutor = new ConnectionBoundExecutor(prefetchers, connections);
+		} else {
+			this.workers = Executors.newFixedThreadPool(concurrency, new DaemonThreadFactory("Rackspace-Collector"));
+			// A task waits for at most one prefetched page at a time, so this
+			// is bounded by the number of workers
+			this.prefetchers = Executors.newCachedThreadPool(new DaemonThreadFactory("Rackspace-Page-Prefetcher"));
+			this.connections = null;
+			this.prefetchExecutor = prefetchers;
+		}
+		this.watchdog = Executors.newSingleThreadScheduledExecutor(new DaemonThreadFactory("Rackspace-Collector-Watchdog"));
+		this.taskTimeoutMillis = taskTimeoutMillis;
+		this.collectionTimeoutMillis = collectionTimeoutMillis;
+		this.concurrency = concurrency;
+		this.virtualThreads = virtualThreads;
+	}
+
+	/**
+	 * Submits all the tasks and waits for them until the collection deadline.
+	 * Failed, timed out and cancelled tasks are logged and left out of the
+	 * returned list.
+	 * 
+	 * @param tasks
+	 * @return results of the tasks that completed, in task order
+	 */
+	public List<CollectorResult> collect(List<CollectorTask> tasks) {
+		return collect(tasks, Integer.MAX_VALUE);
+	}
+
+	/**
+	 * Collects like collect(tasks), running at most maxTasksPerAccount tasks
+	 * of an account at a time so that the tasks of a large account do not hold
+	 * all workers while the tasks of the other accounts wait
+	 * 
+	 * @param tasks
+	 * @param maxTasksPerAccount
+	 * @return results of the tasks that completed, in task order
+	 */
+	public List<CollectorResult> collect(List<CollectorTask> tasks, int maxTasksPerAccount) {
+		long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(collectionTimeoutMillis);
+
+		// The fixed pool bounds the running tasks by itself
+		Dispatcher dispatcher = new Dispatcher(Math.max(maxTasksPerAccount, 1), virtualThreads ? concurrency : Integer.MAX_VALUE);
+		List<FutureTask<CollectorResult>> futures = new ArrayList<FutureTask<CollectorResult>>();
+		for (CollectorTask task : tasks) {
+			DeadlineTask future = new DeadlineTask(task, dispatcher);
+			dispatcher.add(future);
+			futures.add(future);
+		}
+		dispatcher.start();
+
+		List<CollectorResult> results = new ArrayList<CollectorResult>();
+		for (int i = 0; i < futures.size(); i++) {
+			CollectorTask task = tasks.get(i);
+			FutureTask<CollectorResult> future = futures.get(i);
+			try {
+				long remaining = deadline - System.nanoTime();
+				results.add(future.get(Math.max(remaining, 0), TimeUnit.NANOSECONDS));
+			} catch (TimeoutException e) {
+				dispatcher.close();
+				future.cancel(true);
+				LOG.error("Collection timeout of " + collectionTimeoutMillis + " ms reached, skipping " + task);
+			} catch (CancellationException e) {
+				LOG.error("Task timeout of " + taskTimeoutMillis + " ms reached, skipping " + task);
+			} catch (ExecutionException e) {
+				LOG.error("Error fetching " + task, e.getCause());
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				future.cancel(true);
+				LOG.error("Interrupted while waiting for " + task);
+			}
+		}
+		// No task outlives its collection. Cancelling interrupts the tasks
+		// still running, on virtual threads this also aborts their blocking
+		// socket reads.
+		dispatcher.close();
+		for (FutureTask<CollectorResult> future : futures) {
+			future.cancel(true);
+		}
+		return results;
+	}
+
+	public int getConcurrency() {
+		return concurrency;
+	}
+
+	public long getCollectionTimeoutMillis() {
+		return collectionTimeoutMillis;
+	}
+
+	/**
+	 * @return the executor fetching the next page of a paginated collection
+	 *         while a task processes the current one
+	 */
+	public Executor getPrefetchExecutor() {
+		return prefetchExecutor;
+	}
+
+	public void shutdown() {
+		workers.shutdownNow();
+		watchdog.shutdownNow();
+		prefetchers.shutdownNow();
+	}
+
+	/**
+	 * Cancels itself when it has been running longer than the task timeout.
+	 * The timer is only armed once a worker picks the task up, so time spent
+	 * waiting in the queue counts against the collection timeout only.
+	 */
+	private class DeadlineTask extends FutureTask<CollectorResult> {
+
+		private final String account;
+
+		private final Dispatcher dispatcher;
+
+		private boolean dispatched;
+
+		public DeadlineTask(CollectorTask task, Dispatcher dispatcher) {
+			super(task);
+			this.account = task.getAccount();
+			this.dispatcher = dispatcher;
+		}
+
+		@Override
+		public void run() {
+			ScheduledFuture<?> timer = watchdog.schedule(new Runnable() {
+				public void run() {
+					cancel(true);
+				}
+			}, taskTimeoutMillis, TimeUnit.MILLISECONDS);
+			if (connections != null) {
+				connections.acquireUninterruptibly();
+			}
+			try {
+				super.run();
+			} finally {
+				if (connections != null) {
+					connections.release();
+				}
+				timer.cancel(false);
+			}
+		}
+
+		@Override
+		protected void done() {
+			dispatcher.finished(this);
+		}
+	}
+
+	/**
+	 * Hands the tasks of a collection to the workers, taking turns between
+	 * the accounts and holding back the tasks of an account that already has
+	 * maxRunning tasks handed over, and all tasks once maxRunningTotal tasks
+	 * are handed over. A task finishing, failing or being cancelled hands
+	 * over the next task, starting with the account after the last one served.
+	 */
+	private class Dispatcher {
+
+		private final int maxRunning;
+
+		private final int maxRunningTotal;
+
+		// Map<Account, tasks not handed over yet>
+		private final Map<String, LinkedList<DeadlineTask>> pending = new LinkedHashMap<String, LinkedList<DeadlineTask>>();
+
+		private final Map<String, Integer> running = new HashMap<String, Integer>();
+
+		private final List<String> accounts = new ArrayList<String>();
+
+		private int runningTotal;
+
+		private boolean closed;
+
+		// Index of the account whose turn is next
+		private int turn;
+
+		public Dispatcher(int maxRunning, int maxRunningTotal) {
+			this.maxRunning = maxRunning;
+			this.maxRunningTotal = maxRunningTotal;
+		}
+
+		public synchronized void add(DeadlineTask task) {
+			LinkedList<DeadlineTask> accountTasks = pending.get(task.account);
+			if (accountTasks == null) {
+				accountTasks = new LinkedList<DeadlineTask>();
+				pending.put(task.account, accountTasks);
+				running.put(task.account, 0);
+				accounts.add(task.account);
+			}
+			accountTasks.add(task);
+		}
+
+		public synchronized void start() {
+			dispatch();
+		}
+
+		/**
+		 * Stops handing over tasks, the collection is over
+		 */
+		public synchronized void close() {
+			closed = true;
+		}
+
+		public synchronized void finished(DeadlineTask task) {
+			if (task.dispatched) {
+				running.put(task.account, running.get(task.account) - 1);
+				runningTotal--;
+				dispatch();
+			}
+		}
+
+		/**
+		 * Hands over one task of every account in turn, until no account can
+		 * start another task
+		 */
+		private void dispatch() {
+			int idle = 0;
+			while (!closed && idle < accounts.size() && runningTotal < maxRunningTotal) {
+				String account = accounts.get(turn);
+				turn = (turn + 1) % accounts.size();
+				idle = dispatchNext(account) ? 0 : idle + 1;
+			}
+		}
+
+		private boolean dispatchNext(String account) {
+			LinkedList<DeadlineTask> accountTasks = pending.get(account);
+			while (!accountTasks.isEmpty() && running.get(account) < maxRunning) {
+				DeadlineTask task = accountTasks.removeFirst();
+				if (task.isDone()) {
+					// Cancelled at the collection deadline before it started
+					continue;
+				}
+				task.dispatched = true;
+				running.put(account, running.get(account) + 1);
+				runningTotal++;
+				workers.execute(task);
+				return true;
+			}
+			return false;
+		}
+	}
+
+	/**
+	 * Runs every runnable on a thread of the executor once it has a permit of
+	 * the connections. A collector waiting for a prefetch that has no permit
+	 * yet sends the request itself, see Stats.awaitPrefetched, so this never
+	 * deadlocks the tasks holding the other permits.
+	 */
+	private static class ConnectionBoundExecutor implements Executor {
+
+		private final Executor executor;
+
+		private final Semaphore connections;
+
+		public ConnectionBoundExecutor(Executor executor, Semaphore connections) {
+			this.executor = executor;
+			this.connections = connections;
+		}
+
+		public void execute(final Runnable runnable) {
+			executor.execute(new Runnable() {
+				public void run() {
+					// Waiting on a Semaphore does not pin a virtual thread
+					connections.acquireUninterruptibly();
+					try {
+						runnable.run();
+					} finally {
+						connections.release();
+					}
+				}
+			});
+		}
+	}
+
+	private static class DaemonThreadFactory implements ThreadFactory {
+
+		private final AtomicInteger count = new AtomicInteger();
+
+		private final String prefix;
+
+		public DaemonThreadFactory(String prefix) {
+			this.prefix = prefix;
+		}
+
+		public Thread newThread(Runnable runnable) {
+			Thread thread = new Thread(runnable, prefix + "-" + count.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		}
+	}
+}
@@ -0,0 +1,198 @@
+/*
+ *   Copyright 2018. AppDynamics LLC and its affiliates.
+ *   All Rights Reserved.
+ *   This is unpublished proprietary source code of AppDynamics LLC and its affiliates.
+ *   The copyright notice above does not evidence any actual or intended publication of such source code.
+ *
+ */
+package com.appdynamics.extensions.rackspace.collector;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.log4j.Logger;
+
+import com.appdynamics.extensions.rackspace.stats.MetricTable;
+import com.appdynamics.extensions.rackspace.stats.MetricType;
+
+/**
+ * Turns the cumulative metrics of the collector results into rates, between
+ * the collectors and the emitter. Every COUNTER and TOTAL metric gets a Delta
+ * metric, its change since the previous sample of its (service, region,
+ * entity), and a per Second metric, that change divided by the seconds in
+ * between; a COUNTER itself is not reported. The last sample of every series
+ * is kept in a SampleStore.
+ * <p>
+ * A counter that went back has been reset, e.g. by a restart, and gets no
+ * Delta and per Second for that sample, as neither does the first sample of a
+ * series. Series of entities that are no longer collected are dropped once
+ * they were not sampled for maxIdleMillis.
+ */
+public class RateStage {
+
+	private static final Logger LOG = Logger.getLogger("com.singularity.extensions.RateStage");
+
+	private final long maxIdleMillis;
+
+	private final SampleStore samples = new SampleStore();
+
+	// Derived schema of every schema with cumulative metrics, by identity as
+	// collectors keep their metric names in constants
+	private final Map<String[], Schema> schemas = new IdentityHashMap<String[], Schema>();
+
+	public RateStage(long maxIdleMillis) {
+		this.maxIdleMillis = maxIdleMillis;
+	}
+
+	/**
+	 * Returns the results with the Delta and per Second metrics added, results
+	 * without cumulative metrics are returned as they are
+	 *
+	 * @param results
+	 *            fresh results of the run
+	 * @return
+	 */
+	public synchronized List<CollectorResult> apply(List<CollectorResult> results) {
+		List<CollectorResult> applied = new ArrayList<CollectorResult>(results.size());
+		for (CollectorResult result : results) {
+			Schema schema = getSchema(result.getMetrics());
+			applied.add(schema != null ? apply(result, schema) : result);
+		}
+		int evicted = samples.evict(System.currentTimeMillis() - maxIdleMillis);
+		if (evicted > 0 && LOG.isDebugEnabled()) {
+			LOG.debug("Dropped " + evicted + " series not sampled for " + (maxIdleMillis / 1000) + "s, " + samples.size() + " left");
+		}
+		return applied;
+	}
+
+	/**
+	 * Writes the last sample of every series to the snapshot
+	 */
+	public synchronized void writeTo(DataOutput out) throws IOException {
+		samples.writeTo(out);
+	}
+
+	/**
+	 * Restores the samples of a snapshot, so that rates are derived from the
+	 * first run after a restart on
+	 */
+	public synchronized void restore(DataInput in) throws IOException {
+		samples.restore(in, System.currentTimeMillis() - maxIdleMillis);
+	}
+
+	private CollectorResult apply(CollectorResult result, Schema schema) {
+		MetricTable metrics = result.getMetrics();
+		MetricTable derived = new MetricTable(metrics.size(), schema.names, schema.types);
+		long time = result.getTimeMillis();
+		long seriesHash = SampleStore.hash(SampleStore.hash(SampleStore.hash(SampleStore.HASH_SEED, result.getService()), result.getRegion()),
+				result.getPathFormat());
+		for (int row = 0; row < metrics.size(); row++) {
+			String entity = metrics.getEntity(row);
+			int derivedRow = derived.addEntity(entity);
+			long entityHash = SampleStore.hash(seriesHash, entity);
+			for (int metric = 0; metric < schema.sources.length; metric++) {
+				int target = schema.targets[metric];
+				long value = metrics.get(row, metric);
+				MetricType type = schema.sources[metric];
+				if (type != MetricType.COUNTER) {
+					derived.set(derivedRow, target++, value);
+				}
+				if (type == MetricType.COUNTER || type == MetricType.TOTAL) {
+					derive(derived, derivedRow, target, SampleStore.hash(entityHash, metrics.getMetricNames()[metric]), value, time,
+							type == MetricType.COUNTER);
+				}
+			}
+		}
+		return new CollectorResult(result.getAccount(), result.getService(), result.getPathFormat(), result.getRegion(), derived, time);
+	}
+
+	/**
+	 * Sets the Delta and per Second metrics at target and target + 1 from the
+	 * previous sample of the series, and records the value as its sample
+	 */
+	private void derive(MetricTable derived, int row, int target, long key, long value, long time, boolean counter) {
+		if (value == MetricTable.NO_VALUE) {
+			return;
+		}
+		int slot = samples.slot(key);
+		long previousTime = samples.time(slot);
+		long previous = samples.value(slot);
+		samples.set(slot, value, time);
+		if (previousTime == 0 || time <= previousTime || (counter && value < previous)) {
+			return;
+		}
+		long delta = value - previous;
+		derived.set(row, target, delta);
+		derived.set(row, target + 1, Math.round(delta * 1000d / (time - previousTime)));
+	}
+
+	private Schema getSchema(MetricTable metrics) {
+		MetricType[] types = metrics.getMetricTypes();
+		if (types == null) {
+			return null;
+		}
+		Schema schema = schemas.get(metrics.getMetricNames());
+		if (schema == null && !schemas.containsKey(metrics.getMetricNames())) {
+			schema = Schema.derive(metrics.getMetricNames(), types);
+			schemas.put(metrics.getMetricNames(), schema);
+		}
+		return schema;
+	}
+
+	/**
+	 * The metrics of a table with its cumulative metrics replaced or followed
+	 * by their Delta and per Second metrics
+	 */
+	private static class Schema {
+
+		private final MetricType[] sources;
+
+		// Column of every source metric, or of its Delta for a COUNTER
+		private final int[] targets;
+
+		private final String[] names;
+
+		private final MetricType[] types;
+
+		private Schema(MetricType[] sources, int[] targets, String[] names, MetricType[] types) {
+			this.sources = sources;
+			this.targets = targets;
+			this.names = names;
+			this.types = types;
+		}
+
+		/**
+		 * @return the derived schema, null if there are no cumulative metrics
+		 */
+		private static Schema derive(String[] sourceNames, MetricType[] sources) {
+			List<String> names = new ArrayList<String>();
+			List<MetricType> types = new ArrayList<MetricType>();
+			int[] targets = new int[sources.length];
+			boolean cumulative = false;
+			for (int i = 0; i < sources.length; i++) {
+				targets[i] = names.size();
+				if (sources[i] != MetricType.COUNTER) {
+					// A TOTAL is derived from once only
+					names.add(sourceNames[i]);
+					types.add(sources[i] == MetricType.TOTAL ? MetricType.GAUGE : sources[i]);
+				}
+				if (sources[i] == MetricType.COUNTER || sources[i] == MetricType.TOTAL) {
+					cumulative = true;
+					names.add(sourceNames[i] + " Delta");
+					types.add(MetricType.DELTA);
+					names.add(sourceNames[i] + " per Second");
+					types.add(MetricType.RATE);
+				}
+			}
+			if (!cumulative) {
+				return null;
+			}
+			return new Schema(sources, targets, names.toArray(new String[names.size()]), types.toArray(new MetricType[types.size()]));
+		}
+	}
+}
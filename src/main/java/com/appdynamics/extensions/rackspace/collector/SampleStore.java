@@ -0,0 +1,203 @@
+/*
+ *   Copyright 2018. AppDynamics LLC and its affiliates.
+ *   All Rights Reserved.
+ *   This is unpublished proprietary source code of AppDynamics LLC and its affiliates.
+ *   The copyright notice above does not evidence any actual or intended publication of such source code.
+ *
+ */
+package com.appdynamics.extensions.rackspace.collector;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * The last sample of every series, as value and time, in parallel primitive
+ * arrays indexed by an open addressing table with linear probing. A series is
+ * known by the 64 bit hash of its name only, so that looking a sample up
+ * allocates nothing; at a few million series a collision is still unlikely.
+ * Not thread safe.
+ */
+public class SampleStore {
+
+	private static final int INITIAL_CAPACITY = 1024;
+
+	// Marks a free slot, keys of 0 are stored as 1
+	private static final long FREE = 0L;
+
+	public static final long HASH_SEED = 0xcbf29ce484222325L;
+
+	private static final long FNV_PRIME = 0x100000001b3L;
+
+	private long[] keys;
+
+	private long[] values;
+
+	private long[] times;
+
+	private int size;
+
+	public SampleStore() {
+		allocate(INITIAL_CAPACITY);
+	}
+
+	/**
+	 * Returns the slot of the series, adding it with a time of 0 if it has no
+	 * sample yet. The slot is valid until the next call of slot or evict.
+	 *
+	 * @param key
+	 *            hash of the name of the series
+	 * @return
+	 */
+	public int slot(long key) {
+		if (key == FREE) {
+			key = 1L;
+		}
+		int mask = keys.length - 1;
+		int slot = index(key, mask);
+		while (keys[slot] != FREE) {
+			if (keys[slot] == key) {
+				return slot;
+			}
+			slot = (slot + 1) & mask;
+		}
+		// Kept at most half full so that probe sequences stay short
+		if ((size + 1) * 2 > keys.length) {
+			resize(keys.length * 2);
+			return slot(key);
+		}
+		keys[slot] = key;
+		values[slot] = 0L;
+		times[slot] = 0L;
+		size++;
+		return slot;
+	}
+
+	/**
+	 * @return value of the last sample of the slot
+	 */
+	public long value(int slot) {
+		return values[slot];
+	}
+
+	/**
+	 * @return time of the last sample of the slot, 0 if it has none
+	 */
+	public long time(int slot) {
+		return times[slot];
+	}
+
+	public void set(int slot, long value, long timeMillis) {
+		values[slot] = value;
+		times[slot] = timeMillis;
+	}
+
+	/**
+	 * Drops the series whose last sample is older than oldestMillis, e.g. of
+	 * entities that were deleted
+	 *
+	 * @param oldestMillis
+	 * @return the number of series dropped
+	 */
+	public int evict(long oldestMillis) {
+		int evicted = 0;
+		for (int slot = 0; slot < keys.length; slot++) {
+			if (keys[slot] != FREE && times[slot] < oldestMillis) {
+				evicted++;
+			}
+		}
+		if (evicted > 0) {
+			// Rehashing the others is simpler than shifting probe sequences
+			// back, and only happens when series are gone
+			rehash(Math.max(INITIAL_CAPACITY, Integer.highestOneBit(Math.max(size - evicted, 1) * 4 - 1)), oldestMillis);
+		}
+		return evicted;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Writes the samples as key, value and time
+	 */
+	public void writeTo(DataOutput out) throws IOException {
+		out.writeInt(size);
+		for (int slot = 0; slot < keys.length; slot++) {
+			if (keys[slot] != FREE) {
+				out.writeLong(keys[slot]);
+				out.writeLong(values[slot]);
+				out.writeLong(times[slot]);
+			}
+		}
+	}
+
+	/**
+	 * Adds the samples written by writeTo that are not older than oldestMillis
+	 */
+	public void restore(DataInput in, long oldestMillis) throws IOException {
+		int count = in.readInt();
+		for (int i = 0; i < count; i++) {
+			long key = in.readLong();
+			long value = in.readLong();
+			long time = in.readLong();
+			if (time >= oldestMillis) {
+				set(slot(key), value, time);
+			}
+		}
+	}
+
+	private void resize(int capacity) {
+		rehash(capacity, Long.MIN_VALUE);
+	}
+
+	private void rehash(int capacity, long oldestMillis) {
+		long[] oldKeys = keys;
+		long[] oldValues = values;
+		long[] oldTimes = times;
+		allocate(capacity);
+		int mask = capacity - 1;
+		for (int i = 0; i < oldKeys.length; i++) {
+			if (oldKeys[i] == FREE || oldTimes[i] < oldestMillis) {
+				continue;
+			}
+			int slot = index(oldKeys[i], mask);
+			while (keys[slot] != FREE) {
+				slot = (slot + 1) & mask;
+			}
+			keys[slot] = oldKeys[i];
+			values[slot] = oldValues[i];
+			times[slot] = oldTimes[i];
+			size++;
+		}
+	}
+
+	private void allocate(int capacity) {
+		keys = new long[capacity];
+		values = new long[capacity];
+		times = new long[capacity];
+		size = 0;
+	}
+
+	private static int index(long key, int mask) {
+		// Spreads the high bits, the low bits of similar names may be close
+		long h = key ^ (key >>> 33);
+		h *= 0xff51afd7ed558ccdL;
+		h ^= h >>> 33;
+		return (int) h & mask;
+	}
+
+	/**
+	 * Hashes the name of a series part by part, 64 bit FNV-1a over the
+	 * characters of the parts with a separator after each part. Start from
+	 * HASH_SEED: hash(hash(HASH_SEED, first), second).
+	 */
+	public static long hash(long hash, String part) {
+		if (part != null) {
+			for (int i = 0; i < part.length(); i++) {
+				hash = (hash ^ part.charAt(i)) * FNV_PRIME;
+			}
+		}
+		return (hash ^ '|') * FNV_PRIME;
+	}
+}
@@ -0,0 +1,70 @@
+/*
+ *   Copyright 2018. AppDynamics LLC and its affiliates.
+ *   All Rights Reserved.
+ *   This is unpublished proprietary source code of AppDynamics LLC and its affiliates.
+ *   The copyright notice above does not evidence any actual or intended publication of such source code.
+ *
+ */
+package com.appdynamics.extensions.rackspace.common;
+
+/**
+ * A Rackspace account monitored by the extension: its credentials, the
+ * identity endpoint it authenticates against and the metric prefix its
+ * metrics are reported under
+ */
+public class Account {
+
+	private final String name;
+
+	private final String userName;
+
+	private final String apiKey;
+
+	private final String authUrl;
+
+	private final String metricPrefix;
+
+	public Account(String name, String userName, String apiKey, String authUrl, String metricPrefix) {
+		this.name = name;
+		this.userName = userName;
+		this.apiKey = apiKey;
+		this.authUrl = authUrl;
+		this.metricPrefix = metricPrefix;
+	}
+
+	/**
+	 * @return index of the account in monitor.xml, null for the account given
+	 *         without index
+	 */
+	public String getName() {
+		return name;
+	}
+
+	public String getUserName() {
+		return userName;
+	}
+
+	public String getApiKey() {
+		return apiKey;
+	}
+
+	public String getAuthUrl() {
+		return authUrl;
+	}
+
+	public String getMetricPrefix() {
+		return metricPrefix;
+	}
+
+	/**
+	 * @return key of the identity of the account, excluding the api key
+	 */
+	public String getKey() {
+		return name + "|" + userName + "|" + authUrl;
+	}
+
+	@Override
+	public String toString() {
+		return userName + (name != null ? " (account." + name + ")" : "");
+	}
+}
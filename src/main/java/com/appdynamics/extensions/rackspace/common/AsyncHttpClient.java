@@ -0,0 +1,62 @@
+/*
+ *   Copyright 2018. AppDynamics LLC and its affiliates.
+ *   All Rights Reserved.
+ *   This is unpublished proprietary source code of AppDynamics LLC and its affiliates.
+ *   The copyright notice above does not evidence any actual or intended publication of such source code.
+ *
+ */
+package com.appdynamics.extensions.rackspace.common;
+
+import java.io.InputStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.net.http.HttpResponse.BodyHandlers;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Long lived non blocking http client, used by the collectors that issue
+ * several requests together. Requests are sent over HTTP/2 to the endpoints
+ * that negotiate it, concurrent requests to such an endpoint are then
+ * multiplexed on a single connection; other endpoints are served over
+ * HTTP/1.1 connections kept alive by the client.
+ */
+public class AsyncHttpClient {
+
+	private static final Logger LOG = Logger.getLogger("com.singularity.extensions.AsyncHttpClient");
+
+	private final HttpClient client;
+
+	private final Duration requestTimeout;
+
+	public AsyncHttpClient(int connectTimeoutMillis, int requestTimeoutMillis) {
+		this.client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_2).connectTimeout(Duration.ofMillis(connectTimeoutMillis))
+				.followRedirects(HttpClient.Redirect.NORMAL).build();
+		this.requestTimeout = Duration.ofMillis(requestTimeoutMillis);
+
+		if (LOG.isDebugEnabled()) {
+			LOG.debug("Created async http client with connect timeout " + connectTimeoutMillis + " ms and request timeout "
+					+ requestTimeoutMillis + " ms");
+		}
+	}
+
+	/**
+	 * @return a GET request of the url, with the request timeout set
+	 */
+	public HttpRequest.Builder newRequest(String url) {
+		return HttpRequest.newBuilder(URI.create(url)).timeout(requestTimeout).GET();
+	}
+
+	/**
+	 * Sends the request, the returned future completes once the headers have
+	 * been received. The body is streamed as it arrives; reading it blocks, so
+	 * it is to be read off the threads of the client, and closed.
+	 */
+	public CompletableFuture<HttpResponse<InputStream>> send(HttpRequest request) {
+		return client.sendAsync(request, BodyHandlers.ofInputStream());
+	}
+}
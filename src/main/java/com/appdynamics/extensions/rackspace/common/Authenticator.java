@@ -7,8 +7,22 @@
  */
 package com.appdynamics.extensions.rackspace.common;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.log4j.Logger;
 
@@ -17,8 +31,12 @@ import com.appdynamics.extensions.http.SimpleHttpClient;
 import com.appdynamics.extensions.http.WebTarget;
 import com.appdynamics.extensions.rackspace.exception.RackspaceMonitorException;
 import com.fasterxml.jackson.databind.JsonNode;
-import com.fasterxml.jackson.databind.ObjectMapper;
 
+/**
+ * Holds the authentication token and service endpoints of an account across
+ * task runs. A new token is only requested when the cached one is about to
+ * expire (in the background) or has been rejected by the API.
+ */
 public class Authenticator {
 
 	private static final Logger LOG = Logger.getLogger("com.singularity.extensions.Authenticator");
@@ -27,34 +45,216 @@ public class Authenticator {
 
 	private static final String TOKEN_URI = "/tokens";
 
-	private String authToken;
+	private static final String[] EXPIRES_FORMATS = { "yyyy-MM-dd'T'HH:mm:ss.SSSZ", "yyyy-MM-dd'T'HH:mm:ssZ" };
+
+	// Tokens are refreshed in the background this long before they expire
+	private static final long REFRESH_AHEAD_MILLIS = 10 * 60 * 1000L;
+
+	// Used when the expires timestamp is missing or can not be parsed
+	private static final long DEFAULT_TOKEN_LIFETIME_MILLIS = 60 * 60 * 1000L;
 
-	private String defaultRegion;
+	private volatile String authToken;
 
-	private Map<String, Map<String, String>> endpoints;
+	private volatile long tokenExpiry;
+
+	private volatile String defaultRegion;
+
+	private volatile Map<String, Map<String, String>> endpoints;
 
 	private final SimpleHttpClient httpClient;
 
-	public Authenticator(final SimpleHttpClient httpClient) {
+	private final String userName;
+
+	private final String apiKey;
+
+	private final String authenticationEndPoint;
+
+	private final AtomicBoolean refreshing = new AtomicBoolean();
+
+	// Since this Authenticator was created, including background refreshes
+	private final AtomicLong authentications = new AtomicLong();
+
+	private final AtomicLong authenticationMillis = new AtomicLong();
+
+	private final ExecutorService refresher = Executors.newSingleThreadExecutor(new ThreadFactory() {
+		public Thread newThread(Runnable runnable) {
+			Thread thread = new Thread(runnable, "Rackspace-Token-Refresher");
+			thread.setDaemon(true);
+			return thread;
+		}
+	});
+
+	public Authenticator(final SimpleHttpClient httpClient, String userName, String apiKey, String authenticationEndPoint) {
 		this.httpClient = httpClient;
+		this.userName = userName;
+		this.apiKey = apiKey;
+		this.authenticationEndPoint = authenticationEndPoint;
+	}
+
+	/**
+	 * Returns true if this Authenticator was created for the given credentials,
+	 * in which case its cached token can be reused
+	 */
+	public boolean isFor(String userName, String apiKey, String authenticationEndPoint) {
+		return this.userName.equals(userName) && this.apiKey.equals(apiKey) && this.authenticationEndPoint.equals(authenticationEndPoint);
+	}
+
+	/**
+	 * Returns a valid Authentication Token, authenticating first if there is
+	 * no token yet or the cached one has expired. A token close to expiry is
+	 * still returned while a new one is requested in the background.
+	 * 
+	 * @return authToken
+	 * @throws RackspaceMonitorException
+	 */
+	public String getValidAuthToken() throws RackspaceMonitorException {
+		long now = System.currentTimeMillis();
+		if (authToken == null || now >= tokenExpiry) {
+			synchronized (this) {
+				if (authToken == null || System.currentTimeMillis() >= tokenExpiry) {
+					authenticate();
+				}
+			}
+		} else if (now >= tokenExpiry - REFRESH_AHEAD_MILLIS) {
+			refreshInBackground();
+		}
+		return authToken;
+	}
+
+	/**
+	 * Called when the API rejects a token with 401. Authenticates again unless
+	 * another thread has already replaced the rejected token, and returns the
+	 * token to retry with.
+	 * 
+	 * @param rejectedToken
+	 * @return authToken
+	 * @throws RackspaceMonitorException
+	 */
+	public synchronized String reauthenticate(String rejectedToken) throws RackspaceMonitorException {
+		if (rejectedToken == null || rejectedToken.equals(authToken)) {
+			LOG.info("Authentication token rejected, authenticating again");
+			authenticate();
+		}
+		return authToken;
+	}
+
+	private void refreshInBackground() {
+		if (refreshing.compareAndSet(false, true)) {
+			refresher.execute(new Runnable() {
+				public void run() {
+					try {
+						synchronized (Authenticator.this) {
+							authenticate();
+						}
+					} catch (Exception e) {
+						LOG.error("Error refreshing the authentication token, the current token is used until it expires", e);
+					} finally {
+						refreshing.set(false);
+					}
+				}
+			});
+		}
+	}
+
+	public void shutdown() {
+		refresher.shutdownNow();
+	}
+
+	/**
+	 * Writes the token, its expiry and the endpoints to the snapshot, together
+	 * with a digest of the credentials rather than the api key
+	 * 
+	 * @param out
+	 * @throws IOException
+	 */
+	public void writeTo(DataOutput out) throws IOException {
+		// The token is read first, the endpoints are set before it
+		String authToken = this.authToken;
+		long tokenExpiry = this.tokenExpiry;
+		byte[] credentials = credentialsDigest();
+		out.writeInt(credentials.length);
+		out.write(credentials);
+		SnapshotFile.writeString(out, authToken);
+		out.writeLong(tokenExpiry);
+		SnapshotFile.writeString(out, defaultRegion);
+		Map<String, Map<String, String>> endpoints = this.endpoints;
+		out.writeInt(endpoints != null ? endpoints.size() : -1);
+		if (endpoints != null) {
+			for (Map.Entry<String, Map<String, String>> service : endpoints.entrySet()) {
+				SnapshotFile.writeString(out, service.getKey());
+				out.writeInt(service.getValue().size());
+				for (Map.Entry<String, String> endpoint : service.getValue().entrySet()) {
+					SnapshotFile.writeString(out, endpoint.getKey());
+					SnapshotFile.writeString(out, endpoint.getValue());
+				}
+			}
+		}
+	}
+
+	/**
+	 * Restores the token and endpoints of a snapshot written by writeTo, unless
+	 * the credentials have changed since or the token has expired
+	 * 
+	 * @param in
+	 * @return true if the token was restored
+	 * @throws IOException
+	 */
+	public boolean restore(DataInput in) throws IOException {
+		byte[] credentials = new byte[in.readInt()];
+		in.readFully(credentials);
+		String authToken = SnapshotFile.readString(in);
+		long tokenExpiry = in.readLong();
+		String defaultRegion = SnapshotFile.readString(in);
+		int services = in.readInt();
+		if (authToken == null || services < 0 || tokenExpiry <= System.currentTimeMillis()
+				|| !MessageDigest.isEqual(credentials, credentialsDigest())) {
+			return false;
+		}
+		Map<String, Map<String, String>> endpoints = new HashMap<String, Map<String, String>>();
+		for (int i = 0; i < services; i++) {
+			String serviceName = SnapshotFile.readString(in);
+			int regions = in.readInt();
+			Map<String, String> serviceMap = new HashMap<String, String>();
+			for (int j = 0; j < regions; j++) {
+				serviceMap.put(SnapshotFile.readString(in), SnapshotFile.readString(in));
+			}
+			endpoints.put(serviceName, serviceMap);
+		}
+		synchronized (this) {
+			setDefaultRegion(defaultRegion);
+			setEndpoints(endpoints);
+			this.tokenExpiry = tokenExpiry;
+			setAuthToken(authToken);
+		}
+		if (LOG.isDebugEnabled()) {
+			LOG.debug("Restored the token of " + authenticationEndPoint + " from the snapshot, it expires at " + new Date(tokenExpiry));
+		}
+		return true;
+	}
+
+	private byte[] credentialsDigest() {
+		try {
+			MessageDigest digest = MessageDigest.getInstance("SHA-256");
+			return digest.digest((userName + "\n" + apiKey + "\n" + authenticationEndPoint).getBytes(StandardCharsets.UTF_8));
+		} catch (NoSuchAlgorithmException e) {
+			// Every Java platform has SHA-256
+			throw new IllegalStateException(e);
+		}
 	}
 
 	/**
 	 * Authenticates by issuing a POST /tokens request and parses the response
-	 * to retrieve the Authentication Token and Service EndPoints as a
-	 * Map<Service, Map<Region, publicUrl>>. The Authentication Token and
+	 * to retrieve the Authentication Token, its expiry and Service EndPoints as
+	 * a Map<Service, Map<Region, publicUrl>>. The Authentication Token and
 	 * ServiceEndPoint Url are used for further API calls.
 	 * 
-	 * @param httpClient
-	 * 
-	 * @param userName
-	 * @param apiKey
-	 * @param authenticationEndPoint
 	 * @throws RackspaceMonitorException
 	 */
-	public void authenticate(String userName, String apiKey, String authenticationEndPoint) throws RackspaceMonitorException {
-		Response response = postAuthenticationRequest(userName, apiKey, authenticationEndPoint);
+	private void authenticate() throws RackspaceMonitorException {
+		long start = System.currentTimeMillis();
+		Response response = null;
 		try {
+			response = postAuthenticationRequest(userName, apiKey, authenticationEndPoint);
 			JsonNode node = getAuthenticationResponeNode(response);
 			int statusCode = response.getStatus();
 			if (!(statusCode == 200 || statusCode == 203 || statusCode == 300)) {
@@ -77,10 +277,12 @@ public class Authenticator {
 			} catch (Exception e) {
 				// Ignore
 			}
+			authentications.incrementAndGet();
+			authenticationMillis.addAndGet(System.currentTimeMillis() - start);
 		}
 
 		if (LOG.isDebugEnabled()) {
-			LOG.debug("Authenticated to " + authenticationEndPoint + "successfully");
+			LOG.debug("Authenticated to " + authenticationEndPoint + " successfully, token expires at " + new Date(tokenExpiry));
 		}
 
 	}
@@ -94,9 +296,8 @@ public class Authenticator {
 	}
 
 	private JsonNode getAuthenticationResponeNode(Response response) throws RackspaceMonitorException {
-		ObjectMapper mapper = new ObjectMapper();
 		try {
-			JsonNode node = mapper.readValue(response.inputStream(), JsonNode.class);
+			JsonNode node = Json.readTree(response.inputStream());
 			return node;
 		} catch (Exception e) {
 			LOG.error(e);
@@ -106,11 +307,10 @@ public class Authenticator {
 
 	private void parseAuthenticationResponse(JsonNode node) {
 		JsonNode tokenNode = node.findValue("token");
-		setAuthToken(tokenNode.get("id").asText());
-		setDefaultRegion(node.findValue("RAX-AUTH:defaultRegion").asText());
+		String defaultRegion = node.findValue("RAX-AUTH:defaultRegion").asText();
 
 		JsonNode serviceCatalog = node.findValue("serviceCatalog");
-		setEndpoints(new HashMap<String, Map<String, String>>());
+		Map<String, Map<String, String>> endpoints = new HashMap<String, Map<String, String>>();
 
 		for (JsonNode serviceNode : serviceCatalog) {
 			String serviceName = serviceNode.path("name").asText();
@@ -120,11 +320,53 @@ public class Authenticator {
 				if (!endPoint.path("region").isMissingNode()) {
 					serviceMap.put(endPoint.path("region").asText(), endPoint.path("publicURL").asText());
 				} else {
-					serviceMap.put(getDefaultRegion(), endPoint.path("publicURL").asText());
+					serviceMap.put(defaultRegion, endPoint.path("publicURL").asText());
 				}
 			}
-			getEndpoints().put(serviceName, serviceMap);
+			endpoints.put(serviceName, serviceMap);
 		}
+
+		// The token is published last, once the endpoints it goes with are set
+		setDefaultRegion(defaultRegion);
+		setEndpoints(endpoints);
+		tokenExpiry = parseExpiry(tokenNode.path("expires").asText());
+		setAuthToken(tokenNode.get("id").asText());
+	}
+
+	/**
+	 * Parses the token expiry such as 2014-01-10T20:36:59.000-06:00, falling
+	 * back to a conservative lifetime if the timestamp is not understood
+	 */
+	private long parseExpiry(String expires) {
+		if (expires != null && expires.length() > 0) {
+			// SimpleDateFormat expects the zone as -0600 rather than -06:00 or Z
+			String timestamp = expires.endsWith("Z") ? expires.substring(0, expires.length() - 1) + "+0000" : expires.replaceAll(
+					"([+-]\\d\\d):(\\d\\d)$", "$1$2");
+			for (String format : EXPIRES_FORMATS) {
+				try {
+					return new SimpleDateFormat(format).parse(timestamp).getTime();
+				} catch (ParseException e) {
+					// Try the next format
+				}
+			}
+			LOG.warn("Could not parse token expiry " + expires);
+		}
+		return System.currentTimeMillis() + DEFAULT_TOKEN_LIFETIME_MILLIS;
+	}
+
+	/**
+	 * @return number of token requests since this Authenticator was created
+	 */
+	public long getAuthentications() {
+		return authentications.get();
+	}
+
+	/**
+	 * @return time spent on token requests since this Authenticator was
+	 *         created
+	 */
+	public long getAuthenticationMillis() {
+		return authenticationMillis.get();
 	}
 
 	public String getAuthToken() {
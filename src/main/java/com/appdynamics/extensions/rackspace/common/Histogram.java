@@ -0,0 +1,116 @@
+/*
+ *   Copyright 2018. AppDynamics LLC and its affiliates.
+ *   All Rights Reserved.
+ *   This is unpublished proprietary source code of AppDynamics LLC and its affiliates.
+ *   The copyright notice above does not evidence any actual or intended publication of such source code.
+ *
+ */
+package com.appdynamics.extensions.rackspace.common;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Histogram of durations in milliseconds over fixed buckets. Recording is
+ * lock free and can be done from any thread; snapshotAndReset takes the
+ * values recorded since the previous snapshot.
+ */
+public class Histogram {
+
+	// Upper bounds of the buckets, the last bucket holds everything above
+	private static final long[] BOUNDS = { 1, 2, 5, 10, 20, 50, 100, 200, 500, 1000, 2000, 5000, 10000, 20000, 60000 };
+
+	private final AtomicLongArray counts = new AtomicLongArray(BOUNDS.length + 1);
+
+	private final AtomicLong sum = new AtomicLong();
+
+	private final AtomicLong max = new AtomicLong();
+
+	public void record(long millis) {
+		counts.incrementAndGet(bucket(millis));
+		sum.addAndGet(millis);
+		long current = max.get();
+		while (millis > current && !max.compareAndSet(current, millis)) {
+			current = max.get();
+		}
+	}
+
+	/**
+	 * Returns the values recorded since the previous snapshot and starts
+	 * over. Values recorded while the snapshot is taken go to either one.
+	 */
+	public Snapshot snapshotAndReset() {
+		long[] snapshotCounts = new long[counts.length()];
+		long count = 0;
+		for (int i = 0; i < snapshotCounts.length; i++) {
+			snapshotCounts[i] = counts.getAndSet(i, 0);
+			count += snapshotCounts[i];
+		}
+		return new Snapshot(snapshotCounts, count, sum.getAndSet(0), max.getAndSet(0));
+	}
+
+	private static int bucket(long millis) {
+		for (int i = 0; i < BOUNDS.length; i++) {
+			if (millis <= BOUNDS[i]) {
+				return i;
+			}
+		}
+		return BOUNDS.length;
+	}
+
+	public static class Snapshot {
+
+		private final long[] counts;
+
+		private final long count;
+
+		private final long sum;
+
+		private final long max;
+
+		public Snapshot(long[] counts, long count, long sum, long max) {
+			this.counts = counts;
+			this.count = count;
+			this.sum = sum;
+			this.max = max;
+		}
+
+		public long getCount() {
+			return count;
+		}
+
+		public long getSum() {
+			return sum;
+		}
+
+		public long getMax() {
+			return max;
+		}
+
+		public long getAverage() {
+			return count > 0 ? sum / count : 0;
+		}
+
+		/**
+		 * Returns the upper bound of the bucket holding the percentile, or
+		 * the maximum if that is lower
+		 * 
+		 * @param percentile
+		 *            between 0 and 100
+		 */
+		public long getPercentile(double percentile) {
+			if (count == 0) {
+				return 0;
+			}
+			long rank = (long) Math.ceil(count * percentile / 100);
+			long seen = 0;
+			for (int i = 0; i < BOUNDS.length; i++) {
+				seen += counts[i];
+				if (seen >= rank) {
+					return Math.min(BOUNDS[i], max);
+				}
+			}
+			return max;
+		}
+	}
+}
@@ -0,0 +1,68 @@
+/*
+ *   Copyright 2018. AppDynamics LLC and its affiliates.
+ *   All Rights Reserved.
+ *   This is unpublished proprietary source code of AppDynamics LLC and its affiliates.
+ *   The copyright notice above does not evidence any actual or intended publication of such source code.
+ *
+ */
+package com.appdynamics.extensions.rackspace.common;
+
+import java.util.HashMap;
+
+import org.apache.commons.httpclient.HttpConnectionManager;
+import org.apache.commons.httpclient.params.HttpConnectionManagerParams;
+import org.apache.commons.httpclient.util.IdleConnectionTimeoutThread;
+import org.apache.log4j.Logger;
+
+import com.appdynamics.extensions.http.SimpleHttpClient;
+
+/**
+ * Long lived SimpleHttpClient shared by all task runs. Connections are pooled
+ * per host and kept alive between runs, so a run only pays the TCP and TLS
+ * handshakes for connections that have been evicted as idle.
+ */
+public class HttpClientPool {
+
+	private static final Logger LOG = Logger.getLogger("com.singularity.extensions.HttpClientPool");
+
+	private final SimpleHttpClient httpClient;
+
+	private final IdleConnectionTimeoutThread idleConnectionEvictor;
+
+	public HttpClientPool(int maxConnectionsPerRoute, int maxConnections, int connectTimeoutMillis, int socketTimeoutMillis,
+			long idleTimeoutMillis) {
+		httpClient = SimpleHttpClient.builder(new HashMap<String, String>()).build();
+
+		HttpConnectionManager connectionManager = httpClient.getHttpClient().getHttpConnectionManager();
+		HttpConnectionManagerParams params = connectionManager.getParams();
+		params.setDefaultMaxConnectionsPerHost(maxConnectionsPerRoute);
+		params.setMaxTotalConnections(maxConnections);
+		params.setConnectionTimeout(connectTimeoutMillis);
+		params.setSoTimeout(socketTimeoutMillis);
+		// Kept alive connections may have been closed by the server meanwhile
+		params.setStaleCheckingEnabled(true);
+
+		idleConnectionEvictor = new IdleConnectionTimeoutThread();
+		idleConnectionEvictor.setName("Rackspace-Idle-Connection-Evictor");
+		idleConnectionEvictor.setDaemon(true);
+		idleConnectionEvictor.addConnectionManager(connectionManager);
+		idleConnectionEvictor.setConnectionTimeout(idleTimeoutMillis);
+		idleConnectionEvictor.setTimeoutInterval(Math.max(idleTimeoutMillis / 2, 1000L));
+		idleConnectionEvictor.start();
+
+		if (LOG.isDebugEnabled()) {
+			LOG.debug("Created http client pool with " + maxConnectionsPerRoute + " connections per route, " + maxConnections
+					+ " connections in total, connect timeout " + connectTimeoutMillis + " ms, socket timeout " + socketTimeoutMillis
+					+ " ms and idle timeout " + idleTimeoutMillis + " ms");
+		}
+	}
+
+	public SimpleHttpClient getHttpClient() {
+		return httpClient;
+	}
+
+	public void close() {
+		idleConnectionEvictor.shutdown();
+		httpClient.close();
+	}
+}
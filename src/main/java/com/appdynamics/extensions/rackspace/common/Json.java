@@ -0,0 +1,60 @@
+/*
+ *   Copyright 2018. AppDynamics LLC and its affiliates.
+ *   All Rights Reserved.
+ *   This is unpublished proprietary source code of AppDynamics LLC and its affiliates.
+ *   The copyright notice above does not evidence any actual or intended publication of such source code.
+ *
+ */
+package com.appdynamics.extensions.rackspace.common;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+/**
+ * The one JsonFactory and ObjectMapper used for every response. Both are
+ * thread safe once configured, and sharing them keeps their symbol tables and
+ * deserializer caches warm across responses and runs.
+ */
+public final class Json {
+
+	private static final JsonFactory FACTORY = new JsonFactory().enable(JsonFactory.Feature.CANONICALIZE_FIELD_NAMES).enable(
+			JsonFactory.Feature.INTERN_FIELD_NAMES);
+
+	private static final ObjectMapper MAPPER = new ObjectMapper(FACTORY).configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+
+	private static final ObjectReader TREE_READER = MAPPER.reader(JsonNode.class);
+
+	private Json() {
+	}
+
+	public static JsonParser createParser(InputStream inputStream) throws IOException {
+		return FACTORY.createParser(inputStream);
+	}
+
+	public static JsonNode readTree(InputStream inputStream) throws IOException {
+		return TREE_READER.readValue(inputStream);
+	}
+
+	public static JsonNode readTree(byte[] content) throws IOException {
+		return TREE_READER.readValue(content);
+	}
+
+	public static byte[] toBytes(JsonNode node) throws IOException {
+		return MAPPER.writeValueAsBytes(node);
+	}
+
+	/**
+	 * @return an empty object to build a request body with
+	 */
+	public static ObjectNode createObjectNode() {
+		return MAPPER.createObjectNode();
+	}
+}
@@ -0,0 +1,90 @@
+/*
+ *   Copyright 2018. AppDynamics LLC and its affiliates.
+ *   All Rights Reserved.
+ *   This is unpublished proprietary source code of AppDynamics LLC and its affiliates.
+ *   The copyright notice above does not evidence any actual or intended publication of such source code.
+ *
+ */
+package com.appdynamics.extensions.rackspace.common;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counters of the requests made for one (service, region): request latency,
+ * responses by status code, bytes received and decompressed, time spent
+ * reading and parsing bodies and entities read. All counters are lock free
+ * and are taken and reset once per run by MonitorHealth.
+ */
+public class ServiceInstruments {
+
+	// Status code recorded for requests that failed without a response
+	public static final int CONNECTION_ERROR = 0;
+
+	private static final int STATUS_CODES = 600;
+
+	private final Histogram latency = new Histogram();
+
+	private final AtomicLongArray statusCounts = new AtomicLongArray(STATUS_CODES);
+
+	private final AtomicLong bytesReceived = new AtomicLong();
+
+	private final AtomicLong bytesDecompressed = new AtomicLong();
+
+	private final AtomicLong parseNanos = new AtomicLong();
+
+	private final AtomicLong entities = new AtomicLong();
+
+	/**
+	 * Records a request, with CONNECTION_ERROR as status code if there was no
+	 * response
+	 */
+	public void recordRequest(long latencyMillis, int statusCode) {
+		latency.record(latencyMillis);
+		statusCounts.incrementAndGet(statusCode >= 0 && statusCode < STATUS_CODES ? statusCode : CONNECTION_ERROR);
+	}
+
+	public void recordBody(long receivedBytes, long decompressedBytes, long readNanos) {
+		bytesReceived.addAndGet(receivedBytes);
+		bytesDecompressed.addAndGet(decompressedBytes);
+		parseNanos.addAndGet(readNanos);
+	}
+
+	public void recordEntities(int count) {
+		entities.addAndGet(count);
+	}
+
+	public Histogram.Snapshot takeLatency() {
+		return latency.snapshotAndReset();
+	}
+
+	/**
+	 * @return responses per status code since the last call, indexed by
+	 *         status code
+	 */
+	public long[] takeStatusCounts() {
+		long[] counts = new long[STATUS_CODES];
+		for (int i = 0; i < STATUS_CODES; i++) {
+			if (statusCounts.get(i) != 0) {
+				counts[i] = statusCounts.getAndSet(i, 0);
+			}
+		}
+		return counts;
+	}
+
+	public long takeBytesReceived() {
+		return bytesReceived.getAndSet(0);
+	}
+
+	public long takeBytesDecompressed() {
+		return bytesDecompressed.getAndSet(0);
+	}
+
+	public long takeParseNanos() {
+		return parseNanos.getAndSet(0);
+	}
+
+	public long takeEntities() {
+		return entities.getAndSet(0);
+	}
+}
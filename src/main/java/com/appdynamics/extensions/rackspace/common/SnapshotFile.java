@@ -0,0 +1,210 @@
+/*
+ *   Copyright 2018. AppDynamics LLC and its affiliates.
+ *   All Rights Reserved.
+ *   This is unpublished proprietary source code of AppDynamics LLC and its affiliates.
+ *   The copyright notice above does not evidence any actual or intended publication of such source code.
+ *
+ */
+package com.appdynamics.extensions.rackspace.common;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.EnumSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.CRC32;
+
+import org.apache.log4j.Logger;
+
+/**
+ * A binary file of named sections that the state built up across runs is
+ * checkpointed to, so that it survives a restart of the machine agent. The
+ * file is written to a temporary file first which is then renamed over it,
+ * so that it is either the previous or the new snapshot even if the agent is
+ * killed while writing. A snapshot of another format version, or whose
+ * checksum does not match, is ignored.
+ */
+public class SnapshotFile {
+
+	private static final Logger LOG = Logger.getLogger("com.singularity.extensions.SnapshotFile");
+
+	private static final int MAGIC = 0x52534e50;
+
+	// Increased whenever a section changes its layout
+	private static final int VERSION = 1;
+
+	private final File file;
+
+	public SnapshotFile(File file) {
+		this.file = file;
+	}
+
+	public File getFile() {
+		return file;
+	}
+
+	/**
+	 * Reads the sections of the snapshot
+	 *
+	 * @return Map<Name, Section>, empty if there is no valid snapshot
+	 */
+	public Map<String, byte[]> read() {
+		Map<String, byte[]> sections = new LinkedHashMap<String, byte[]>();
+		if (!file.isFile()) {
+			return sections;
+		}
+		try {
+			byte[] content = Files.readAllBytes(file.toPath());
+			if (content.length < 8 || checksum(content, content.length - 8) != readLong(content, content.length - 8)) {
+				LOG.warn("Ignoring the snapshot " + file + ", it is incomplete or corrupt");
+				return sections;
+			}
+			DataInputStream in = new DataInputStream(new ByteArrayInputStream(content, 0, content.length - 8));
+			if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+				LOG.info("Ignoring the snapshot " + file + " of another version");
+				return sections;
+			}
+			int count = in.readInt();
+			for (int i = 0; i < count; i++) {
+				String name = in.readUTF();
+				byte[] section = new byte[in.readInt()];
+				in.readFully(section);
+				sections.put(name, section);
+			}
+		} catch (IOException e) {
+			LOG.error("Error reading the snapshot " + file + ", starting without it", e);
+			sections.clear();
+		}
+		return sections;
+	}
+
+	/**
+	 * Replaces the snapshot with the given sections
+	 *
+	 * @param sections
+	 *            Map<Name, Section>
+	 * @throws IOException
+	 */
+	public void write(Map<String, byte[]> sections) throws IOException {
+		Buffer buffer = new Buffer();
+		DataOutputStream out = new DataOutputStream(buffer);
+		out.writeInt(MAGIC);
+		out.writeInt(VERSION);
+		out.writeInt(sections.size());
+		for (Map.Entry<String, byte[]> section : sections.entrySet()) {
+			out.writeUTF(section.getKey());
+			out.writeInt(section.getValue().length);
+			out.write(section.getValue());
+		}
+		out.writeLong(checksum(buffer.array(), buffer.size()));
+
+		File temp = new File(file.getParentFile(), file.getName() + ".tmp");
+		// A temporary file left by an earlier write may be readable by others
+		Files.deleteIfExists(temp.toPath());
+		FileChannel channel = createPrivate(temp.toPath());
+		try {
+			buffer.writeTo(Channels.newOutputStream(channel));
+			channel.force(true);
+		} finally {
+			channel.close();
+		}
+		try {
+			Files.move(temp.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+		} catch (AtomicMoveNotSupportedException e) {
+			Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		}
+	}
+
+	/**
+	 * Creates the file readable by its owner only before anything is written
+	 * to it, as the snapshot holds the tokens of the accounts
+	 */
+	private static FileChannel createPrivate(Path path) throws IOException {
+		Set<StandardOpenOption> options = EnumSet.of(StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+		try {
+			return FileChannel.open(path, options, PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rw-------")));
+		} catch (UnsupportedOperationException e) {
+			// Not a POSIX file system, the file is restricted as far as it
+			// can be before it is written
+			FileChannel channel = FileChannel.open(path, options);
+			File file = path.toFile();
+			if (!(file.setReadable(false, false) && file.setReadable(true, true))) {
+				LOG.warn("Could not make " + path + " readable by its owner only");
+			}
+			return channel;
+		}
+	}
+
+	public void delete() {
+		if (file.isFile() && !file.delete()) {
+			LOG.warn("Could not delete the snapshot " + file);
+		}
+	}
+
+	/**
+	 * Writes a string of any length that may be null
+	 */
+	public static void writeString(DataOutput out, String value) throws IOException {
+		if (value == null) {
+			out.writeInt(-1);
+		} else {
+			byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+			out.writeInt(bytes.length);
+			out.write(bytes);
+		}
+	}
+
+	public static String readString(DataInput in) throws IOException {
+		int length = in.readInt();
+		if (length < 0) {
+			return null;
+		}
+		byte[] bytes = new byte[length];
+		in.readFully(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	private static long checksum(byte[] content, int length) {
+		CRC32 crc = new CRC32();
+		crc.update(content, 0, length);
+		return crc.getValue();
+	}
+
+	private static long readLong(byte[] content, int offset) {
+		long value = 0;
+		for (int i = 0; i < 8; i++) {
+			value = (value << 8) | (content[offset + i] & 0xff);
+		}
+		return value;
+	}
+
+	/**
+	 * Exposes its array so that the checksum is taken without a copy
+	 */
+	private static class Buffer extends ByteArrayOutputStream {
+
+		private Buffer() {
+			super(64 * 1024);
+		}
+
+		private byte[] array() {
+			return buf;
+		}
+	}
+}
@@ -7,44 +7,221 @@
  */
 package com.appdynamics.extensions.rackspace.stats;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.FutureTask;
 
-import com.appdynamics.extensions.http.SimpleHttpClient;
 import com.appdynamics.extensions.rackspace.exception.RackspaceMonitorException;
-import com.fasterxml.jackson.databind.JsonNode;
 
+/**
+ * Objects and bytes of every container of a region, read from the container
+ * listing. With container details every container is requested with a HEAD
+ * as well, for its quota and current totals, with at most
+ * maxConcurrentRequests containers at a time while the listing is still being
+ * read; the CDN enabled containers are listed from the CDN endpoint meanwhile.
+ */
 public class CloudFilesStats extends Stats {
 
 	public static final String metricPath = "Files |%s|%s|";
 
 	private static final String queryString = "?format=json";
 
-	public CloudFilesStats(SimpleHttpClient httpClient) {
-		super(httpClient);
+	private static final String cdnQueryString = "?format=json&enabled_only=true";
+
+	private static final String[] METRICS = { "Count", "Bytes" };
+
+	private static final MetricType[] TYPES = { MetricType.TOTAL, MetricType.TOTAL };
+
+	private static final String[] DETAIL_METRICS = { "Count", "Bytes", "Quota Count", "Quota Bytes", "Quota Used %", "CDN Enabled" };
+
+	private static final MetricType[] DETAIL_TYPES = { MetricType.TOTAL, MetricType.TOTAL, MetricType.GAUGE, MetricType.GAUGE, MetricType.GAUGE,
+			MetricType.GAUGE };
+
+	private static final int COUNT_METRIC = 0, BYTES_METRIC = 1, QUOTA_COUNT_METRIC = 2, QUOTA_BYTES_METRIC = 3, QUOTA_USED_METRIC = 4,
+			CDN_ENABLED_METRIC = 5;
+
+	private static final int NAME = 0, COUNT = 1, BYTES = 2;
+
+	private static final EntityReader containerReader = new EntityReader("name", "count", "bytes");
+
+	private static final EntityReader cdnContainerReader = new EntityReader("name");
+
+	// Headers of a container HEAD, in the order of their values
+	private static final String[] CONTAINER_HEADERS = { "X-Container-Object-Count", "X-Container-Bytes-Used", "X-Container-Meta-Quota-Count",
+			"X-Container-Meta-Quota-Bytes" };
+
+	private static final int OBJECT_COUNT_HEADER = 0, BYTES_USED_HEADER = 1, QUOTA_COUNT_HEADER = 2, QUOTA_BYTES_HEADER = 3;
+
+	private final int maxConcurrentRequests;
+
+	private final String cdnUrl;
+
+	public CloudFilesStats(StatsContext context) {
+		this(context, 0, null);
+	}
+
+	/**
+	 * @param context
+	 * @param maxConcurrentRequests
+	 *            containers requested at a time for their details, 0 to read
+	 *            the listing only
+	 * @param cdnUrl
+	 *            CDN endpoint of the region, null if it has none
+	 */
+	public CloudFilesStats(StatsContext context, int maxConcurrentRequests, String cdnUrl) {
+		super(context);
+		this.maxConcurrentRequests = maxConcurrentRequests;
+		this.cdnUrl = cdnUrl;
 	}
 
 	/**
 	 * Fetches metrics issuing a Http Request to the CloudFiles url specific to
-	 * the DataCenter and returns as a Map<ContainerName, Map<MetricName,
-	 * MetricValue>>
-	 * 
+	 * the DataCenter and returns them with a row per container
+	 *
 	 * @throws RackspaceMonitorException
 	 */
-	public Map<String, Map<String, Long>> getMetrics(String authToken, String url) throws RackspaceMonitorException {
+	public MetricTable getMetrics(String authToken, String url) throws RackspaceMonitorException {
+		if (maxConcurrentRequests > 0) {
+			return getDetailMetrics(authToken, url);
+		}
 
-		Map<String, Map<String, Long>> stats = new HashMap<String, Map<String, Long>>();
+		final MetricTable stats = new MetricTable(METRICS, TYPES);
 
-		JsonNode containersNode = getServiceResponse(url + queryString, authToken);
+		streamPages(url + queryString, authToken, null, containerReader, NAME, new EntityHandler() {
+			public void onEntity(String[] container) {
+				int row = stats.addEntity(container[NAME]);
+				stats.set(row, COUNT_METRIC, EntityReader.asLong(container[COUNT]));
+				stats.set(row, BYTES_METRIC, EntityReader.asLong(container[BYTES]));
+			}
+		});
+		return stats;
 
-		for (JsonNode container : containersNode) {
-			Map<String, Long> containerStats = new HashMap<String, Long>();
-			String containerName = container.path("name").asText();
-			containerStats.put("Count", container.path("count").asLong());
-			containerStats.put("Bytes", container.path("bytes").asLong());
-			stats.put(containerName, containerStats);
+	}
+
+	/**
+	 * Reads the listing and requests every container in it with a HEAD, adding
+	 * the row of a container as soon as its headers are in
+	 */
+	private MetricTable getDetailMetrics(final String authToken, final String url) throws RackspaceMonitorException {
+		final MetricTable stats = new MetricTable(DETAIL_METRICS, DETAIL_TYPES);
+		FutureTask<Set<String>> cdnContainers = cdnUrl != null ? prefetch(getCdnContainers(authToken)) : null;
+		final FanOut<ContainerHeaders> requests = new FanOut<ContainerHeaders>(maxConcurrentRequests, new ResponseHandler<ContainerHeaders>() {
+			public void onResponse(ContainerHeaders container) {
+				addContainer(stats, container);
+			}
+		});
+		try {
+			streamPages(url + queryString, authToken, null, containerReader, NAME, new EntityHandler() {
+				public void onEntity(String[] container) throws RackspaceMonitorException {
+					requests.submit(getContainerHeaders(url, authToken, container));
+				}
+			});
+			requests.finish();
+
+			if (cdnContainers != null) {
+				Set<String> cdnEnabled = awaitPrefetched(cdnContainers);
+				for (int row = 0; row < stats.size(); row++) {
+					stats.set(row, CDN_ENABLED_METRIC, cdnEnabled.contains(stats.getEntity(row)) ? 1 : 0);
+				}
+			}
+		} finally {
+			requests.cancel();
+			if (cdnContainers != null) {
+				cdnContainers.cancel(true);
+			}
 		}
 		return stats;
+	}
 
+	private Callable<Set<String>> getCdnContainers(final String authToken) {
+		return new Callable<Set<String>>() {
+			public Set<String> call() throws Exception {
+				final Set<String> names = new HashSet<String>();
+				streamPages(cdnUrl + cdnQueryString, authToken, null, cdnContainerReader, NAME, new EntityHandler() {
+					public void onEntity(String[] container) {
+						names.add(container[NAME]);
+					}
+				});
+				return names;
+			}
+		};
+	}
+
+	private Callable<ContainerHeaders> getContainerHeaders(final String url, final String authToken, final String[] container)
+			throws RackspaceMonitorException {
+		final String containerUrl = url + "/" + encodePathSegment(container[NAME]);
+		return new Callable<ContainerHeaders>() {
+			public ContainerHeaders call() throws Exception {
+				return new ContainerHeaders(container, headServiceRequest(containerUrl, authToken, CONTAINER_HEADERS));
+			}
+		};
+	}
+
+	private void addContainer(MetricTable stats, ContainerHeaders container) {
+		// A container deleted since it was listed is left out
+		if (container.headers == null) {
+			return;
+		}
+		int row = stats.addEntity(container.listed[NAME]);
+		long count = valueOf(container.headers[OBJECT_COUNT_HEADER], container.listed[COUNT]);
+		long bytes = valueOf(container.headers[BYTES_USED_HEADER], container.listed[BYTES]);
+		long quotaCount = quotaOf(container.headers[QUOTA_COUNT_HEADER]);
+		long quotaBytes = quotaOf(container.headers[QUOTA_BYTES_HEADER]);
+		stats.set(row, COUNT_METRIC, count);
+		stats.set(row, BYTES_METRIC, bytes);
+		stats.set(row, QUOTA_COUNT_METRIC, quotaCount);
+		stats.set(row, QUOTA_BYTES_METRIC, quotaBytes);
+
+		// The quota that is closest to being reached
+		long used = MetricTable.NO_VALUE;
+		if (quotaCount > 0) {
+			used = count * 100 / quotaCount;
+		}
+		if (quotaBytes > 0) {
+			used = Math.max(used, bytes * 100 / quotaBytes);
+		}
+		stats.set(row, QUOTA_USED_METRIC, used);
+	}
+
+	/**
+	 * @return the value of the header, which is current, or else the one of
+	 *         the listing
+	 */
+	private static long valueOf(String header, String listed) {
+		return EntityReader.asLong(header != null ? header : listed);
+	}
+
+	/**
+	 * @return the quota of the header, no value if the container has none
+	 */
+	private static long quotaOf(String header) {
+		return header != null ? EntityReader.asLong(header) : MetricTable.NO_VALUE;
+	}
+
+	private static String encodePathSegment(String name) throws RackspaceMonitorException {
+		try {
+			return URLEncoder.encode(name, "UTF-8").replace("+", "%20");
+		} catch (UnsupportedEncodingException e) {
+			throw new RackspaceMonitorException(e);
+		}
+	}
+
+	/**
+	 * The headers of a container HEAD, with the container as listed
+	 */
+	private static class ContainerHeaders {
+
+		private final String[] listed;
+
+		// null if the container no longer exists
+		private final String[] headers;
+
+		public ContainerHeaders(String[] listed, String[] headers) {
+			this.listed = listed;
+			this.headers = headers;
+		}
 	}
 }
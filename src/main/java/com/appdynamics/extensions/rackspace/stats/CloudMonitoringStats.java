@@ -0,0 +1,325 @@
+/*
+ *   Copyright 2018. AppDynamics LLC and its affiliates.
+ *   All Rights Reserved.
+ *   This is unpublished proprietary source code of AppDynamics LLC and its affiliates.
+ *   The copyright notice above does not evidence any actual or intended publication of such source code.
+ *
+ */
+package com.appdynamics.extensions.rackspace.stats;
+
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+
+import org.apache.log4j.Logger;
+
+import com.appdynamics.extensions.rackspace.common.Json;
+import com.appdynamics.extensions.rackspace.exception.RackspaceMonitorException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+/**
+ * Utilization of the servers monitored by the Cloud Monitoring agent. The
+ * entities are listed with their checks from the overview, and the data
+ * points of all agent checks are fetched with the multiplot API, 100 metrics
+ * per request instead of one request per check. Up to 4 multiplot requests
+ * are in flight while further overview pages are read.
+ */
+public class CloudMonitoringStats extends Stats {
+
+	private static final Logger LOG = Logger.getLogger("com.singularity.extensions.CloudMonitoringStats");
+
+	public static final String metricPath = "Monitoring |%s|%s|";
+
+	private static final String overviewUri = "/views/overview";
+
+	private static final String multiplotUri = "/__experiments/multiplot";
+
+	// The largest page of the overview and the most metrics of a multiplot
+	// request the API accepts
+	private static final int OVERVIEW_PAGE_SIZE = 100;
+
+	private static final int MULTIPLOT_BATCH_SIZE = 100;
+
+	private static final int MAX_BATCHES_IN_FLIGHT = 4;
+
+	// Data points of the last 5 minutes: agent checks run every minute or
+	// more, which leaves the two points a counter rate is computed from
+	private static final long WINDOW_MILLIS = 5 * 60 * 1000L;
+
+	private static final String[] METRICS = { "CPU Usage %", "Memory Used %", "Memory Used (MB)", "Disk Used %", "Disk Used (GB)",
+			"Network Received (KB/s)", "Network Transmitted (KB/s)" };
+
+	private static final int CPU_USAGE_METRIC = 0, MEMORY_USED_PERCENT_METRIC = 1, MEMORY_USED_METRIC = 2, DISK_USED_PERCENT_METRIC = 3,
+			DISK_USED_METRIC = 4, NETWORK_RECEIVED_METRIC = 5, NETWORK_TRANSMITTED_METRIC = 6;
+
+	// What a data point is summed into, per metric of an agent check
+	private static final int CPU_USAGE = 0, MEMORY_USED = 1, MEMORY_TOTAL = 2, DISK_USED = 3, DISK_TOTAL = 4, RECEIVED_RATE = 5,
+			TRANSMITTED_RATE = 6, FIELD_COUNT = 7;
+
+	private static final Map<String, String[]> CHECK_METRICS = new HashMap<String, String[]>();
+
+	private static final Map<String, int[]> CHECK_FIELDS = new HashMap<String, int[]>();
+
+	static {
+		addCheckType("agent.cpu", new String[] { "usage_average" }, new int[] { CPU_USAGE });
+		addCheckType("agent.memory", new String[] { "actual_used", "total" }, new int[] { MEMORY_USED, MEMORY_TOTAL });
+		addCheckType("agent.filesystem", new String[] { "used", "total" }, new int[] { DISK_USED, DISK_TOTAL });
+		addCheckType("agent.network", new String[] { "rx_bytes", "tx_bytes" }, new int[] { RECEIVED_RATE, TRANSMITTED_RATE });
+	}
+
+	private static void addCheckType(String type, String[] metrics, int[] fields) {
+		CHECK_METRICS.put(type, metrics);
+		CHECK_FIELDS.put(type, fields);
+	}
+
+	public CloudMonitoringStats(StatsContext context) {
+		super(context);
+	}
+
+	/**
+	 * Fetches the utilization of every entity with agent checks, issuing Http
+	 * Requests to the Cloud Monitoring url of the account, and returns it with
+	 * a row per entity
+	 *
+	 * @throws RackspaceMonitorException
+	 */
+	@Override
+	public MetricTable getMetrics(final String authToken, String url) throws RackspaceMonitorException {
+		long to = System.currentTimeMillis();
+		final String multiplotUrl = url + multiplotUri + "?from=" + (to - WINDOW_MILLIS) + "&to=" + to + "&resolution=FULL";
+
+		Map<String, Utilization> entities = new LinkedHashMap<String, Utilization>();
+		List<MetricQuery> batch = new ArrayList<MetricQuery>(MULTIPLOT_BATCH_SIZE);
+		FanOut<Batch> multiplots = new FanOut<Batch>(MAX_BATCHES_IN_FLIGHT, new ResponseHandler<Batch>() {
+			public void onResponse(Batch response) {
+				response.apply();
+			}
+		});
+		try {
+			String marker = null;
+			do {
+				JsonNode overview = getServiceResponse(overviewUrl(url, marker), authToken);
+				for (JsonNode entityView : overview.path("values")) {
+					for (MetricQuery query : addEntity(entities, entityView)) {
+						batch.add(query);
+						if (batch.size() == MULTIPLOT_BATCH_SIZE) {
+							multiplots.submit(multiplot(multiplotUrl, authToken, batch));
+							batch = new ArrayList<MetricQuery>(MULTIPLOT_BATCH_SIZE);
+						}
+					}
+				}
+				marker = overview.path("metadata").path("next_marker").textValue();
+			} while (marker != null);
+
+			if (!batch.isEmpty()) {
+				multiplots.submit(multiplot(multiplotUrl, authToken, batch));
+			}
+			multiplots.finish();
+		} finally {
+			multiplots.cancel();
+		}
+
+		// Entities sharing a label would be reported under the same metric
+		// path, they are told apart by their id
+		Map<String, Integer> labelCounts = new HashMap<String, Integer>(entities.size() * 2);
+		for (Utilization entity : entities.values()) {
+			Integer count = labelCounts.get(entity.label);
+			labelCounts.put(entity.label, count != null ? count + 1 : 1);
+		}
+		MetricTable utilization = new MetricTable(entities.size(), METRICS);
+		for (Map.Entry<String, Utilization> entity : entities.entrySet()) {
+			String label = entity.getValue().label;
+			entity.getValue().addTo(utilization, labelCounts.get(label) > 1 ? label + " (" + entity.getKey() + ")" : label);
+		}
+		return utilization;
+	}
+
+	private String overviewUrl(String url, String marker) throws RackspaceMonitorException {
+		StringBuilder overviewUrl = new StringBuilder(url).append(overviewUri).append("?limit=").append(OVERVIEW_PAGE_SIZE);
+		if (marker != null) {
+			try {
+				overviewUrl.append("&marker=").append(URLEncoder.encode(marker, "UTF-8"));
+			} catch (UnsupportedEncodingException e) {
+				throw new RackspaceMonitorException(e);
+			}
+		}
+		return overviewUrl.toString();
+	}
+
+	/**
+	 * Adds the entity of an overview element if it has agent checks, and
+	 * returns the metrics to query for them
+	 */
+	private List<MetricQuery> addEntity(Map<String, Utilization> entities, JsonNode entityView) {
+		List<MetricQuery> queries = new ArrayList<MetricQuery>();
+		String entityId = entityView.path("entity").path("id").asText();
+		Utilization utilization = null;
+		for (JsonNode check : entityView.path("checks")) {
+			String type = check.path("type").asText();
+			String[] metrics = CHECK_METRICS.get(type);
+			if (metrics == null) {
+				continue;
+			}
+			if (utilization == null) {
+				String label = entityView.path("entity").path("label").textValue();
+				utilization = new Utilization(label != null ? label : entityId);
+				entities.put(entityId, utilization);
+			}
+			int[] fields = CHECK_FIELDS.get(type);
+			for (int i = 0; i < metrics.length; i++) {
+				queries.add(new MetricQuery(entityId, check.path("id").asText(), metrics[i], fields[i], utilization));
+			}
+		}
+		return queries;
+	}
+
+	private Callable<Batch> multiplot(final String multiplotUrl, final String authToken, final List<MetricQuery> queries) {
+		ObjectNode request = Json.createObjectNode();
+		ArrayNode metrics = request.putArray("metrics");
+		for (MetricQuery query : queries) {
+			metrics.addObject().put("entity_id", query.entityId).put("check_id", query.checkId).put("metric", query.metric);
+		}
+		final String content = request.toString();
+		return new Callable<Batch>() {
+			public Batch call() throws Exception {
+				return new Batch(queries, postServiceRequest(multiplotUrl, authToken, content));
+			}
+		};
+	}
+
+	private static class MetricQuery {
+
+		private final String entityId;
+
+		private final String checkId;
+
+		private final String metric;
+
+		private final int field;
+
+		private final Utilization utilization;
+
+		public MetricQuery(String entityId, String checkId, String metric, int field, Utilization utilization) {
+			this.entityId = entityId;
+			this.checkId = checkId;
+			this.metric = metric;
+			this.field = field;
+			this.utilization = utilization;
+		}
+
+		private String key() {
+			return key(entityId, checkId, metric);
+		}
+
+		private static String key(String entityId, String checkId, String metric) {
+			return entityId + '|' + checkId + '|' + metric;
+		}
+	}
+
+	/**
+	 * The response of a multiplot request, with the queries it answers
+	 */
+	private static class Batch {
+
+		private final List<MetricQuery> queries;
+
+		private final JsonNode response;
+
+		public Batch(List<MetricQuery> queries, JsonNode response) {
+			this.queries = queries;
+			this.response = response;
+		}
+
+		/**
+		 * Sums the data points of the response into the utilization of their
+		 * entities. Gauges take the last data point, counters the rate per
+		 * second between the first and the last one. Called on the collector
+		 * thread only.
+		 */
+		private void apply() {
+			Map<String, MetricQuery> queriesByKey = new HashMap<String, MetricQuery>(queries.size() * 2);
+			for (MetricQuery query : queries) {
+				queriesByKey.put(query.key(), query);
+			}
+			for (JsonNode metric : response.path("metrics")) {
+				MetricQuery query = queriesByKey.get(MetricQuery.key(metric.path("entity_id").asText(), metric.path("check_id").asText(),
+						metric.path("metric").asText()));
+				JsonNode data = metric.path("data");
+				if (query == null || data.size() == 0) {
+					continue;
+				}
+				JsonNode last = data.get(data.size() - 1);
+				if (query.field == RECEIVED_RATE || query.field == TRANSMITTED_RATE) {
+					JsonNode first = data.get(0);
+					double seconds = (last.path("timestamp").asLong() - first.path("timestamp").asLong()) / 1000d;
+					double delta = last.path("average").asDouble() - first.path("average").asDouble();
+					// A counter that went back has been reset by a restart
+					if (seconds > 0 && delta >= 0) {
+						query.utilization.add(query.field, delta / seconds);
+					}
+				} else {
+					query.utilization.add(query.field, last.path("average").asDouble());
+				}
+			}
+			if (LOG.isDebugEnabled()) {
+				LOG.debug("Applied " + response.path("metrics").size() + " multiplot metrics of " + queries.size() + " queried");
+			}
+		}
+	}
+
+	/**
+	 * The data points of an entity, summed over its filesystems and network
+	 * interfaces
+	 */
+	private static class Utilization {
+
+		private final String label;
+
+		private final double[] fields = new double[FIELD_COUNT];
+
+		private final boolean[] present = new boolean[FIELD_COUNT];
+
+		public Utilization(String label) {
+			this.label = label;
+		}
+
+		private void add(int field, double value) {
+			fields[field] += value;
+			present[field] = true;
+		}
+
+		private void addTo(MetricTable table, String entityName) {
+			int row = table.addEntity(entityName);
+			if (present[CPU_USAGE]) {
+				table.set(row, CPU_USAGE_METRIC, Math.round(fields[CPU_USAGE]));
+			}
+			// Memory is reported in bytes
+			if (present[MEMORY_USED]) {
+				table.set(row, MEMORY_USED_METRIC, Math.round(fields[MEMORY_USED] / (1024 * 1024)));
+				if (fields[MEMORY_TOTAL] > 0) {
+					table.set(row, MEMORY_USED_PERCENT_METRIC, Math.round(fields[MEMORY_USED] * 100 / fields[MEMORY_TOTAL]));
+				}
+			}
+			// Filesystems are reported in kilobytes
+			if (present[DISK_USED]) {
+				table.set(row, DISK_USED_METRIC, Math.round(fields[DISK_USED] / (1024 * 1024)));
+				if (fields[DISK_TOTAL] > 0) {
+					table.set(row, DISK_USED_PERCENT_METRIC, Math.round(fields[DISK_USED] * 100 / fields[DISK_TOTAL]));
+				}
+			}
+			if (present[RECEIVED_RATE]) {
+				table.set(row, NETWORK_RECEIVED_METRIC, Math.round(fields[RECEIVED_RATE] / 1024));
+			}
+			if (present[TRANSMITTED_RATE]) {
+				table.set(row, NETWORK_TRANSMITTED_METRIC, Math.round(fields[TRANSMITTED_RATE] / 1024));
+			}
+		}
+	}
+}
@@ -7,12 +7,7 @@
  */
 package com.appdynamics.extensions.rackspace.stats;
 
-import java.util.HashMap;
-import java.util.Map;
-
-import com.appdynamics.extensions.http.SimpleHttpClient;
 import com.appdynamics.extensions.rackspace.exception.RackspaceMonitorException;
-import com.fasterxml.jackson.databind.JsonNode;
 
 public class DatabaseStats extends Stats {
 
@@ -20,36 +15,39 @@ public class DatabaseStats extends Stats {
 
 	private static final String instancesUri = "/instances";
 
-	public DatabaseStats(SimpleHttpClient httpClient) {
-		super(httpClient);
+	private static final String[] METRICS = { "Status", "Volume-size" };
+
+	private static final int STATUS_METRIC = 0, VOLUME_SIZE_METRIC = 1;
+
+	private static final int NAME = 0, STATUS = 1, VOLUME_SIZE = 2, ID = 3;
+
+	private static final EntityReader instanceReader = new EntityReader("name", "status", "volume.size", "id");
+
+	public DatabaseStats(StatsContext context) {
+		super(context);
 	}
 
 	/**
 	 * Fetches metrics issuing a Http Request to the Databases url specific to
-	 * the DataCenter and returns as a Map<InstanceName, Map<MetricName,
-	 * MetricValue>>
+	 * the DataCenter and returns them with a row per instance
 	 * 
 	 * @throws RackspaceMonitorException
 	 */
 	@Override
-	public Map<String, Map<String, Long>> getMetrics(String authToken, String url) throws RackspaceMonitorException {
-		JsonNode serviceResponse = getServiceResponse(url + instancesUri, authToken);
-		Map<String, Map<String, Long>> instanceStats = getMetricsFromNode(serviceResponse);
+	public MetricTable getMetrics(String authToken, String url) throws RackspaceMonitorException {
+		MetricTable instanceStats = new MetricTable(METRICS);
+		streamPages(url + instancesUri, authToken, "instances", instanceReader, ID, getMetricsHandler(instanceStats));
 		return instanceStats;
 	}
 
-	private Map<String, Map<String, Long>> getMetricsFromNode(JsonNode serviceResponse) {
-		Map<String, Map<String, Long>> instanceStats = new HashMap<String, Map<String, Long>>();
-		JsonNode instancesNode = serviceResponse.get("instances");
-
-		for (JsonNode instance : instancesNode) {
-			Map<String, Long> stats = new HashMap<String, Long>();
-			stats.put("Status", Long.valueOf(Status.valueOf(instance.path("status").asText()).statusInt));
-			stats.put("Volume-size", instance.path("volume").path("size").asLong());
-
-			instanceStats.put(instance.path("name").asText(), stats);
-		}
-		return instanceStats;
+	private EntityHandler getMetricsHandler(final MetricTable instanceStats) {
+		return new EntityHandler() {
+			public void onEntity(String[] instance) {
+				int row = instanceStats.addEntity(instance[NAME]);
+				instanceStats.set(row, STATUS_METRIC, Status.valueOf(instance[STATUS]).statusInt);
+				instanceStats.set(row, VOLUME_SIZE_METRIC, EntityReader.asLong(instance[VOLUME_SIZE]));
+			}
+		};
 	}
 
 }
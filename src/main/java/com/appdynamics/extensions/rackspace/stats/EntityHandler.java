@@ -0,0 +1,25 @@
+/*
+ *   Copyright 2018. AppDynamics LLC and its affiliates.
+ *   All Rights Reserved.
+ *   This is unpublished proprietary source code of AppDynamics LLC and its affiliates.
+ *   The copyright notice above does not evidence any actual or intended publication of such source code.
+ *
+ */
+package com.appdynamics.extensions.rackspace.stats;
+
+import com.appdynamics.extensions.rackspace.exception.RackspaceMonitorException;
+
+/**
+ * Receives the entities of a response as they are read by an EntityReader
+ */
+public interface EntityHandler {
+
+	/**
+	 * Called once per element of the array, values are in the order of the
+	 * fields given to the EntityReader and null for missing fields
+	 * 
+	 * @param values
+	 * @throws RackspaceMonitorException
+	 */
+	void onEntity(String[] values) throws RackspaceMonitorException;
+}
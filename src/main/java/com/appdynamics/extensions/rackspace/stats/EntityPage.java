@@ -0,0 +1,45 @@
+/*
+ *   Copyright 2018. AppDynamics LLC and its affiliates.
+ *   All Rights Reserved.
+ *   This is unpublished proprietary source code of AppDynamics LLC and its affiliates.
+ *   The copyright notice above does not evidence any actual or intended publication of such source code.
+ *
+ */
+package com.appdynamics.extensions.rackspace.stats;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The entities of one page of a paginated collection, as the field values
+ * extracted by an EntityReader
+ */
+public class EntityPage implements EntityHandler {
+
+	private final List<String[]> entities = new ArrayList<String[]>();
+
+	private boolean nextLink;
+
+	public void onEntity(String[] values) {
+		entities.add(values);
+	}
+
+	public List<String[]> getEntities() {
+		return entities;
+	}
+
+	public int size() {
+		return entities.size();
+	}
+
+	/**
+	 * @return true if the response linked to a next page
+	 */
+	public boolean hasNextLink() {
+		return nextLink;
+	}
+
+	void setNextLink(boolean nextLink) {
+		this.nextLink = nextLink;
+	}
+}
@@ -0,0 +1,161 @@
+/*
+ *   Copyright 2018. AppDynamics LLC and its affiliates.
+ *   All Rights Reserved.
+ *   This is unpublished proprietary source code of AppDynamics LLC and its affiliates.
+ *   The copyright notice above does not evidence any actual or intended publication of such source code.
+ *
+ */
+package com.appdynamics.extensions.rackspace.stats;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import com.appdynamics.extensions.rackspace.exception.RackspaceMonitorException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+/**
+ * Streams the elements of a JSON array and extracts only the declared fields
+ * of each element, so that a response is never held in memory as a whole.
+ * Fields of nested objects are declared with dots, e.g. "flavor.id"; all
+ * other fields and objects are skipped without being read.
+ */
+public class EntityReader {
+
+	private final int fieldCount;
+
+	private final Map<String, Integer> fieldIndexes = new HashMap<String, Integer>();
+
+	// Paths of the nested objects holding any of the fields
+	private final Set<String> objectPaths = new HashSet<String>();
+
+	public EntityReader(String... fields) {
+		this.fieldCount = fields.length;
+		for (int i = 0; i < fields.length; i++) {
+			fieldIndexes.put(fields[i], i);
+			for (int dot = fields[i].indexOf('.'); dot > 0; dot = fields[i].indexOf('.', dot + 1)) {
+				objectPaths.add(fields[i].substring(0, dot));
+			}
+		}
+	}
+
+	/**
+	 * Reads the array held by the top level arrayField, or the top level array
+	 * if arrayField is null, passing the fields of every element to the
+	 * handler. Returns true if the remaining top level fields hold a link with
+	 * rel "next", as paginated OpenStack collections do (e.g. servers_links).
+	 * 
+	 * @param parser
+	 * @param arrayField
+	 * @param handler
+	 * @return
+	 * @throws IOException
+	 * @throws RackspaceMonitorException
+	 */
+	public boolean read(JsonParser parser, String arrayField, EntityHandler handler) throws IOException, RackspaceMonitorException {
+		if (!moveToArray(parser, arrayField)) {
+			return false;
+		}
+		JsonToken token;
+		while ((token = parser.nextToken()) != JsonToken.END_ARRAY && token != null) {
+			if (token == JsonToken.START_OBJECT) {
+				String[] values = new String[fieldCount];
+				readObject(parser, null, values);
+				handler.onEntity(values);
+			} else {
+				parser.skipChildren();
+			}
+		}
+		return arrayField != null && readNextLink(parser);
+	}
+
+	private boolean readNextLink(JsonParser parser) throws IOException {
+		boolean nextLink = false;
+		while (parser.nextToken() == JsonToken.FIELD_NAME) {
+			String name = parser.getCurrentName();
+			JsonToken token = parser.nextToken();
+			if (token == JsonToken.START_ARRAY && name.endsWith("links")) {
+				while ((token = parser.nextToken()) != JsonToken.END_ARRAY && token != null) {
+					if (token != JsonToken.START_OBJECT) {
+						parser.skipChildren();
+						continue;
+					}
+					while (parser.nextToken() == JsonToken.FIELD_NAME) {
+						String linkField = parser.getCurrentName();
+						parser.nextToken();
+						if ("rel".equals(linkField) && "next".equals(parser.getText())) {
+							nextLink = true;
+						}
+						parser.skipChildren();
+					}
+				}
+			} else {
+				parser.skipChildren();
+			}
+		}
+		return nextLink;
+	}
+
+	private boolean moveToArray(JsonParser parser, String arrayField) throws IOException {
+		JsonToken token = parser.nextToken();
+		if (arrayField == null) {
+			return token == JsonToken.START_ARRAY;
+		}
+		if (token != JsonToken.START_OBJECT) {
+			return false;
+		}
+		while (parser.nextToken() == JsonToken.FIELD_NAME) {
+			String name = parser.getCurrentName();
+			token = parser.nextToken();
+			if (arrayField.equals(name) && token == JsonToken.START_ARRAY) {
+				return true;
+			}
+			parser.skipChildren();
+		}
+		return false;
+	}
+
+	private void readObject(JsonParser parser, String path, String[] values) throws IOException {
+		while (parser.nextToken() == JsonToken.FIELD_NAME) {
+			String name = parser.getCurrentName();
+			JsonToken token = parser.nextToken();
+			String fieldPath = path == null ? name : path + "." + name;
+			if (token == JsonToken.START_OBJECT) {
+				if (objectPaths.contains(fieldPath)) {
+					readObject(parser, fieldPath, values);
+				} else {
+					parser.skipChildren();
+				}
+			} else if (token == JsonToken.START_ARRAY) {
+				parser.skipChildren();
+			} else {
+				Integer index = fieldIndexes.get(fieldPath);
+				if (index != null && token != JsonToken.VALUE_NULL) {
+					values[index] = parser.getText();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Converts a field value to long the way JsonNode.asLong does, 0 if
+	 * missing or not a number
+	 */
+	public static long asLong(String value) {
+		if (value == null) {
+			return 0L;
+		}
+		try {
+			return Long.parseLong(value);
+		} catch (NumberFormatException e) {
+			try {
+				return (long) Double.parseDouble(value);
+			} catch (NumberFormatException e1) {
+				return 0L;
+			}
+		}
+	}
+}
@@ -7,14 +7,11 @@
  */
 package com.appdynamics.extensions.rackspace.stats;
 
-import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.List;
 import java.util.Map;
 
-import com.appdynamics.extensions.http.SimpleHttpClient;
 import com.appdynamics.extensions.rackspace.exception.RackspaceMonitorException;
-import com.fasterxml.jackson.databind.JsonNode;
+import com.appdynamics.extensions.rackspace.stats.FlavorCache.FlavorLoader;
 
 public class FirstGenServerStats extends Stats {
 
@@ -24,64 +21,90 @@ public class FirstGenServerStats extends Stats {
 
 	private static final String flavorsUri = "/flavors/detail";
 
-	public FirstGenServerStats(SimpleHttpClient httpClient) {
-		super(httpClient);
+	private static final String[] METRICS = { "Progress", "RAM", "Swap", "vCPUs", "Disk Space" };
+
+	private static final int PROGRESS_METRIC = 0, RAM_METRIC = 1, SWAP_METRIC = 2, VCPUS_METRIC = 3, DISK_SPACE_METRIC = 4;
+
+	private static final int NAME = 0, PROGRESS = 1, FLAVOR_ID = 2;
+
+	// The FirstGen (v1.0) API pages by offset rather than marker
+	private static final int BY_OFFSET = -1;
+
+	private static final EntityReader serverReader = new EntityReader("name", "progress", "flavorId");
+
+	private static final int FLAVOR_ID_FIELD = 0, FLAVOR_NAME = 1, FLAVOR_RAM = 2, FLAVOR_DISK = 3;
+
+	private static final EntityReader flavorReader = new EntityReader("id", "name", "ram", "disk");
+
+	private final FlavorCache flavorCache;
+
+	public FirstGenServerStats(StatsContext context) {
+		super(context);
+		this.flavorCache = context.getFlavorCache();
 	}
 
 	/**
 	 * Fetches metrics issuing a Http Request to the FirstGenServer url specific
-	 * to the default datacenter and returns as a Map<ServerName,
-	 * Map<MetricName, MetricValue>>
+	 * to the default datacenter and returns them with a row per server
 	 * 
 	 * @throws RackspaceMonitorException
 	 */
 	@Override
-	public Map<String, Map<String, Long>> getMetrics(String authToken, String url) throws RackspaceMonitorException {
-		JsonNode serviceResponse = getServiceResponse(url + uri, authToken);
-
-		List<ServerFlavor> serverFlavors = populateServerFlavors(url, authToken);
-
-		Map<String, Map<String, Long>> serverStats = new HashMap<String, Map<String, Long>>();
-		JsonNode serversNode = serviceResponse.get("servers");
-		for (JsonNode server : serversNode) {
-			Map<String, Long> stats = new HashMap<String, Long>();
-			stats.put("Progress", server.path("progress").asLong());
-			String flavorId = server.path("flavorId").asText();
-			for (ServerFlavor flavor : serverFlavors) {
-				if (flavor.getId().equals(flavorId)) {
-					stats.put("RAM", Long.valueOf(flavor.getRam()));
-					stats.put("Swap", Long.valueOf(flavor.getSwap()));
-					stats.put("vCPUs", Long.valueOf(flavor.getVcpus()));
-					stats.put("Disk Space", Long.valueOf(flavor.getDisk()));
+	public MetricTable getMetrics(String authToken, String url) throws RackspaceMonitorException {
+		// Flavors are needed first to complete the metrics of each server as
+		// it is read
+		final Map<String, ServerFlavor> serverFlavors = populateServerFlavors(url, authToken);
+
+		final MetricTable serverStats = new MetricTable(METRICS);
+		streamPages(url + uri, authToken, "servers", serverReader, BY_OFFSET, new EntityHandler() {
+			public void onEntity(String[] server) {
+				int row = serverStats.addEntity(server[NAME]);
+				serverStats.set(row, PROGRESS_METRIC, EntityReader.asLong(server[PROGRESS]));
+				ServerFlavor flavor = server[FLAVOR_ID] != null ? serverFlavors.get(server[FLAVOR_ID]) : null;
+				if (flavor != null) {
+					serverStats.set(row, RAM_METRIC, flavor.getRam());
+					serverStats.set(row, SWAP_METRIC, flavor.getSwap());
+					serverStats.set(row, VCPUS_METRIC, flavor.getVcpus());
+					serverStats.set(row, DISK_SPACE_METRIC, flavor.getDisk());
 				}
 			}
-			serverStats.put(server.path("name").asText(), stats);
-		}
+		});
 		return serverStats;
 	}
 
 	/**
-	 * Fetches ServerFlavours by issuing a Http Request to determine the
-	 * params(RAM, Disk, etc) based on ID
+	 * Returns ServerFlavours of the region as Map<FlavorId, ServerFlavor> to
+	 * determine the params(RAM, Disk, etc) based on ID. The flavors are taken
+	 * from the FlavorCache and only fetched by issuing a Http Request once its
+	 * ttl is over.
 	 * 
 	 * @param url
 	 * @param authToken
 	 * @return
 	 * @throws RackspaceMonitorException
 	 */
-	private List<ServerFlavor> populateServerFlavors(String url, String authToken) throws RackspaceMonitorException {
-		JsonNode serviceResponse = getServiceResponse(url + flavorsUri, authToken);
-		JsonNode flavors = serviceResponse.get("flavors");
-		List<ServerFlavor> serverFlavors = new ArrayList<ServerFlavor>();
-		for (JsonNode flavor : flavors) {
-			ServerFlavor serverFlavor = new ServerFlavor();
-			serverFlavor.setId(flavor.path("id").asText());
-			serverFlavor.setName(flavor.path("name").asText());
-			serverFlavor.setRam(flavor.path("ram").asInt());
-			serverFlavor.setDisk(flavor.path("disk").asInt());
-			serverFlavors.add(serverFlavor);
-		}
-		return serverFlavors;
+	private Map<String, ServerFlavor> populateServerFlavors(final String url, final String authToken) throws RackspaceMonitorException {
+		return flavorCache.getFlavors(url, new FlavorLoader() {
+			public Map<String, ServerFlavor> load(Validators validators) throws RackspaceMonitorException {
+				Map<String, ServerFlavor> serverFlavors = new HashMap<String, ServerFlavor>();
+				boolean modified = streamServiceResponseIfModified(url + flavorsUri, authToken, "flavors", flavorReader,
+						getFlavorHandler(serverFlavors), validators);
+				return modified ? serverFlavors : null;
+			}
+		});
+	}
+
+	private EntityHandler getFlavorHandler(final Map<String, ServerFlavor> serverFlavors) {
+		return new EntityHandler() {
+			public void onEntity(String[] flavor) {
+				ServerFlavor serverFlavor = new ServerFlavor();
+				serverFlavor.setId(flavor[FLAVOR_ID_FIELD]);
+				serverFlavor.setName(flavor[FLAVOR_NAME]);
+				serverFlavor.setRam((int) EntityReader.asLong(flavor[FLAVOR_RAM]));
+				serverFlavor.setDisk((int) EntityReader.asLong(flavor[FLAVOR_DISK]));
+				serverFlavors.put(serverFlavor.getId(), serverFlavor);
+			}
+		};
 	}
 
 }
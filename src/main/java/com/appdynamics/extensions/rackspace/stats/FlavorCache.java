@@ -0,0 +1,189 @@
+/*
+ *   Copyright 2018. AppDynamics LLC and its affiliates.
+ *   All Rights Reserved.
+ *   This is unpublished proprietary source code of AppDynamics LLC and its affiliates.
+ *   The copyright notice above does not evidence any actual or intended publication of such source code.
+ *
+ */
+package com.appdynamics.extensions.rackspace.stats;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.log4j.Logger;
+
+import com.appdynamics.extensions.rackspace.common.SnapshotFile;
+import com.appdynamics.extensions.rackspace.exception.RackspaceMonitorException;
+
+/**
+ * Server flavors of every region as Map<FlavorId, ServerFlavor>, kept across
+ * runs. Flavors almost never change, so they are only fetched again once the
+ * ttl is over, and then with a conditional request that reuses the cached
+ * flavors if the catalog is unchanged.
+ */
+public class FlavorCache {
+
+	private static final Logger LOG = Logger.getLogger("com.singularity.extensions.FlavorCache");
+
+	private final long ttlMillis;
+
+	private final Map<String, CachedFlavors> flavorsByUrl = new ConcurrentHashMap<String, CachedFlavors>();
+
+	public FlavorCache(long ttlMillis) {
+		this.ttlMillis = ttlMillis;
+	}
+
+	/**
+	 * Loads the flavors of a flavor catalog
+	 */
+	public interface FlavorLoader {
+
+		/**
+		 * @param validators
+		 *            of the cached catalog, empty if there is none
+		 * @return the flavors, or null if the catalog is not modified
+		 * @throws RackspaceMonitorException
+		 */
+		Map<String, ServerFlavor> load(Validators validators) throws RackspaceMonitorException;
+	}
+
+	/**
+	 * Loads the flavors of a flavor catalog without blocking
+	 */
+	public interface AsyncFlavorLoader {
+
+		/**
+		 * @param validators
+		 *            of the cached catalog, empty if there is none
+		 * @return completes with the flavors, or null if the catalog is not
+		 *         modified
+		 */
+		CompletableFuture<Map<String, ServerFlavor>> load(Validators validators);
+	}
+
+	/**
+	 * Returns the flavors of the catalog at url, loading them if they are not
+	 * cached or the ttl is over
+	 * 
+	 * @param url
+	 * @param loader
+	 * @return Map<FlavorId, ServerFlavor>
+	 * @throws RackspaceMonitorException
+	 */
+	public Map<String, ServerFlavor> getFlavors(String url, FlavorLoader loader) throws RackspaceMonitorException {
+		CachedFlavors cached = flavorsByUrl.get(url);
+		long now = System.currentTimeMillis();
+		if (cached != null && now < cached.expiresAt) {
+			return cached.flavors;
+		}
+
+		Validators validators = cached != null ? cached.validators : new Validators();
+		return store(url, cached, validators, loader.load(validators), now);
+	}
+
+	/**
+	 * Returns the flavors of the catalog at url like getFlavors, without
+	 * blocking
+	 * 
+	 * @param url
+	 * @param loader
+	 * @return completes with Map<FlavorId, ServerFlavor>
+	 */
+	public CompletableFuture<Map<String, ServerFlavor>> getFlavorsAsync(final String url, AsyncFlavorLoader loader) {
+		final CachedFlavors cached = flavorsByUrl.get(url);
+		final long now = System.currentTimeMillis();
+		if (cached != null && now < cached.expiresAt) {
+			return CompletableFuture.completedFuture(cached.flavors);
+		}
+
+		final Validators validators = cached != null ? cached.validators : new Validators();
+		return loader.load(validators).thenApply(flavors -> store(url, cached, validators, flavors, now));
+	}
+
+	private Map<String, ServerFlavor> store(String url, CachedFlavors cached, Validators validators, Map<String, ServerFlavor> flavors, long now) {
+		if (flavors == null) {
+			if (LOG.isDebugEnabled()) {
+				LOG.debug("Flavors at " + url + " not modified");
+			}
+			flavors = cached != null ? cached.flavors : Collections.<String, ServerFlavor> emptyMap();
+		}
+		flavorsByUrl.put(url, new CachedFlavors(flavors, validators, now + ttlMillis));
+		return flavors;
+	}
+
+	/**
+	 * Writes the flavors of every catalog to the snapshot, with their
+	 * validators and expiry
+	 * 
+	 * @param out
+	 * @throws IOException
+	 */
+	public void writeTo(DataOutput out) throws IOException {
+		Map<String, CachedFlavors> flavorsByUrl = new HashMap<String, CachedFlavors>(this.flavorsByUrl);
+		out.writeInt(flavorsByUrl.size());
+		for (Map.Entry<String, CachedFlavors> cached : flavorsByUrl.entrySet()) {
+			SnapshotFile.writeString(out, cached.getKey());
+			out.writeLong(cached.getValue().expiresAt);
+			cached.getValue().validators.writeTo(out);
+			out.writeInt(cached.getValue().flavors.size());
+			for (ServerFlavor flavor : cached.getValue().flavors.values()) {
+				SnapshotFile.writeString(out, flavor.getId());
+				SnapshotFile.writeString(out, flavor.getName());
+				out.writeInt(flavor.getRam());
+				out.writeInt(flavor.getSwap());
+				out.writeInt(flavor.getVcpus());
+				out.writeInt(flavor.getDisk());
+			}
+		}
+	}
+
+	/**
+	 * Restores the catalogs of a snapshot written by writeTo. They are used
+	 * until they would have expired, and then revalidated.
+	 * 
+	 * @param in
+	 * @throws IOException
+	 */
+	public void restore(DataInput in) throws IOException {
+		int catalogs = in.readInt();
+		for (int i = 0; i < catalogs; i++) {
+			String url = SnapshotFile.readString(in);
+			long expiresAt = in.readLong();
+			Validators validators = Validators.readFrom(in);
+			int count = in.readInt();
+			Map<String, ServerFlavor> flavors = new HashMap<String, ServerFlavor>(count * 2);
+			for (int j = 0; j < count; j++) {
+				ServerFlavor flavor = new ServerFlavor();
+				flavor.setId(SnapshotFile.readString(in));
+				flavor.setName(SnapshotFile.readString(in));
+				flavor.setRam(in.readInt());
+				flavor.setSwap(in.readInt());
+				flavor.setVcpus(in.readInt());
+				flavor.setDisk(in.readInt());
+				flavors.put(flavor.getId(), flavor);
+			}
+			flavorsByUrl.put(url, new CachedFlavors(flavors, validators, Math.min(expiresAt, System.currentTimeMillis() + ttlMillis)));
+		}
+	}
+
+	private static class CachedFlavors {
+
+		private final Map<String, ServerFlavor> flavors;
+
+		private final Validators validators;
+
+		private final long expiresAt;
+
+		public CachedFlavors(Map<String, ServerFlavor> flavors, Validators validators, long expiresAt) {
+			this.flavors = flavors;
+			this.validators = validators;
+			this.expiresAt = expiresAt;
+		}
+	}
+}
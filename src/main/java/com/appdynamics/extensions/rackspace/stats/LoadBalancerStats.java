@@ -7,48 +7,48 @@
  */
 package com.appdynamics.extensions.rackspace.stats;
 
-import java.util.HashMap;
-import java.util.Map;
-
-import com.appdynamics.extensions.http.SimpleHttpClient;
 import com.appdynamics.extensions.rackspace.exception.RackspaceMonitorException;
-import com.fasterxml.jackson.databind.JsonNode;
 
 public class LoadBalancerStats extends Stats {
 
 	public static final String metricPath = "LoadBalancers |%s|%s|";
 
-	private static final String uri = "/loadbalancers";
+	static final String uri = "/loadbalancers";
+
+	private static final String[] METRICS = { "Status", "Node Count" };
+
+	private static final int STATUS_METRIC = 0, NODE_COUNT_METRIC = 1;
+
+	static final int NAME = 0, STATUS = 1, NODE_COUNT = 2, ID = 3;
 
-	public LoadBalancerStats(SimpleHttpClient httpClient) {
-		super(httpClient);
+	// Shared with LoadBalancerTrafficStats: the pages of the listing are
+	// cached by url, and must hold the same fields for either collector
+	static final EntityReader loadBalancerReader = new EntityReader("name", "status", "nodeCount", "id");
+
+	public LoadBalancerStats(StatsContext context) {
+		super(context);
 	}
 
 	/**
 	 * Fetches metrics issuing a Http Request to the LoadBalancer url specific
-	 * to the DataCenter and returns as a Map<Loadbalancer, Map<MetricName,
-	 * MetricValue>>
+	 * to the DataCenter and returns them with a row per loadbalancer
 	 * 
 	 * @throws RackspaceMonitorException
 	 */
 	@Override
-	public Map<String, Map<String, Long>> getMetrics(String authToken, String url) throws RackspaceMonitorException {
-		JsonNode serviceResponse = getServiceResponse(url + uri, authToken);
-		Map<String, Map<String, Long>> loadBalancerStats = getMetricsFromNode(serviceResponse);
+	public MetricTable getMetrics(String authToken, String url) throws RackspaceMonitorException {
+		MetricTable loadBalancerStats = new MetricTable(METRICS);
+		streamPages(url + uri, authToken, "loadBalancers", loadBalancerReader, ID, getMetricsHandler(loadBalancerStats));
 		return loadBalancerStats;
 	}
 
-	private Map<String, Map<String, Long>> getMetricsFromNode(JsonNode serviceResponse) {
-		Map<String, Map<String, Long>> instanceStats = new HashMap<String, Map<String, Long>>();
-		JsonNode loadBalancersNode = serviceResponse.get("loadBalancers");
-
-		for (JsonNode loadBalancer : loadBalancersNode) {
-			Map<String, Long> stats = new HashMap<String, Long>();
-			stats.put("Status", Long.valueOf(Status.valueOf(loadBalancer.path("status").asText()).statusInt));
-			stats.put("Node Count", loadBalancer.path("nodeCount").asLong());
-
-			instanceStats.put(loadBalancer.path("name").asText(), stats);
-		}
-		return instanceStats;
+	private EntityHandler getMetricsHandler(final MetricTable instanceStats) {
+		return new EntityHandler() {
+			public void onEntity(String[] loadBalancer) {
+				int row = instanceStats.addEntity(loadBalancer[NAME]);
+				instanceStats.set(row, STATUS_METRIC, Status.valueOf(loadBalancer[STATUS]).statusInt);
+				instanceStats.set(row, NODE_COUNT_METRIC, EntityReader.asLong(loadBalancer[NODE_COUNT]));
+			}
+		};
 	}
 }
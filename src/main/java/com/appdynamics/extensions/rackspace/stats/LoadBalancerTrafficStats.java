@@ -0,0 +1,137 @@
+/*
+ *   Copyright 2018. AppDynamics LLC and its affiliates.
+ *   All Rights Reserved.
+ *   This is unpublished proprietary source code of AppDynamics LLC and its affiliates.
+ *   The copyright notice above does not evidence any actual or intended publication of such source code.
+ *
+ */
+package com.appdynamics.extensions.rackspace.stats;
+
+import java.util.concurrent.Callable;
+
+import com.appdynamics.extensions.rackspace.exception.RackspaceMonitorException;
+import com.fasterxml.jackson.databind.JsonNode;
+
+/**
+ * Connections, errors and transfer of every load balancer of a region. There
+ * is no account level endpoint with traffic per load balancer, so the stats
+ * and current usage of every load balancer are requested with at most
+ * maxConcurrentRequests load balancers at a time, while the listing is still
+ * being read. Cumulative counters are returned as COUNTER metrics, which the
+ * rate stage turns into their Delta and per Second.
+ */
+public class LoadBalancerTrafficStats extends Stats {
+
+	private static final String statsUri = "/stats";
+
+	private static final String usageUri = "/usage/current";
+
+	private static final String[] METRICS = { "Current Connections", "Max Connections", "Average Connections", "Connect Timeouts",
+			"Connect Errors", "Connect Failures", "Data Timeouts", "Keep Alive Timeouts", "Bytes In", "Bytes Out" };
+
+	private static final MetricType[] TYPES = { MetricType.GAUGE, MetricType.GAUGE, MetricType.GAUGE, MetricType.COUNTER, MetricType.COUNTER,
+			MetricType.COUNTER, MetricType.COUNTER, MetricType.COUNTER, MetricType.COUNTER, MetricType.COUNTER };
+
+	private static final int CURRENT_CONNECTIONS_METRIC = 0, MAX_CONNECTIONS_METRIC = 1, AVERAGE_CONNECTIONS_METRIC = 2,
+			FIRST_COUNTER_METRIC = 3, BYTES_IN_METRIC = 8, BYTES_OUT_METRIC = 9;
+
+	// Counters of the stats, in the order of their metrics from
+	// FIRST_COUNTER_METRIC
+	private static final String[] COUNTER_FIELDS = { "connectTimeOut", "connectError", "connectFailure", "dataTimedOut", "keepAliveTimedOut" };
+
+	private final int maxConcurrentRequests;
+
+	public LoadBalancerTrafficStats(StatsContext context, int maxConcurrentRequests) {
+		super(context);
+		this.maxConcurrentRequests = maxConcurrentRequests;
+	}
+
+	/**
+	 * Fetches the traffic of every active load balancer of the region and
+	 * returns it with a row per load balancer
+	 *
+	 * @throws RackspaceMonitorException
+	 */
+	@Override
+	public MetricTable getMetrics(final String authToken, final String url) throws RackspaceMonitorException {
+		final MetricTable trafficStats = new MetricTable(METRICS, TYPES);
+		final FanOut<Traffic> requests = new FanOut<Traffic>(maxConcurrentRequests, new ResponseHandler<Traffic>() {
+			public void onResponse(Traffic traffic) {
+				addTraffic(trafficStats, traffic);
+			}
+		});
+		try {
+			streamPages(url + LoadBalancerStats.uri, authToken, "loadBalancers", LoadBalancerStats.loadBalancerReader, LoadBalancerStats.ID,
+					new EntityHandler() {
+						public void onEntity(String[] loadBalancer) throws RackspaceMonitorException {
+							if (hasTraffic(loadBalancer[LoadBalancerStats.STATUS]) && loadBalancer[LoadBalancerStats.ID] != null) {
+								requests.submit(getTraffic(url, authToken, loadBalancer[LoadBalancerStats.NAME],
+										loadBalancer[LoadBalancerStats.ID]));
+							}
+						}
+					});
+			requests.finish();
+		} finally {
+			requests.cancel();
+		}
+		return trafficStats;
+	}
+
+	/**
+	 * Load balancers being built or deleted have no stats
+	 */
+	private boolean hasTraffic(String status) {
+		return "ACTIVE".equals(status) || "PENDING_UPDATE".equals(status);
+	}
+
+	private Callable<Traffic> getTraffic(final String url, final String authToken, final String name, final String id) {
+		return new Callable<Traffic>() {
+			public Traffic call() throws Exception {
+				String loadBalancerUrl = url + LoadBalancerStats.uri + "/" + id;
+				JsonNode stats = getServiceResponse(loadBalancerUrl + statsUri, authToken);
+				JsonNode usage = getServiceResponse(loadBalancerUrl + usageUri, authToken);
+				return new Traffic(name, stats, usage);
+			}
+		};
+	}
+
+	private void addTraffic(MetricTable trafficStats, Traffic traffic) {
+		int row = trafficStats.addEntity(traffic.name);
+		trafficStats.set(row, CURRENT_CONNECTIONS_METRIC, traffic.stats.path("currentConn").asLong());
+		trafficStats.set(row, MAX_CONNECTIONS_METRIC, traffic.stats.path("maxConn").asLong());
+		for (int i = 0; i < COUNTER_FIELDS.length; i++) {
+			trafficStats.set(row, FIRST_COUNTER_METRIC + i, traffic.stats.path(COUNTER_FIELDS[i]).asLong());
+		}
+
+		// The transfer of the records of the current usage only grows, until
+		// the oldest record is dropped which counts as a reset
+		JsonNode records = traffic.usage.path("loadBalancerUsageRecords");
+		long bytesIn = 0, bytesOut = 0;
+		for (JsonNode record : records) {
+			bytesIn += record.path("incomingTransfer").asLong() + record.path("incomingTransferSsl").asLong();
+			bytesOut += record.path("outgoingTransfer").asLong() + record.path("outgoingTransferSsl").asLong();
+		}
+		if (records.size() > 0) {
+			JsonNode last = records.get(records.size() - 1);
+			trafficStats.set(row, AVERAGE_CONNECTIONS_METRIC,
+					Math.round(last.path("averageNumConnections").asDouble() + last.path("averageNumConnectionsSsl").asDouble()));
+			trafficStats.set(row, BYTES_IN_METRIC, bytesIn);
+			trafficStats.set(row, BYTES_OUT_METRIC, bytesOut);
+		}
+	}
+
+	private static class Traffic {
+
+		private final String name;
+
+		private final JsonNode stats;
+
+		private final JsonNode usage;
+
+		public Traffic(String name, JsonNode stats, JsonNode usage) {
+			this.name = name;
+			this.stats = stats;
+			this.usage = usage;
+		}
+	}
+}
@@ -0,0 +1,141 @@
+/*
+ *   Copyright 2018. AppDynamics LLC and its affiliates.
+ *   All Rights Reserved.
+ *   This is unpublished proprietary source code of AppDynamics LLC and its affiliates.
+ *   The copyright notice above does not evidence any actual or intended publication of such source code.
+ *
+ */
+package com.appdynamics.extensions.rackspace.stats;
+
+import java.util.Arrays;
+
+/**
+ * Metrics of a collection as a table: one row per entity and one column per
+ * metric of the fixed schema of the collector. Values are kept in a single
+ * long[] row after row, a metric an entity has no value for holds NO_VALUE.
+ * Every metric has a MetricType, GAUGE unless the collector declares
+ * otherwise.
+ */
+public class MetricTable {
+
+	public static final long NO_VALUE = Long.MIN_VALUE;
+
+	private static final int INITIAL_ROWS = 16;
+
+	private final String[] metricNames;
+
+	// null if all metrics are gauges
+	private final MetricType[] metricTypes;
+
+	private String[] entities;
+
+	private long[] values;
+
+	private int rows;
+
+	public MetricTable(String... metricNames) {
+		this(INITIAL_ROWS, metricNames);
+	}
+
+	public MetricTable(int expectedRows, String... metricNames) {
+		this(expectedRows, metricNames, null);
+	}
+
+	public MetricTable(String[] metricNames, MetricType[] metricTypes) {
+		this(INITIAL_ROWS, metricNames, metricTypes);
+	}
+
+	/**
+	 * @param expectedRows
+	 * @param metricNames
+	 * @param metricTypes
+	 *            type of every metric, null if all are gauges
+	 */
+	public MetricTable(int expectedRows, String[] metricNames, MetricType[] metricTypes) {
+		this.metricNames = metricNames;
+		this.metricTypes = metricTypes;
+		this.entities = new String[Math.max(expectedRows, 1)];
+		this.values = new long[entities.length * metricNames.length];
+	}
+
+	/**
+	 * Adds a row for the entity with NO_VALUE for every metric
+	 * 
+	 * @param entityName
+	 * @return index of the row
+	 */
+	public int addEntity(String entityName) {
+		if (rows == entities.length) {
+			String[] grownEntities = new String[rows * 2];
+			long[] grownValues = new long[grownEntities.length * metricNames.length];
+			System.arraycopy(entities, 0, grownEntities, 0, rows);
+			System.arraycopy(values, 0, grownValues, 0, rows * metricNames.length);
+			entities = grownEntities;
+			values = grownValues;
+		}
+		entities[rows] = entityName;
+		int start = rows * metricNames.length;
+		Arrays.fill(values, start, start + metricNames.length, NO_VALUE);
+		return rows++;
+	}
+
+	public void set(int row, int metric, long value) {
+		values[row * metricNames.length + metric] = value;
+	}
+
+	public long get(int row, int metric) {
+		return values[row * metricNames.length + metric];
+	}
+
+	public String getEntity(int row) {
+		return entities[row];
+	}
+
+	public int size() {
+		return rows;
+	}
+
+	public String[] getMetricNames() {
+		return metricNames;
+	}
+
+	/**
+	 * @return types of the metrics, null if all are gauges
+	 */
+	public MetricType[] getMetricTypes() {
+		return metricTypes;
+	}
+
+	public MetricType getMetricType(int metric) {
+		return metricTypes != null ? metricTypes[metric] : MetricType.GAUGE;
+	}
+
+	public int getMetricCount() {
+		return metricNames.length;
+	}
+
+	/**
+	 * Returns true if the other table has the same metrics and holds the same
+	 * entities, in the same order, with the same values
+	 * 
+	 * @param other
+	 * @return
+	 */
+	public boolean hasSameValues(MetricTable other) {
+		if (other == null || other.rows != rows || !Arrays.equals(other.metricNames, metricNames)) {
+			return false;
+		}
+		for (int row = 0; row < rows; row++) {
+			if (entities[row] == null ? other.entities[row] != null : !entities[row].equals(other.entities[row])) {
+				return false;
+			}
+		}
+		int length = rows * metricNames.length;
+		for (int i = 0; i < length; i++) {
+			if (values[i] != other.values[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+}
@@ -0,0 +1,42 @@
+/*
+ *   Copyright 2018. AppDynamics LLC and its affiliates.
+ *   All Rights Reserved.
+ *   This is unpublished proprietary source code of AppDynamics LLC and its affiliates.
+ *   The copyright notice above does not evidence any actual or intended publication of such source code.
+ *
+ */
+package com.appdynamics.extensions.rackspace.stats;
+
+/**
+ * What the values of a metric of a MetricTable mean, which decides how the
+ * rate stage derives metrics from it and how the controller aggregates it
+ */
+public enum MetricType {
+
+	/**
+	 * A value as it is right now, averaged by the controller
+	 */
+	GAUGE,
+
+	/**
+	 * A cumulative count that only grows until it is reset. It is replaced by
+	 * its Delta and per Second metrics.
+	 */
+	COUNTER,
+
+	/**
+	 * A gauge whose changes matter as well, e.g. the bytes of a container. It
+	 * is reported together with its Delta and per Second metrics.
+	 */
+	TOTAL,
+
+	/**
+	 * The change since the previous collection, reported as an observation
+	 */
+	DELTA,
+
+	/**
+	 * A change per second, averaged by the controller
+	 */
+	RATE
+}
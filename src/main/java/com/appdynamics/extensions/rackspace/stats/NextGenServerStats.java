@@ -11,9 +11,10 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 
-import com.appdynamics.extensions.http.SimpleHttpClient;
 import com.appdynamics.extensions.rackspace.exception.RackspaceMonitorException;
+import com.appdynamics.extensions.rackspace.stats.FlavorCache.FlavorLoader;
 import com.fasterxml.jackson.databind.JsonNode;
 
 public class NextGenServerStats extends Stats {
@@ -26,94 +27,211 @@ public class NextGenServerStats extends Stats {
 
 	private static final String limitsUri = "/limits";
 
-	public NextGenServerStats(SimpleHttpClient httpClient) {
-		super(httpClient);
+	// The limits path has no region and entity, the account is the only
+	// entity
+	public static final String limitsEntity = "Limits";
+
+	private static final String[] LIMITS_METRICS = { "Total Cores Used", "Total Floating Ips Used", "Total Instances Used",
+			"Total Private Networks Used", "Total RAM Used(GB)", "Total Security Groups Used", "Max Total Instances", "Max Total RAM Size(MB)" };
+
+	private static final String[] LIMITS_FIELDS = { "totalCoresUsed", "totalFloatingIpsUsed", "totalInstancesUsed", "totalPrivateNetworksUsed",
+			"totalRAMUsed", "totalSecurityGroupsUsed", "maxTotalInstances", "maxImageMeta" };
+
+	private static final String[] METRICS = { "Progress", "Status", "RAM", "Swap", "vCPUs", "Disk Space" };
+
+	private static final int PROGRESS_METRIC = 0, STATUS_METRIC = 1, RAM_METRIC = 2, SWAP_METRIC = 3, VCPUS_METRIC = 4, DISK_SPACE_METRIC = 5;
+
+	private static final int NAME = 0, PROGRESS = 1, STATUS = 2, FLAVOR_ID = 3, ID = 4;
+
+	private static final EntityReader serverReader = new EntityReader("name", "progress", "status", "flavor.id", "id");
+
+	private static final int FLAVOR_ID_FIELD = 0, FLAVOR_NAME = 1, FLAVOR_RAM = 2, FLAVOR_SWAP = 3, FLAVOR_VCPUS = 4, FLAVOR_DISK = 5;
+
+	private static final EntityReader flavorReader = new EntityReader("id", "name", "ram", "swap", "vcpus", "disk");
+
+	private final FlavorCache flavorCache;
+
+	public NextGenServerStats(StatsContext context) {
+		super(context);
+		this.flavorCache = context.getFlavorCache();
 	}
 
 	/**
 	 * Fetches metrics issuing a Http Request to the NextGenServer url specific
-	 * to the DataCenter and returns as a Map<ServerName, Map<MetricName,
-	 * MetricValue>>
+	 * to the DataCenter and returns them with a row per server
 	 * 
 	 * @throws RackspaceMonitorException
 	 */
 	@Override
-	public Map<String, Map<String, Long>> getMetrics(String authToken, String url) throws RackspaceMonitorException {
-
-		JsonNode serviceResponse = getServiceResponse(url + uri, authToken);
-
-		List<ServerFlavor> serverFlavors = populateServerFlavors(url, authToken);
-
-		Map<String, Map<String, Long>> serverStats = new HashMap<String, Map<String, Long>>();
-		JsonNode serversNode = serviceResponse.get("servers");
-		for (JsonNode server : serversNode) {
-			Map<String, Long> stats = new HashMap<String, Long>();
-			stats.put("Progress", server.path("progress").asLong());
-			stats.put("Status", Long.valueOf(Status.valueOf(server.path("status").asText()).statusInt));
-
-			String flavorId = server.path("flavor").path("id").asText();
-			for (ServerFlavor flavor : serverFlavors) {
-				if (flavor.getId().equals(flavorId)) {
-					stats.put("RAM", Long.valueOf(flavor.getRam()));
-					stats.put("Swap", Long.valueOf(flavor.getSwap()));
-					stats.put("vCPUs", Long.valueOf(flavor.getVcpus()));
-					stats.put("Disk Space", Long.valueOf(flavor.getDisk()));
-				}
+	public MetricTable getMetrics(String authToken, String url) throws RackspaceMonitorException {
+
+		// Flavors are needed first to complete the metrics of each server as
+		// it is read
+		final Map<String, ServerFlavor> serverFlavors = populateServerFlavors(url, authToken);
+
+		final MetricTable serverStats = new MetricTable(METRICS);
+		streamPages(url + uri, authToken, "servers", serverReader, ID, new EntityHandler() {
+			public void onEntity(String[] server) {
+				addServer(serverStats, server, serverFlavors);
 			}
-			serverStats.put(server.path("name").asText(), stats);
-		}
+		});
 		return serverStats;
 	}
 
 	/**
-	 * Fetches absolute limits for NextGenServer and returns a Map<MetricName,
-	 * MetricValue>
+	 * Fetches the servers and the flavors of the region together. Every page
+	 * of servers is added as it is parsed; servers read before the flavors
+	 * have arrived get their flavor metrics once they do.
+	 */
+	@Override
+	public CompletableFuture<MetricTable> getMetricsAsync(String authToken, String url) {
+		if (!isAsync()) {
+			return super.getMetricsAsync(authToken, url);
+		}
+
+		final ServerJoin servers = new ServerJoin();
+		CompletableFuture<Void> serverFlavors = populateServerFlavorsAsync(url, authToken).thenAccept(servers::setFlavors);
+		CompletableFuture<Void> serverPages = streamPagesAsync(url + uri, authToken, "servers", serverReader, ID, servers);
+
+		return serverPages.thenCombine(serverFlavors, (pages, flavors) -> servers.serverStats);
+	}
+
+	private void addServer(MetricTable serverStats, String[] server, Map<String, ServerFlavor> serverFlavors) {
+		setFlavor(serverStats, addServer(serverStats, server), server[FLAVOR_ID], serverFlavors);
+	}
+
+	private int addServer(MetricTable serverStats, String[] server) {
+		int row = serverStats.addEntity(server[NAME]);
+		serverStats.set(row, PROGRESS_METRIC, EntityReader.asLong(server[PROGRESS]));
+		serverStats.set(row, STATUS_METRIC, Status.valueOf(server[STATUS]).statusInt);
+		return row;
+	}
+
+	private static void setFlavor(MetricTable serverStats, int row, String flavorId, Map<String, ServerFlavor> serverFlavors) {
+		ServerFlavor flavor = flavorId != null ? serverFlavors.get(flavorId) : null;
+		if (flavor != null) {
+			serverStats.set(row, RAM_METRIC, flavor.getRam());
+			serverStats.set(row, SWAP_METRIC, flavor.getSwap());
+			serverStats.set(row, VCPUS_METRIC, flavor.getVcpus());
+			serverStats.set(row, DISK_SPACE_METRIC, flavor.getDisk());
+		}
+	}
+
+	/**
+	 * Joins the servers of the pages with the flavors of the region, on
+	 * whichever thread delivers them. Only the flavor ids of the servers
+	 * added before the flavors arrived are kept, those are the first rows.
+	 */
+	private class ServerJoin implements EntityHandler {
+
+		private final MetricTable serverStats = new MetricTable(METRICS);
+
+		private Map<String, ServerFlavor> flavors;
+
+		private List<String> pendingFlavorIds = new ArrayList<String>();
+
+		public synchronized void onEntity(String[] server) {
+			int row = addServer(serverStats, server);
+			if (flavors != null) {
+				setFlavor(serverStats, row, server[FLAVOR_ID], flavors);
+			} else {
+				pendingFlavorIds.add(server[FLAVOR_ID]);
+			}
+		}
+
+		public synchronized void setFlavors(Map<String, ServerFlavor> flavors) {
+			this.flavors = flavors;
+			for (int row = 0; row < pendingFlavorIds.size(); row++) {
+				setFlavor(serverStats, row, pendingFlavorIds.get(row), flavors);
+			}
+			pendingFlavorIds = null;
+		}
+	}
+
+	/**
+	 * Fetches absolute limits for NextGenServer and returns them as a single
+	 * row for the account
 	 * 
 	 * @param url
 	 * @param authToken
 	 * @return
 	 * @throws RackspaceMonitorException
 	 */
-	public Map<String, Long> getLimits(String url, String authToken) throws RackspaceMonitorException {
-		JsonNode serviceResponse = getServiceResponse(url + limitsUri, authToken);
-		Map<String, Long> limits = new HashMap<String, Long>();
-		JsonNode limitsNode = serviceResponse.get("limits").path("absolute");
-		limits.put("Total Cores Used", limitsNode.path("totalCoresUsed").asLong());
-		limits.put("Total Floating Ips Used", limitsNode.path("totalFloatingIpsUsed").asLong());
-		limits.put("Total Instances Used", limitsNode.path("totalInstancesUsed").asLong());
-		limits.put("Total Private Networks Used", limitsNode.path("totalPrivateNetworksUsed").asLong());
-		limits.put("Total RAM Used(GB)", limitsNode.path("totalRAMUsed").asLong());
-		limits.put("Total Security Groups Used", limitsNode.path("totalSecurityGroupsUsed").asLong());
-		limits.put("Max Total Instances", limitsNode.path("maxTotalInstances").asLong());
-		limits.put("Max Total RAM Size(MB)", limitsNode.path("maxImageMeta").asLong());
+	public MetricTable getLimits(String url, String authToken) throws RackspaceMonitorException {
+		return toLimits(getServiceResponse(url + limitsUri, authToken));
+	}
 
+	/**
+	 * Fetches the limits like getLimits, without blocking
+	 * 
+	 * @param url
+	 * @param authToken
+	 * @return
+	 */
+	public CompletableFuture<MetricTable> getLimitsAsync(String url, String authToken) {
+		if (!isAsync()) {
+			try {
+				return CompletableFuture.completedFuture(getLimits(url, authToken));
+			} catch (RackspaceMonitorException e) {
+				return CompletableFuture.failedFuture(e);
+			}
+		}
+		return getServiceResponseAsync(url + limitsUri, authToken).thenApply(this::toLimits);
+	}
+
+	private MetricTable toLimits(JsonNode serviceResponse) {
+		MetricTable limits = new MetricTable(1, LIMITS_METRICS);
+		JsonNode limitsNode = serviceResponse.get("limits").path("absolute");
+		int row = limits.addEntity(limitsEntity);
+		for (int i = 0; i < LIMITS_FIELDS.length; i++) {
+			limits.set(row, i, limitsNode.path(LIMITS_FIELDS[i]).asLong());
+		}
 		return limits;
 	}
 
 	/**
-	 * Fetches ServerFlavours by issuing a Http Request to determine the
-	 * params(RAM, Disk, etc) based on ID
+	 * Returns ServerFlavours of the region as Map<FlavorId, ServerFlavor> to
+	 * determine the params(RAM, Disk, etc) based on ID. The flavors are taken
+	 * from the FlavorCache and only fetched by issuing a Http Request once its
+	 * ttl is over.
 	 * 
 	 * @param url
 	 * @param authToken
 	 * @return
 	 * @throws RackspaceMonitorException
 	 */
-	private List<ServerFlavor> populateServerFlavors(String url, String authToken) throws RackspaceMonitorException {
-		JsonNode serviceResponse = getServiceResponse(url + "/flavors/detail", authToken);
-		JsonNode flavors = serviceResponse.get("flavors");
-		List<ServerFlavor> serverFlavors = new ArrayList<ServerFlavor>();
-		for (JsonNode flavor : flavors) {
-			ServerFlavor serverFlavor = new ServerFlavor();
-			serverFlavor.setId(flavor.path("id").asText());
-			serverFlavor.setName(flavor.path("name").asText());
-			serverFlavor.setRam(flavor.path("ram").asInt());
-			serverFlavor.setSwap(flavor.path("swap").asInt());
-			serverFlavor.setVcpus(flavor.path("vcpus").asInt());
-			serverFlavor.setDisk(flavor.path("disk").asInt());
-			serverFlavors.add(serverFlavor);
-		}
-		return serverFlavors;
+	private Map<String, ServerFlavor> populateServerFlavors(final String url, final String authToken) throws RackspaceMonitorException {
+		return flavorCache.getFlavors(url, new FlavorLoader() {
+			public Map<String, ServerFlavor> load(Validators validators) throws RackspaceMonitorException {
+				Map<String, ServerFlavor> serverFlavors = new HashMap<String, ServerFlavor>();
+				boolean modified = streamServiceResponseIfModified(url + "/flavors/detail", authToken, "flavors", flavorReader,
+						getFlavorHandler(serverFlavors), validators);
+				return modified ? serverFlavors : null;
+			}
+		});
+	}
+
+	private CompletableFuture<Map<String, ServerFlavor>> populateServerFlavorsAsync(final String url, final String authToken) {
+		return flavorCache.getFlavorsAsync(url, validators -> {
+			final Map<String, ServerFlavor> serverFlavors = new HashMap<String, ServerFlavor>();
+			return streamServiceResponseIfModifiedAsync(url + "/flavors/detail", authToken, "flavors", flavorReader,
+					getFlavorHandler(serverFlavors), validators).thenApply(modified -> modified ? serverFlavors : null);
+		});
+	}
+
+	private EntityHandler getFlavorHandler(final Map<String, ServerFlavor> serverFlavors) {
+		return new EntityHandler() {
+			public void onEntity(String[] flavor) {
+				ServerFlavor serverFlavor = new ServerFlavor();
+				serverFlavor.setId(flavor[FLAVOR_ID_FIELD]);
+				serverFlavor.setName(flavor[FLAVOR_NAME]);
+				serverFlavor.setRam((int) EntityReader.asLong(flavor[FLAVOR_RAM]));
+				serverFlavor.setSwap((int) EntityReader.asLong(flavor[FLAVOR_SWAP]));
+				serverFlavor.setVcpus((int) EntityReader.asLong(flavor[FLAVOR_VCPUS]));
+				serverFlavor.setDisk((int) EntityReader.asLong(flavor[FLAVOR_DISK]));
+				serverFlavors.put(serverFlavor.getId(), serverFlavor);
+			}
+		};
 	}
 
 }
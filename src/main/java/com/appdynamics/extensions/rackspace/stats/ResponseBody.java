@@ -0,0 +1,171 @@
+/*
+ *   Copyright 2018. AppDynamics LLC and its affiliates.
+ *   All Rights Reserved.
+ *   This is unpublished proprietary source code of AppDynamics LLC and its affiliates.
+ *   The copyright notice above does not evidence any actual or intended publication of such source code.
+ *
+ */
+package com.appdynamics.extensions.rackspace.stats;
+
+import java.io.ByteArrayInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PushbackInputStream;
+import java.net.http.HttpResponse;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+import org.apache.commons.httpclient.Header;
+import org.apache.commons.httpclient.HttpMethodBase;
+
+/**
+ * The body of a response, decompressed while it is read if the server sent it
+ * gzip or deflate encoded. Counts the bytes received and the bytes after
+ * decompression.
+ */
+class ResponseBody {
+
+	static final String ACCEPT_ENCODING = "gzip, deflate";
+
+	private static final int BUFFER_SIZE = 8192;
+
+	private final CountingInputStream received;
+
+	private final CountingInputStream decoded;
+
+	ResponseBody(InputStream body, String contentEncoding) throws IOException {
+		received = new CountingInputStream(body);
+		decoded = new CountingInputStream(decode(received, contentEncoding));
+	}
+
+	static ResponseBody open(HttpMethodBase response) throws IOException {
+		InputStream body = response.getResponseBodyAsStream();
+		Header contentEncoding = response.getResponseHeader("Content-Encoding");
+		return new ResponseBody(body != null ? body : new ByteArrayInputStream(new byte[0]), contentEncoding != null ? contentEncoding
+				.getValue() : null);
+	}
+
+	static ResponseBody open(HttpResponse<InputStream> response) throws IOException {
+		InputStream body = response.body();
+		return new ResponseBody(body != null ? body : new ByteArrayInputStream(new byte[0]), response.headers().firstValue("Content-Encoding")
+				.orElse(null));
+	}
+
+	/**
+	 * The decompressed body
+	 */
+	InputStream getStream() {
+		return decoded;
+	}
+
+	long getReceivedBytes() {
+		return received.count;
+	}
+
+	long getDecodedBytes() {
+		return decoded.count;
+	}
+
+	private static InputStream decode(InputStream body, String contentEncoding) throws IOException {
+		if (contentEncoding == null) {
+			return body;
+		}
+		String encoding = contentEncoding.trim().toLowerCase();
+		boolean gzip = "gzip".equals(encoding) || "x-gzip".equals(encoding);
+		if (!gzip && !"deflate".equals(encoding)) {
+			return body;
+		}
+		PushbackInputStream pushback = new PushbackInputStream(body, 2);
+		int first = pushback.read();
+		int second = first >= 0 ? pushback.read() : -1;
+		if (second >= 0) {
+			pushback.unread(second);
+		}
+		if (first < 0) {
+			// Some endpoints send an empty body with the encoding header,
+			// there is nothing to decompress
+			return pushback;
+		}
+		pushback.unread(first);
+		if (gzip) {
+			return new GZIPInputStream(pushback, BUFFER_SIZE);
+		}
+		// Deflate is meant to be zlib wrapped, some servers send raw deflate
+		// data instead
+		boolean zlib = second >= 0 && (first & 0x0F) == 8 && ((first << 8) | second) % 31 == 0;
+		return new EndingInflaterInputStream(pushback, new Inflater(!zlib));
+	}
+
+	/**
+	 * Closes the body, releasing the native memory of its inflater if it was
+	 * compressed
+	 */
+	void close() {
+		try {
+			decoded.close();
+		} catch (IOException e) {
+			// Ignore
+		}
+	}
+
+	/**
+	 * Ends its inflater on close, which InflaterInputStream leaves to the
+	 * garbage collector for an inflater it has been given
+	 */
+	private static class EndingInflaterInputStream extends InflaterInputStream {
+
+		private boolean ended;
+
+		public EndingInflaterInputStream(InputStream in, Inflater inflater) {
+			super(in, inflater, BUFFER_SIZE);
+		}
+
+		@Override
+		public void close() throws IOException {
+			try {
+				super.close();
+			} finally {
+				if (!ended) {
+					ended = true;
+					inf.end();
+				}
+			}
+		}
+	}
+
+	private static class CountingInputStream extends FilterInputStream {
+
+		private long count;
+
+		public CountingInputStream(InputStream in) {
+			super(in);
+		}
+
+		@Override
+		public int read() throws IOException {
+			int read = super.read();
+			if (read >= 0) {
+				count++;
+			}
+			return read;
+		}
+
+		@Override
+		public int read(byte[] buffer, int offset, int length) throws IOException {
+			int read = super.read(buffer, offset, length);
+			if (read > 0) {
+				count += read;
+			}
+			return read;
+		}
+
+		@Override
+		public long skip(long n) throws IOException {
+			long skipped = super.skip(n);
+			count += skipped;
+			return skipped;
+		}
+	}
+}
@@ -0,0 +1,203 @@
+/*
+ *   Copyright 2018. AppDynamics LLC and its affiliates.
+ *   All Rights Reserved.
+ *   This is unpublished proprietary source code of AppDynamics LLC and its affiliates.
+ *   The copyright notice above does not evidence any actual or intended publication of such source code.
+ *
+ */
+package com.appdynamics.extensions.rackspace.stats;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.net.http.HttpResponse;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.commons.httpclient.HttpMethodBase;
+import org.apache.log4j.Logger;
+
+import com.appdynamics.extensions.rackspace.common.Json;
+import com.appdynamics.extensions.rackspace.common.SnapshotFile;
+import com.fasterxml.jackson.databind.JsonNode;
+
+/**
+ * The last parsed response of every url that came with an ETag or
+ * Last-Modified validator, kept across runs. The next request to the url is
+ * made conditional, and the parsed response reused if the server answers
+ * 304 Not Modified. Responses of urls not requested for maxIdleMillis are
+ * dropped by evictIdle.
+ */
+public class ResponseCache {
+
+	private static final Logger LOG = Logger.getLogger("com.singularity.extensions.ResponseCache");
+
+	// Kinds of cached bodies in a snapshot
+	private static final byte JSON_BODY = 1, PAGE_BODY = 2;
+
+	private final long maxIdleMillis;
+
+	private final Map<String, CachedResponse> responses = new ConcurrentHashMap<String, CachedResponse>();
+
+	public ResponseCache(long maxIdleMillis) {
+		this.maxIdleMillis = maxIdleMillis;
+	}
+
+	/**
+	 * Returns the cached response of the url, or null if there is none
+	 */
+	CachedResponse get(String url) {
+		CachedResponse cached = responses.get(url);
+		if (cached != null) {
+			cached.lastUsed = System.currentTimeMillis();
+		}
+		return cached;
+	}
+
+	/**
+	 * Caches the parsed body of the response if the response has validators,
+	 * and drops the cached response of the url otherwise
+	 */
+	void put(String url, HttpMethodBase response, Object body) {
+		Validators validators = new Validators();
+		validators.update(response);
+		put(url, validators, body);
+	}
+
+	void put(String url, HttpResponse<?> response, Object body) {
+		Validators validators = new Validators();
+		validators.update(response);
+		put(url, validators, body);
+	}
+
+	private void put(String url, Validators validators, Object body) {
+		if (validators.isEmpty()) {
+			responses.remove(url);
+		} else {
+			responses.put(url, new CachedResponse(validators, body));
+		}
+	}
+
+	void notModified(String url) {
+		if (LOG.isDebugEnabled()) {
+			LOG.debug("Response of " + url + " not modified, reusing the cached response");
+		}
+	}
+
+	/**
+	 * Drops the responses of urls not requested for maxIdleMillis, such as
+	 * pages past the end of a collection that shrank
+	 */
+	public void evictIdle() {
+		long idleSince = System.currentTimeMillis() - maxIdleMillis;
+		Iterator<CachedResponse> cached = responses.values().iterator();
+		while (cached.hasNext()) {
+			if (cached.next().lastUsed < idleSince) {
+				cached.remove();
+			}
+		}
+	}
+
+	public int size() {
+		return responses.size();
+	}
+
+	/**
+	 * Writes the cached responses to the snapshot, with their validators and
+	 * when they were last used
+	 * 
+	 * @param out
+	 * @throws IOException
+	 */
+	public void writeTo(DataOutput out) throws IOException {
+		Map<String, CachedResponse> responses = new HashMap<String, CachedResponse>(this.responses);
+		out.writeInt(responses.size());
+		for (Map.Entry<String, CachedResponse> cached : responses.entrySet()) {
+			SnapshotFile.writeString(out, cached.getKey());
+			out.writeLong(cached.getValue().lastUsed);
+			cached.getValue().validators.writeTo(out);
+			Object body = cached.getValue().body;
+			if (body instanceof JsonNode) {
+				out.writeByte(JSON_BODY);
+				byte[] json = Json.toBytes((JsonNode) body);
+				out.writeInt(json.length);
+				out.write(json);
+			} else {
+				EntityPage page = (EntityPage) body;
+				out.writeByte(PAGE_BODY);
+				out.writeBoolean(page.hasNextLink());
+				out.writeInt(page.size());
+				for (String[] entity : page.getEntities()) {
+					out.writeInt(entity.length);
+					for (String value : entity) {
+						SnapshotFile.writeString(out, value);
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Restores the responses of a snapshot written by writeTo, except those
+	 * that would have been dropped by now
+	 * 
+	 * @param in
+	 * @throws IOException
+	 */
+	public void restore(DataInput in) throws IOException {
+		long idleSince = System.currentTimeMillis() - maxIdleMillis;
+		int count = in.readInt();
+		for (int i = 0; i < count; i++) {
+			String url = SnapshotFile.readString(in);
+			long lastUsed = in.readLong();
+			Validators validators = Validators.readFrom(in);
+			Object body;
+			if (in.readByte() == JSON_BODY) {
+				byte[] json = new byte[in.readInt()];
+				in.readFully(json);
+				body = Json.readTree(json);
+			} else {
+				EntityPage page = new EntityPage();
+				page.setNextLink(in.readBoolean());
+				int entities = in.readInt();
+				for (int j = 0; j < entities; j++) {
+					String[] entity = new String[in.readInt()];
+					for (int k = 0; k < entity.length; k++) {
+						entity[k] = SnapshotFile.readString(in);
+					}
+					page.onEntity(entity);
+				}
+				body = page;
+			}
+			if (lastUsed >= idleSince) {
+				CachedResponse cached = new CachedResponse(validators, body);
+				cached.lastUsed = lastUsed;
+				responses.put(url, cached);
+			}
+		}
+	}
+
+	static class CachedResponse {
+
+		private final Validators validators;
+
+		private final Object body;
+
+		private volatile long lastUsed = System.currentTimeMillis();
+
+		public CachedResponse(Validators validators, Object body) {
+			this.validators = validators;
+			this.body = body;
+		}
+
+		public Validators getValidators() {
+			return validators;
+		}
+
+		public Object getBody() {
+			return body;
+		}
+	}
+}
@@ -7,31 +7,79 @@
  */
 package com.appdynamics.extensions.rackspace.stats;
 
-import java.util.Map;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
 
+import org.apache.commons.httpclient.HttpMethodBase;
+import org.apache.commons.httpclient.Header;
+import org.apache.commons.httpclient.methods.GetMethod;
+import org.apache.commons.httpclient.methods.HeadMethod;
+import org.apache.commons.httpclient.methods.PostMethod;
+import org.apache.commons.httpclient.methods.StringRequestEntity;
 import org.apache.log4j.Logger;
 
-import com.appdynamics.extensions.http.Response;
 import com.appdynamics.extensions.http.SimpleHttpClient;
-import com.appdynamics.extensions.http.WebTarget;
+import com.appdynamics.extensions.rackspace.common.AsyncHttpClient;
+import com.appdynamics.extensions.rackspace.common.Authenticator;
+import com.appdynamics.extensions.rackspace.common.Json;
+import com.appdynamics.extensions.rackspace.common.ServiceInstruments;
 import com.appdynamics.extensions.rackspace.exception.RackspaceMonitorException;
+import com.appdynamics.extensions.rackspace.stats.ResponseCache.CachedResponse;
+import com.fasterxml.jackson.core.JsonParser;
 import com.fasterxml.jackson.databind.JsonNode;
-import com.fasterxml.jackson.databind.ObjectMapper;
 
 public abstract class Stats {
 
 	private static final Logger LOG = Logger.getLogger("com.singularity.extensions.Stats");
 
+	private static final int NOT_MODIFIED = 304;
+
+	private static final int UNAUTHORIZED = 401;
+
+	private static final int NOT_FOUND = 404;
+
 	private final SimpleHttpClient httpClient;
 
-	public Stats(SimpleHttpClient httpClient) {
-		this.httpClient = httpClient;
+	private final AsyncHttpClient asyncHttpClient;
+
+	private final Authenticator authenticator;
+
+	private final int pageSize;
+
+	private final Executor prefetchExecutor;
+
+	private final ResponseCache responseCache;
+
+	private final ServiceInstruments instruments;
+
+	public Stats(StatsContext context) {
+		this.httpClient = context.getHttpClient();
+		this.asyncHttpClient = context.getAsyncHttpClient();
+		this.authenticator = context.getAuthenticator();
+		this.pageSize = context.getPageSize();
+		this.prefetchExecutor = context.getPrefetchExecutor();
+		this.responseCache = context.getResponseCache();
+		this.instruments = context.getInstruments();
 	}
 
 	/**
 	 * Processes the Get HttpRequest to the resource given the Authentication
 	 * Token. The response is a JsonNode used further to retrieve metrics using
-	 * XPath.
+	 * XPath. If the token is rejected the request is retried once with a new
+	 * token from the Authenticator. The request is conditional if the previous
+	 * response had validators, and that response is reused if unchanged.
 	 * 
 	 * @param resource
 	 * @param authToken
@@ -39,46 +87,772 @@ public abstract class Stats {
 	 * @throws RackspaceMonitorException
 	 */
 	public JsonNode getServiceResponse(String resource, String authToken) throws RackspaceMonitorException {
-		Response response = null;
+		CachedResponse cached = getCached(resource, JsonNode.class);
+		GetMethod response = getResponse(resource, authToken, cached != null ? cached.getValidators() : null);
 		try {
-			WebTarget target = httpClient.target(resource);
-			target.header("Content-Type", "application/json");
-			target.header("Accept", "application/json");
-			target.header("X-Auth-Token", authToken);
-
-			response = target.get();
+			if (cached != null && response.getStatusCode() == NOT_MODIFIED) {
+				responseCache.notModified(resource);
+				return (JsonNode) cached.getBody();
+			}
+			checkStatus(response);
+			JsonNode node = getAuthenticationResponeNode(response);
+			responseCache.put(resource, response, node);
+			return node;
+		} finally {
+			response.releaseConnection();
+		}
+	}
 
-			JsonNode jsonNode = getAuthenticationResponeNode(response);
+	/**
+	 * Processes the Get HttpRequest to the resource like getServiceResponse,
+	 * but streams the entities of the array held by arrayField (or of the top
+	 * level array if arrayField is null) to the handler while the response is
+	 * read, extracting only the fields known to the reader. Returns true if the
+	 * response linked to a next page.
+	 * 
+	 * @param resource
+	 * @param authToken
+	 * @param arrayField
+	 * @param reader
+	 * @param handler
+	 * @return
+	 * @throws RackspaceMonitorException
+	 */
+	public boolean streamServiceResponse(String resource, String authToken, String arrayField, EntityReader reader, EntityHandler handler)
+			throws RackspaceMonitorException {
+		GetMethod response = getResponse(resource, authToken, null);
+		try {
+			checkStatus(response);
+			return readEntities(response, resource, arrayField, reader, handler);
+		} finally {
+			response.releaseConnection();
+		}
+	}
 
-			int statusCode = response.getStatus();
-			if (!(statusCode == 200 || statusCode == 203 || statusCode == 300)) {
-				String message = response.getStatusLine() + " " + jsonNode.findValue("message").toString();
-				LOG.error("Error in response " + message);
-				throw new RackspaceMonitorException("Error in response " + message);
+	/**
+	 * Streams the response like streamServiceResponse, unless the resource is
+	 * unchanged since the validators were taken. Returns false, without
+	 * calling the handler, if the server answered 304 Not Modified; otherwise
+	 * the validators are updated from the response.
+	 * 
+	 * @param resource
+	 * @param authToken
+	 * @param arrayField
+	 * @param reader
+	 * @param handler
+	 * @param validators
+	 * @return
+	 * @throws RackspaceMonitorException
+	 */
+	public boolean streamServiceResponseIfModified(String resource, String authToken, String arrayField, EntityReader reader,
+			EntityHandler handler, Validators validators) throws RackspaceMonitorException {
+		GetMethod response = getResponse(resource, authToken, validators);
+		try {
+			if (response.getStatusCode() == NOT_MODIFIED) {
+				return false;
 			}
-			return jsonNode;
+			checkStatus(response);
+			readEntities(response, resource, arrayField, reader, handler);
+			validators.update(response);
+			return true;
+		} finally {
+			response.releaseConnection();
+		}
+	}
+
+	private boolean readEntities(GetMethod response, String resource, String arrayField, EntityReader reader, EntityHandler handler)
+			throws RackspaceMonitorException {
+		long start = System.nanoTime();
+		try {
+			return readEntities(ResponseBody.open(response), resource, arrayField, reader, handler, start);
+		} catch (IOException e) {
+			LOG.error("Exception while streaming json content of " + resource, e);
+			throw new RackspaceMonitorException(e);
+		}
+	}
+
+	private boolean readEntities(HttpResponse<InputStream> response, String resource, String arrayField, EntityReader reader, EntityHandler handler)
+			throws RackspaceMonitorException {
+		long start = System.nanoTime();
+		try {
+			return readEntities(ResponseBody.open(response), resource, arrayField, reader, handler, start);
+		} catch (IOException e) {
+			LOG.error("Exception while streaming json content of " + resource, e);
+			throw new RackspaceMonitorException(e);
+		}
+	}
+
+	private boolean readEntities(ResponseBody body, String resource, String arrayField, EntityReader reader, EntityHandler handler, long start)
+			throws RackspaceMonitorException {
+		JsonParser parser = null;
+		try {
+			parser = Json.createParser(body.getStream());
+			return reader.read(parser, arrayField, handler);
+		} catch (IOException e) {
+			LOG.error("Exception while streaming json content of " + resource, e);
+			throw new RackspaceMonitorException(e);
 		} finally {
+			if (parser != null) {
+				try {
+					parser.close();
+				} catch (IOException e) {
+					// Ignore
+				}
+			}
+			body.close();
+			recordBody(body, start);
+		}
+	}
+
+	private void checkStatus(HttpMethodBase response) throws RackspaceMonitorException {
+		int statusCode = response.getStatusCode();
+		if (!isSuccess(statusCode)) {
+			JsonNode messageNode = getAuthenticationResponeNode(response).findValue("message");
+			String message = response.getStatusLine() + " " + (messageNode != null ? messageNode.toString() : "");
+			LOG.error("Error in response " + message);
+			throw new RackspaceMonitorException("Error in response " + message);
+		}
+	}
+
+	private void checkStatus(HttpResponse<InputStream> response) throws RackspaceMonitorException {
+		int statusCode = response.statusCode();
+		if (!isSuccess(statusCode)) {
+			JsonNode messageNode = getAuthenticationResponeNode(response).findValue("message");
+			String message = response.version() + " " + statusCode + " " + (messageNode != null ? messageNode.toString() : "");
+			LOG.error("Error in response " + message);
+			throw new RackspaceMonitorException("Error in response " + message);
+		}
+	}
+
+	private static boolean isSuccess(int statusCode) {
+		return statusCode == 200 || statusCode == 203 || statusCode == 300;
+	}
+
+	/**
+	 * Streams all pages of a paginated collection to the handler, page by
+	 * page. Pages are requested with limit and marker, the marker being the
+	 * markerField of the last entity of the previous page; collections that
+	 * page by offset instead pass a markerField of -1. While the entities of a
+	 * page are handled the next page is already being fetched. Pages that came
+	 * with validators are requested conditionally and reused if unchanged.
+	 * 
+	 * @param resource
+	 * @param authToken
+	 * @param arrayField
+	 * @param reader
+	 * @param markerField
+	 * @param handler
+	 * @throws RackspaceMonitorException
+	 */
+	public void streamPages(String resource, String authToken, String arrayField, EntityReader reader, int markerField, EntityHandler handler)
+			throws RackspaceMonitorException {
+		int offset = 0;
+		EntityPage page = fetchPage(pageUrl(resource, null, 0), authToken, arrayField, reader);
+		while (true) {
+			List<String[]> entities = page.getEntities();
+			offset += entities.size();
+			instruments.recordEntities(entities.size());
+
+			FutureTask<EntityPage> nextPage = null;
+			if (hasNextPage(page)) {
+				String marker = markerField < 0 ? null : entities.get(entities.size() - 1)[markerField];
+				if (markerField < 0 || marker != null) {
+					nextPage = prefetchPage(pageUrl(resource, marker, offset), authToken, arrayField, reader);
+				}
+			}
+
 			try {
-				if (response != null) {
-					response.close();
+				for (String[] entity : entities) {
+					handler.onEntity(entity);
+				}
+			} catch (RackspaceMonitorException e) {
+				if (nextPage != null) {
+					nextPage.cancel(true);
 				}
-			} catch (Exception e1) {
-				// Ignore
+				throw e;
 			}
+
+			if (nextPage == null) {
+				return;
+			}
+			page = awaitPrefetched(nextPage);
 		}
 	}
 
-	private JsonNode getAuthenticationResponeNode(Response response) throws RackspaceMonitorException {
-		ObjectMapper mapper = new ObjectMapper();
+	private boolean hasNextPage(EntityPage page) {
+		// The API may cap the page below the requested limit, in which case
+		// it links to the next page
+		return page.size() > 0 && (page.size() >= pageSize || page.hasNextLink());
+	}
+
+	private String pageUrl(String resource, String marker, int offset) throws RackspaceMonitorException {
+		StringBuilder url = new StringBuilder(resource).append(resource.indexOf('?') < 0 ? '?' : '&').append("limit=").append(pageSize);
 		try {
-			JsonNode node = mapper.readValue(response.inputStream(), JsonNode.class);
+			if (marker != null) {
+				url.append("&marker=").append(URLEncoder.encode(marker, "UTF-8"));
+			} else if (offset > 0) {
+				url.append("&offset=").append(offset);
+			}
+		} catch (UnsupportedEncodingException e) {
+			throw new RackspaceMonitorException(e);
+		}
+		return url.toString();
+	}
+
+	/**
+	 * Fetches a page, conditionally if the page was cached with validators
+	 */
+	private EntityPage fetchPage(String url, String authToken, String arrayField, EntityReader reader) throws RackspaceMonitorException {
+		CachedResponse cached = getCached(url, EntityPage.class);
+		GetMethod response = getResponse(url, authToken, cached != null ? cached.getValidators() : null);
+		try {
+			if (cached != null && response.getStatusCode() == NOT_MODIFIED) {
+				responseCache.notModified(url);
+				return (EntityPage) cached.getBody();
+			}
+			checkStatus(response);
+			EntityPage page = new EntityPage();
+			page.setNextLink(readEntities(response, url, arrayField, reader, page));
+			responseCache.put(url, response, page);
+			return page;
+		} finally {
+			response.releaseConnection();
+		}
+	}
+
+	private CachedResponse getCached(String url, Class<?> bodyType) {
+		CachedResponse cached = responseCache.get(url);
+		return cached != null && bodyType.isInstance(cached.getBody()) ? cached : null;
+	}
+
+	private FutureTask<EntityPage> prefetchPage(final String url, final String authToken, final String arrayField, final EntityReader reader) {
+		return prefetch(new Callable<EntityPage>() {
+			public EntityPage call() throws Exception {
+				return fetchPage(url, authToken, arrayField, reader);
+			}
+		});
+	}
+
+	/**
+	 * Runs the request on the prefetch executor, for the collector thread to
+	 * pick up its response later with awaitPrefetched
+	 * 
+	 * @param request
+	 * @return
+	 */
+	protected <T> FutureTask<T> prefetch(Callable<T> request) {
+		FutureTask<T> response = new FutureTask<T>(request);
+		prefetchExecutor.execute(response);
+		return response;
+	}
+
+	/**
+	 * Waits for a prefetched response. The request is sent on this thread if
+	 * no prefetch thread has picked it up yet.
+	 * 
+	 * @param response
+	 * @return
+	 * @throws RackspaceMonitorException
+	 */
+	protected <T> T awaitPrefetched(FutureTask<T> response) throws RackspaceMonitorException {
+		// run() does nothing if the request is already running or done
+		response.run();
+		try {
+			return response.get();
+		} catch (InterruptedException e) {
+			response.cancel(true);
+			Thread.currentThread().interrupt();
+			throw new RackspaceMonitorException(e);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof RackspaceMonitorException) {
+				throw (RackspaceMonitorException) e.getCause();
+			}
+			throw new RackspaceMonitorException(e.getCause());
+		}
+	}
+
+	/**
+	 * Receives the responses of a FanOut
+	 */
+	protected interface ResponseHandler<T> {
+
+		/**
+		 * Called on the collector thread, once per request in the order the
+		 * requests were submitted
+		 * 
+		 * @param response
+		 * @throws RackspaceMonitorException
+		 */
+		void onResponse(T response) throws RackspaceMonitorException;
+	}
+
+	/**
+	 * Runs requests on the prefetch executor with at most maxInFlight of them
+	 * running or queued at a time. Submitting a request beyond that first
+	 * waits for the oldest one and passes its response to the handler, so
+	 * responses are handled while further requests are still being
+	 * submitted. Requests left in flight are cancelled by cancel, call it in a
+	 * finally block.
+	 */
+	protected class FanOut<T> {
+
+		private final int maxInFlight;
+
+		private final ResponseHandler<T> handler;
+
+		private final ArrayDeque<FutureTask<T>> inFlight = new ArrayDeque<FutureTask<T>>();
+
+		public FanOut(int maxInFlight, ResponseHandler<T> handler) {
+			this.maxInFlight = Math.max(maxInFlight, 1);
+			this.handler = handler;
+		}
+
+		public void submit(Callable<T> request) throws RackspaceMonitorException {
+			if (inFlight.size() >= maxInFlight) {
+				handleOldest();
+			}
+			inFlight.add(prefetch(request));
+		}
+
+		/**
+		 * Waits for the requests in flight and handles their responses
+		 */
+		public void finish() throws RackspaceMonitorException {
+			while (!inFlight.isEmpty()) {
+				handleOldest();
+			}
+		}
+
+		public void cancel() {
+			for (FutureTask<T> response : inFlight) {
+				response.cancel(true);
+			}
+			inFlight.clear();
+		}
+
+		private void handleOldest() throws RackspaceMonitorException {
+			handler.onResponse(awaitPrefetched(inFlight.poll()));
+		}
+	}
+
+	/**
+	 * Sends the request, and sends it once more with a new token if the token
+	 * has been rejected. The caller releases the connection of the returned
+	 * method.
+	 */
+	private GetMethod getResponse(String resource, String authToken, Validators validators) throws RackspaceMonitorException {
+		authToken = currentToken(authToken);
+		GetMethod response = sendGetRequest(resource, authToken, validators);
+		if (response.getStatusCode() == UNAUTHORIZED) {
+			response.releaseConnection();
+			response = sendGetRequest(resource, authenticator.reauthenticate(authToken), validators);
+		}
+		return response;
+	}
+
+	/**
+	 * Returns the current token of the account in place of the token the
+	 * collector was prepared with, which may since have been refreshed in the
+	 * background or replaced after a 401
+	 */
+	private String currentToken(String authToken) {
+		String current = authenticator != null ? authenticator.getAuthToken() : null;
+		return current != null ? current : authToken;
+	}
+
+	private GetMethod sendGetRequest(String resource, String authToken, Validators validators) throws RackspaceMonitorException {
+		GetMethod get = new GetMethod(resource);
+		sendRequest(get, resource, authToken, validators);
+		return get;
+	}
+
+	/**
+	 * Processes a Post HttpRequest of the json content to the resource, for
+	 * queries that do not fit in a url. The request is retried once with a new
+	 * token if the token is rejected. Responses to posts are not cached.
+	 * 
+	 * @param resource
+	 * @param authToken
+	 * @param content
+	 * @return
+	 * @throws RackspaceMonitorException
+	 */
+	public JsonNode postServiceRequest(String resource, String authToken, String content) throws RackspaceMonitorException {
+		authToken = currentToken(authToken);
+		PostMethod response = sendPostRequest(resource, authToken, content);
+		if (response.getStatusCode() == UNAUTHORIZED) {
+			response.releaseConnection();
+			response = sendPostRequest(resource, authenticator.reauthenticate(authToken), content);
+		}
+		try {
+			checkStatus(response);
+			return getAuthenticationResponeNode(response);
+		} finally {
+			response.releaseConnection();
+		}
+	}
+
+	private PostMethod sendPostRequest(String resource, String authToken, String content) throws RackspaceMonitorException {
+		PostMethod post = new PostMethod(resource);
+		try {
+			post.setRequestEntity(new StringRequestEntity(content, "application/json", "UTF-8"));
+		} catch (UnsupportedEncodingException e) {
+			throw new RackspaceMonitorException(e);
+		}
+		sendRequest(post, resource, authToken, null);
+		return post;
+	}
+
+	/**
+	 * Processes a Head HttpRequest to the resource and returns the values of
+	 * the given response headers. There is no body to read, the connection is
+	 * released as soon as the headers are in. The request is retried once
+	 * with a new token if the token is rejected.
+	 * 
+	 * @param resource
+	 * @param authToken
+	 * @param headerNames
+	 * @return the values in the order of headerNames, null for a missing
+	 *         header, or null if the resource does not exist (any more)
+	 * @throws RackspaceMonitorException
+	 */
+	public String[] headServiceRequest(String resource, String authToken, String... headerNames) throws RackspaceMonitorException {
+		authToken = currentToken(authToken);
+		HeadMethod response = sendHeadRequest(resource, authToken);
+		if (response.getStatusCode() == UNAUTHORIZED) {
+			response.releaseConnection();
+			response = sendHeadRequest(resource, authenticator.reauthenticate(authToken));
+		}
+		try {
+			int statusCode = response.getStatusCode();
+			if (statusCode == NOT_FOUND) {
+				return null;
+			}
+			if (statusCode < 200 || statusCode >= 300) {
+				LOG.error("Error in response " + response.getStatusLine() + " of " + resource);
+				throw new RackspaceMonitorException("Error in response " + response.getStatusLine() + " of " + resource);
+			}
+			String[] values = new String[headerNames.length];
+			for (int i = 0; i < headerNames.length; i++) {
+				Header header = response.getResponseHeader(headerNames[i]);
+				values[i] = header != null ? header.getValue() : null;
+			}
+			return values;
+		} finally {
+			response.releaseConnection();
+		}
+	}
+
+	private HeadMethod sendHeadRequest(String resource, String authToken) throws RackspaceMonitorException {
+		HeadMethod head = new HeadMethod(resource);
+		sendRequest(head, resource, authToken, null);
+		return head;
+	}
+
+	private void sendRequest(HttpMethodBase method, String resource, String authToken, Validators validators) throws RackspaceMonitorException {
+		method.setRequestHeader("Content-Type", "application/json");
+		method.setRequestHeader("Accept", "application/json");
+		method.setRequestHeader("Accept-Encoding", ResponseBody.ACCEPT_ENCODING);
+		method.setRequestHeader("X-Auth-Token", authToken);
+		if (validators != null) {
+			validators.apply(method);
+		}
+		long start = System.currentTimeMillis();
+		try {
+			httpClient.getHttpClient().executeMethod(method);
+			instruments.recordRequest(System.currentTimeMillis() - start, method.getStatusCode());
+		} catch (IOException e) {
+			instruments.recordRequest(System.currentTimeMillis() - start, ServiceInstruments.CONNECTION_ERROR);
+			method.releaseConnection();
+			LOG.error("Error requesting " + resource, e);
+			throw new RackspaceMonitorException(e);
+		}
+	}
+
+	private JsonNode getAuthenticationResponeNode(HttpMethodBase response) throws RackspaceMonitorException {
+		long start = System.nanoTime();
+		ResponseBody body = null;
+		try {
+			body = ResponseBody.open(response);
+			JsonNode node = Json.readTree(body.getStream());
 			return node;
 		} catch (Exception e) {
 			LOG.error("Exception while mapping json content to Json Node object ", e);
 			throw new RackspaceMonitorException(e);
+		} finally {
+			if (body != null) {
+				body.close();
+			}
+			recordBody(body, start);
 		}
 	}
 
-	public abstract Map<String, Map<String, Long>> getMetrics(String authToken, String url) throws RackspaceMonitorException;
+	private JsonNode getAuthenticationResponeNode(HttpResponse<InputStream> response) throws RackspaceMonitorException {
+		long start = System.nanoTime();
+		ResponseBody body = null;
+		try {
+			body = ResponseBody.open(response);
+			return Json.readTree(body.getStream());
+		} catch (Exception e) {
+			LOG.error("Exception while mapping json content to Json Node object ", e);
+			throw new RackspaceMonitorException(e);
+		} finally {
+			if (body != null) {
+				body.close();
+			}
+			recordBody(body, start);
+		}
+	}
+
+	/**
+	 * Records the size of the body and the time taken to read and parse it
+	 * since start, in nanoseconds
+	 */
+	private void recordBody(ResponseBody body, long start) {
+		if (body != null) {
+			instruments.recordBody(body.getReceivedBytes(), body.getDecodedBytes(), System.nanoTime() - start);
+		}
+	}
+
+	public abstract MetricTable getMetrics(String authToken, String url) throws RackspaceMonitorException;
+
+	/**
+	 * Fetches the metrics like getMetrics, without blocking the calling
+	 * thread. Collectors that fetch several resources override it to request
+	 * them together when the context has an async http client; by default
+	 * getMetrics is called on the calling thread.
+	 * 
+	 * @param authToken
+	 * @param url
+	 * @return
+	 */
+	public CompletableFuture<MetricTable> getMetricsAsync(String authToken, String url) {
+		try {
+			return CompletableFuture.completedFuture(getMetrics(authToken, url));
+		} catch (RackspaceMonitorException e) {
+			return CompletableFuture.failedFuture(e);
+		}
+	}
+
+	/**
+	 * Waits for the metrics of getMetricsAsync. The future is cancelled if the
+	 * waiting thread is interrupted, as it is at the task timeout.
+	 * 
+	 * @param metrics
+	 * @return
+	 * @throws RackspaceMonitorException
+	 */
+	public static <T> T await(CompletableFuture<T> metrics) throws RackspaceMonitorException {
+		try {
+			return metrics.get();
+		} catch (InterruptedException e) {
+			metrics.cancel(true);
+			Thread.currentThread().interrupt();
+			throw new RackspaceMonitorException(e);
+		} catch (ExecutionException e) {
+			throw toRackspaceMonitorException(e.getCause());
+		}
+	}
+
+	/**
+	 * @return true if requests can be sent with the async methods
+	 */
+	protected boolean isAsync() {
+		return asyncHttpClient != null;
+	}
+
+	/**
+	 * Sends the request like getServiceResponse, without blocking
+	 * 
+	 * @param resource
+	 * @param authToken
+	 * @return
+	 */
+	protected CompletableFuture<JsonNode> getServiceResponseAsync(final String resource, String authToken) {
+		final CachedResponse cached = getCached(resource, JsonNode.class);
+		return getResponseAsync(resource, authToken, cached != null ? cached.getValidators() : null).thenApplyAsync(response -> {
+			try {
+				if (cached != null && response.statusCode() == NOT_MODIFIED) {
+					responseCache.notModified(resource);
+					return (JsonNode) cached.getBody();
+				}
+				checkStatus(response);
+				JsonNode node = getAuthenticationResponeNode(response);
+				responseCache.put(resource, response, node);
+				return node;
+			} catch (RackspaceMonitorException e) {
+				throw new CompletionException(e);
+			} finally {
+				closeBody(response);
+			}
+		}, prefetchExecutor);
+	}
+
+	/**
+	 * Streams all pages of a paginated collection to the handler like
+	 * streamPages, without blocking. Every page is requested as soon as the
+	 * previous one has arrived, before its entities are handled. The handler
+	 * is called for one page at a time.
+	 * 
+	 * @param resource
+	 * @param authToken
+	 * @param arrayField
+	 * @param reader
+	 * @param markerField
+	 * @param handler
+	 * @return completes once the last page has been handled
+	 */
+	protected CompletableFuture<Void> streamPagesAsync(String resource, String authToken, String arrayField, EntityReader reader,
+			int markerField, EntityHandler handler) {
+		try {
+			return fetchPageAsync(pageUrl(resource, null, 0), authToken, arrayField, reader).thenCompose(
+					page -> handlePagesAsync(page, 0, resource, authToken, arrayField, reader, markerField, handler));
+		} catch (RackspaceMonitorException e) {
+			return CompletableFuture.failedFuture(e);
+		}
+	}
+
+	private CompletableFuture<Void> handlePagesAsync(EntityPage page, int offset, String resource, String authToken, String arrayField,
+			EntityReader reader, int markerField, EntityHandler handler) {
+		List<String[]> entities = page.getEntities();
+		int nextOffset = offset + entities.size();
+		instruments.recordEntities(entities.size());
+
+		CompletableFuture<EntityPage> nextPage = null;
+		try {
+			if (hasNextPage(page)) {
+				String marker = markerField < 0 ? null : entities.get(entities.size() - 1)[markerField];
+				if (markerField < 0 || marker != null) {
+					nextPage = fetchPageAsync(pageUrl(resource, marker, nextOffset), authToken, arrayField, reader);
+				}
+			}
+			for (String[] entity : entities) {
+				handler.onEntity(entity);
+			}
+		} catch (RackspaceMonitorException e) {
+			if (nextPage != null) {
+				nextPage.cancel(true);
+			}
+			return CompletableFuture.failedFuture(e);
+		}
+
+		if (nextPage == null) {
+			return CompletableFuture.completedFuture(null);
+		}
+		return nextPage.thenCompose(next -> handlePagesAsync(next, nextOffset, resource, authToken, arrayField, reader, markerField, handler));
+	}
+
+	/**
+	 * Fetches a page like fetchPage, without blocking
+	 */
+	private CompletableFuture<EntityPage> fetchPageAsync(final String url, String authToken, final String arrayField, final EntityReader reader) {
+		final CachedResponse cached = getCached(url, EntityPage.class);
+		return getResponseAsync(url, authToken, cached != null ? cached.getValidators() : null).thenApplyAsync(response -> {
+			try {
+				if (cached != null && response.statusCode() == NOT_MODIFIED) {
+					responseCache.notModified(url);
+					return (EntityPage) cached.getBody();
+				}
+				checkStatus(response);
+				EntityPage page = new EntityPage();
+				page.setNextLink(readEntities(response, url, arrayField, reader, page));
+				responseCache.put(url, response, page);
+				return page;
+			} catch (RackspaceMonitorException e) {
+				throw new CompletionException(e);
+			} finally {
+				closeBody(response);
+			}
+		}, prefetchExecutor);
+	}
+
+	/**
+	 * Sends the request like streamServiceResponseIfModified, without blocking.
+	 * Completes with false, without calling the handler, if the server
+	 * answered 304 Not Modified.
+	 */
+	protected CompletableFuture<Boolean> streamServiceResponseIfModifiedAsync(final String resource, String authToken, final String arrayField,
+			final EntityReader reader, final EntityHandler handler, final Validators validators) {
+		return getResponseAsync(resource, authToken, validators).thenApplyAsync(response -> {
+			try {
+				if (response.statusCode() == NOT_MODIFIED) {
+					return false;
+				}
+				checkStatus(response);
+				readEntities(response, resource, arrayField, reader, handler);
+				validators.update(response);
+				return true;
+			} catch (RackspaceMonitorException e) {
+				throw new CompletionException(e);
+			} finally {
+				closeBody(response);
+			}
+		}, prefetchExecutor);
+	}
+
+	/**
+	 * Sends the request, and sends it once more with a new token if the token
+	 * has been rejected. A new token is requested on the prefetch executor as
+	 * authenticating blocks. The future completes once the headers are in;
+	 * the body is then read and parsed on the prefetch executor as well, and
+	 * closed once done with, so the threads of the http client never block.
+	 */
+	private CompletableFuture<HttpResponse<InputStream>> getResponseAsync(final String resource, String authToken, final Validators validators) {
+		final String token = currentToken(authToken);
+		return sendAsync(resource, token, validators).thenCompose(response -> {
+			if (response.statusCode() != UNAUTHORIZED) {
+				return CompletableFuture.completedFuture(response);
+			}
+			closeBody(response);
+			return CompletableFuture.supplyAsync(() -> {
+				try {
+					return authenticator.reauthenticate(token);
+				} catch (RackspaceMonitorException e) {
+					throw new CompletionException(e);
+				}
+			}, prefetchExecutor).thenCompose(newToken -> sendAsync(resource, newToken, validators));
+		});
+	}
+
+	private CompletableFuture<HttpResponse<InputStream>> sendAsync(final String resource, String authToken, Validators validators) {
+		HttpRequest.Builder request = asyncHttpClient.newRequest(resource);
+		request.header("Accept", "application/json");
+		request.header("Accept-Encoding", ResponseBody.ACCEPT_ENCODING);
+		request.header("X-Auth-Token", authToken);
+		if (validators != null) {
+			validators.apply(request);
+		}
+		final long start = System.currentTimeMillis();
+		return asyncHttpClient.send(request.build()).whenComplete((response, failure) -> {
+			if (failure != null) {
+				instruments.recordRequest(System.currentTimeMillis() - start, ServiceInstruments.CONNECTION_ERROR);
+				LOG.error("Error requesting " + resource, failure);
+			} else {
+				instruments.recordRequest(System.currentTimeMillis() - start, response.statusCode());
+			}
+		});
+	}
+
+	/**
+	 * Closes a streamed body, whether it has been read or not, so that its
+	 * connection can be reused
+	 */
+	private static void closeBody(HttpResponse<InputStream> response) {
+		try {
+			response.body().close();
+		} catch (IOException e) {
+			// Ignore
+		}
+	}
+
+	private static RackspaceMonitorException toRackspaceMonitorException(Throwable failure) {
+		while (failure instanceof CompletionException && failure.getCause() != null) {
+			failure = failure.getCause();
+		}
+		if (failure instanceof RackspaceMonitorException) {
+			return (RackspaceMonitorException) failure;
+		}
+		return new RackspaceMonitorException(failure);
+	}
 
 }
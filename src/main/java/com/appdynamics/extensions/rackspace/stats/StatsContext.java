@@ -0,0 +1,107 @@
+/*
+ *   Copyright 2018. AppDynamics LLC and its affiliates.
+ *   All Rights Reserved.
+ *   This is unpublished proprietary source code of AppDynamics LLC and its affiliates.
+ *   The copyright notice above does not evidence any actual or intended publication of such source code.
+ *
+ */
+package com.appdynamics.extensions.rackspace.stats;
+
+import java.util.concurrent.Executor;
+
+import com.appdynamics.extensions.http.SimpleHttpClient;
+import com.appdynamics.extensions.rackspace.common.AsyncHttpClient;
+import com.appdynamics.extensions.rackspace.common.Authenticator;
+import com.appdynamics.extensions.rackspace.common.ServiceInstruments;
+
+/**
+ * What the Stats collectors share within a run: the http clients, the
+ * Authenticator of the account, the page size for paginated collections, the
+ * executor fetching the next page while the current one is processed, and the
+ * flavor and response caches kept across runs. Every collector gets its own
+ * copy holding the ServiceInstruments of its service and region.
+ */
+public class StatsContext {
+
+	private final SimpleHttpClient httpClient;
+
+	private final AsyncHttpClient asyncHttpClient;
+
+	private final Authenticator authenticator;
+
+	private final int pageSize;
+
+	private final Executor prefetchExecutor;
+
+	private final FlavorCache flavorCache;
+
+	private final ResponseCache responseCache;
+
+	private final ServiceInstruments instruments;
+
+	/**
+	 * @param httpClient
+	 * @param asyncHttpClient
+	 *            null if requests are not to be sent asynchronously
+	 * @param authenticator
+	 * @param pageSize
+	 * @param prefetchExecutor
+	 * @param flavorCache
+	 * @param responseCache
+	 */
+	public StatsContext(SimpleHttpClient httpClient, AsyncHttpClient asyncHttpClient, Authenticator authenticator, int pageSize,
+			Executor prefetchExecutor, FlavorCache flavorCache, ResponseCache responseCache) {
+		this(httpClient, asyncHttpClient, authenticator, pageSize, prefetchExecutor, flavorCache, responseCache, new ServiceInstruments());
+	}
+
+	private StatsContext(SimpleHttpClient httpClient, AsyncHttpClient asyncHttpClient, Authenticator authenticator, int pageSize,
+			Executor prefetchExecutor, FlavorCache flavorCache, ResponseCache responseCache, ServiceInstruments instruments) {
+		this.httpClient = httpClient;
+		this.asyncHttpClient = asyncHttpClient;
+		this.authenticator = authenticator;
+		this.pageSize = pageSize;
+		this.prefetchExecutor = prefetchExecutor;
+		this.flavorCache = flavorCache;
+		this.responseCache = responseCache;
+		this.instruments = instruments;
+	}
+
+	public SimpleHttpClient getHttpClient() {
+		return httpClient;
+	}
+
+	public AsyncHttpClient getAsyncHttpClient() {
+		return asyncHttpClient;
+	}
+
+	public Authenticator getAuthenticator() {
+		return authenticator;
+	}
+
+	public int getPageSize() {
+		return pageSize;
+	}
+
+	public Executor getPrefetchExecutor() {
+		return prefetchExecutor;
+	}
+
+	public FlavorCache getFlavorCache() {
+		return flavorCache;
+	}
+
+	public ResponseCache getResponseCache() {
+		return responseCache;
+	}
+
+	public ServiceInstruments getInstruments() {
+		return instruments;
+	}
+
+	/**
+	 * Returns a copy of this context recording to the given instruments
+	 */
+	public StatsContext withInstruments(ServiceInstruments instruments) {
+		return new StatsContext(httpClient, asyncHttpClient, authenticator, pageSize, prefetchExecutor, flavorCache, responseCache, instruments);
+	}
+}
@@ -0,0 +1,91 @@
+/*
+ *   Copyright 2018. AppDynamics LLC and its affiliates.
+ *   All Rights Reserved.
+ *   This is unpublished proprietary source code of AppDynamics LLC and its affiliates.
+ *   The copyright notice above does not evidence any actual or intended publication of such source code.
+ *
+ */
+package com.appdynamics.extensions.rackspace.stats;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+
+import org.apache.commons.httpclient.Header;
+import org.apache.commons.httpclient.HttpMethodBase;
+
+import com.appdynamics.extensions.rackspace.common.SnapshotFile;
+
+/**
+ * The ETag and Last-Modified validators of a response, sent back as
+ * If-None-Match and If-Modified-Since to make the next request conditional
+ */
+public class Validators {
+
+	private volatile String etag;
+
+	private volatile String lastModified;
+
+	void writeTo(DataOutput out) throws IOException {
+		SnapshotFile.writeString(out, etag);
+		SnapshotFile.writeString(out, lastModified);
+	}
+
+	static Validators readFrom(DataInput in) throws IOException {
+		Validators validators = new Validators();
+		validators.etag = SnapshotFile.readString(in);
+		validators.lastModified = SnapshotFile.readString(in);
+		return validators;
+	}
+
+	void apply(HttpMethodBase method) {
+		String etag = this.etag;
+		String lastModified = this.lastModified;
+		if (etag != null) {
+			method.setRequestHeader("If-None-Match", etag);
+		}
+		if (lastModified != null) {
+			method.setRequestHeader("If-Modified-Since", lastModified);
+		}
+	}
+
+	void apply(HttpRequest.Builder request) {
+		String etag = this.etag;
+		String lastModified = this.lastModified;
+		if (etag != null) {
+			request.header("If-None-Match", etag);
+		}
+		if (lastModified != null) {
+			request.header("If-Modified-Since", lastModified);
+		}
+	}
+
+	void update(HttpMethodBase method) {
+		etag = headerValue(method, "ETag");
+		lastModified = headerValue(method, "Last-Modified");
+	}
+
+	void update(HttpResponse<?> response) {
+		etag = response.headers().firstValue("ETag").orElse(null);
+		lastModified = response.headers().firstValue("Last-Modified").orElse(null);
+	}
+
+	boolean isEmpty() {
+		return etag == null && lastModified == null;
+	}
+
+	private String headerValue(HttpMethodBase method, String name) {
+		Header header = method.getResponseHeader(name);
+		return header != null ? header.getValue() : null;
+	}
+
+	public String getEtag() {
+		return etag;
+	}
+
+	public String getLastModified() {
+		return lastModified;
+	}
+}
@@ -0,0 +1,110 @@
+/*
+ *   Copyright 2018. AppDynamics LLC and its affiliates.
+ *   All Rights Reserved.
+ *   This is unpublished proprietary source code of AppDynamics LLC and its affiliates.
+ *   The copyright notice above does not evidence any actual or intended publication of such source code.
+ *
+ */
+package com.appdynamics.extensions.rackspace.collector;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.appdynamics.extensions.rackspace.collector.CircuitBreaker.State;
+import com.appdynamics.extensions.rackspace.exception.RackspaceMonitorException;
+import com.appdynamics.extensions.rackspace.stats.MetricTable;
+
+public class CircuitBreakerTest {
+
+	private static final long HOUR_MILLIS = 60 * 60 * 1000L;
+
+	private static final List<CollectorResult> FAILED = Collections.<CollectorResult> emptyList();
+
+	private final List<CollectorTask> tasks = Collections.singletonList(task("Servers", "DFW"));
+
+	@Test
+	public void opensAfterTheFailureThreshold() {
+		CircuitBreaker breaker = new CircuitBreaker(2, HOUR_MILLIS, HOUR_MILLIS);
+		breaker.record(breaker.getAllowedTasks(tasks), FAILED);
+		assertEquals(State.CLOSED, breaker.getState("Servers", "DFW"));
+		assertEquals(1, breaker.getAllowedTasks(tasks).size());
+
+		breaker.record(tasks, FAILED);
+		assertEquals(State.OPEN, breaker.getState("Servers", "DFW"));
+		assertEquals(0, breaker.getAllowedTasks(tasks).size());
+	}
+
+	@Test
+	public void reportsTheSkippedDataAsStale() {
+		CircuitBreaker breaker = new CircuitBreaker(1, HOUR_MILLIS, HOUR_MILLIS);
+		breaker.record(breaker.getAllowedTasks(tasks), FAILED);
+		breaker.getAllowedTasks(tasks);
+
+		List<CollectorResult> report = breaker.report(tasks);
+		assertEquals(1, report.size());
+		MetricTable circuits = report.get(0).getMetrics();
+		assertEquals("DFW", circuits.getEntity(0));
+		assertEquals(State.OPEN.getValue(), circuits.get(0, 0));
+		assertEquals(1, circuits.get(0, 1));
+		assertEquals(1, circuits.get(0, 2));
+	}
+
+	@Test
+	public void aSucceededProbeClosesTheCircuit() {
+		CircuitBreaker breaker = new CircuitBreaker(1, 0, 0);
+		breaker.record(breaker.getAllowedTasks(tasks), FAILED);
+		assertEquals(State.OPEN, breaker.getState("Servers", "DFW"));
+
+		assertEquals(1, breaker.getAllowedTasks(tasks).size());
+		assertEquals(State.HALF_OPEN, breaker.getState("Servers", "DFW"));
+		breaker.record(tasks, Collections.singletonList(result("Servers", "DFW")));
+
+		assertEquals(State.CLOSED, breaker.getState("Servers", "DFW"));
+		MetricTable circuits = breaker.report(tasks).get(0).getMetrics();
+		assertEquals(0, circuits.get(0, 1));
+		assertEquals(0, circuits.get(0, 2));
+	}
+
+	@Test
+	public void aFailedProbeDoublesTheBackoff() throws InterruptedException {
+		CircuitBreaker breaker = new CircuitBreaker(1, 100, HOUR_MILLIS);
+		breaker.record(breaker.getAllowedTasks(tasks), FAILED);
+		Thread.sleep(150);
+		assertEquals(1, breaker.getAllowedTasks(tasks).size());
+
+		breaker.record(tasks, FAILED);
+		assertEquals(State.OPEN, breaker.getState("Servers", "DFW"));
+		Thread.sleep(150);
+		assertEquals(0, breaker.getAllowedTasks(tasks).size());
+		Thread.sleep(100);
+		assertEquals(1, breaker.getAllowedTasks(tasks).size());
+	}
+
+	@Test
+	public void forgetsTheCircuitsOfTasksThatAreGone() {
+		CircuitBreaker breaker = new CircuitBreaker(1, HOUR_MILLIS, HOUR_MILLIS);
+		breaker.record(breaker.getAllowedTasks(tasks), FAILED);
+
+		assertEquals(0, breaker.report(Collections.<CollectorTask> emptyList()).size());
+		assertEquals(State.CLOSED, breaker.getState("Servers", "DFW"));
+	}
+
+	private static CollectorResult result(String service, String region) {
+		MetricTable metrics = new MetricTable("Status");
+		metrics.set(metrics.addEntity("web"), 0, 1);
+		return new CollectorResult(service, "Servers |%s|%s|", region, metrics);
+	}
+
+	private static CollectorTask task(String service, String region) {
+		return new CollectorTask(service, region) {
+			@Override
+			protected CollectorResult collect() throws RackspaceMonitorException {
+				throw new UnsupportedOperationException();
+			}
+		};
+	}
+}
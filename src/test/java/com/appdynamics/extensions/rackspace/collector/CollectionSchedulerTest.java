@@ -0,0 +1,129 @@
+/*
+ *   Copyright 2018. AppDynamics LLC and its affiliates.
+ *   All Rights Reserved.
+ *   This is unpublished proprietary source code of AppDynamics LLC and its affiliates.
+ *   The copyright notice above does not evidence any actual or intended publication of such source code.
+ *
+ */
+package com.appdynamics.extensions.rackspace.collector;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.appdynamics.extensions.rackspace.exception.RackspaceMonitorException;
+import com.appdynamics.extensions.rackspace.stats.MetricTable;
+import com.appdynamics.extensions.rackspace.stats.MetricType;
+
+public class CollectionSchedulerTest {
+
+	private static final String PATH_FORMAT = "Files |%s|%s|";
+
+	private static final String[] METRICS = { "Bytes", "Bytes Delta", "Bytes per Second" };
+
+	private static final MetricType[] TYPES = { MetricType.GAUGE, MetricType.DELTA, MetricType.RATE };
+
+	private static final long INTERVAL_MILLIS = 60 * 60 * 1000L;
+
+	private final List<CollectorTask> tasks = Collections.singletonList(task("Files", "DFW"));
+
+	@Test
+	public void aResultReportedAgainHasNoRates() {
+		CollectionScheduler scheduler = new CollectionScheduler(INTERVAL_MILLIS);
+		scheduler.getDueTasks(tasks);
+		scheduler.complete(tasks, Collections.singletonList(result(2048, 1024, 17)));
+
+		assertEquals(0, scheduler.getDueTasks(tasks).size());
+		List<CollectorResult> reported = scheduler.complete(tasks, Collections.<CollectorResult> emptyList());
+
+		assertEquals(1, reported.size());
+		MetricTable replayed = reported.get(0).getMetrics();
+		assertEquals(2048, replayed.get(0, 0));
+		assertEquals(MetricTable.NO_VALUE, replayed.get(0, 1));
+		assertEquals(MetricTable.NO_VALUE, replayed.get(0, 2));
+	}
+
+	@Test
+	public void aResultWithoutRatesIsReportedAgainAsItIs() {
+		CollectionScheduler scheduler = new CollectionScheduler(INTERVAL_MILLIS);
+		MetricTable gauges = new MetricTable("Status");
+		gauges.set(gauges.addEntity("web"), 0, 1);
+		CollectorResult result = new CollectorResult("Files", PATH_FORMAT, "DFW", gauges);
+		scheduler.getDueTasks(tasks);
+		scheduler.complete(tasks, Collections.singletonList(result));
+
+		scheduler.getDueTasks(tasks);
+		assertSame(result, scheduler.complete(tasks, Collections.<CollectorResult> emptyList()).get(0));
+	}
+
+	@Test
+	public void unchangedValuesStretchTheInterval() {
+		CollectionScheduler scheduler = new CollectionScheduler(INTERVAL_MILLIS);
+		// Due again within the slack at the interval, not at twice the interval
+		scheduler.setInterval("Files", 3000);
+		scheduler.setMaxStretch(4);
+		scheduler.getDueTasks(tasks);
+		scheduler.complete(tasks, Collections.singletonList(result(2048, 1024, 17)));
+
+		assertEquals(1, scheduler.getDueTasks(tasks).size());
+		scheduler.complete(tasks, Collections.singletonList(result(2048, 1024, 17)));
+
+		assertEquals(0, scheduler.getDueTasks(tasks).size());
+	}
+
+	@Test
+	public void changedValuesKeepTheInterval() {
+		CollectionScheduler scheduler = new CollectionScheduler(INTERVAL_MILLIS);
+		scheduler.setInterval("Files", 3000);
+		scheduler.setMaxStretch(4);
+		scheduler.getDueTasks(tasks);
+		scheduler.complete(tasks, Collections.singletonList(result(2048, 1024, 17)));
+
+		assertEquals(1, scheduler.getDueTasks(tasks).size());
+		scheduler.complete(tasks, Collections.singletonList(result(4096, 2048, 34)));
+
+		assertEquals(1, scheduler.getDueTasks(tasks).size());
+	}
+
+	@Test
+	public void theStretchIsBoundedByTheMaximum() {
+		CollectionScheduler scheduler = new CollectionScheduler(INTERVAL_MILLIS);
+		scheduler.setInterval("Files", 3000);
+		scheduler.setMaxStretch(1);
+		for (int i = 0; i < 3; i++) {
+			assertEquals(1, scheduler.getDueTasks(tasks).size());
+			scheduler.complete(tasks, Collections.singletonList(result(2048, 1024, 17)));
+		}
+	}
+
+	@Test
+	public void aFailedTaskIsDueInTheNextRun() {
+		CollectionScheduler scheduler = new CollectionScheduler(INTERVAL_MILLIS);
+		scheduler.getDueTasks(tasks);
+		assertEquals(0, scheduler.complete(tasks, Collections.<CollectorResult> emptyList()).size());
+
+		assertEquals(1, scheduler.getDueTasks(tasks).size());
+	}
+
+	private static CollectorResult result(long bytes, long delta, long rate) {
+		MetricTable metrics = new MetricTable(METRICS, TYPES);
+		int row = metrics.addEntity("backups");
+		metrics.set(row, 0, bytes);
+		metrics.set(row, 1, delta);
+		metrics.set(row, 2, rate);
+		return new CollectorResult("Files", PATH_FORMAT, "DFW", metrics);
+	}
+
+	private static CollectorTask task(String service, String region) {
+		return new CollectorTask(service, region) {
+			@Override
+			protected CollectorResult collect() throws RackspaceMonitorException {
+				throw new UnsupportedOperationException();
+			}
+		};
+	}
+}
@@ -0,0 +1,122 @@
+/*
+ *   Copyright 2018. AppDynamics LLC and its affiliates.
+ *   All Rights Reserved.
+ *   This is unpublished proprietary source code of AppDynamics LLC and its affiliates.
+ *   The copyright notice above does not evidence any actual or intended publication of such source code.
+ *
+ */
+package com.appdynamics.extensions.rackspace.collector;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+import com.appdynamics.extensions.rackspace.stats.MetricTable;
+import com.appdynamics.extensions.rackspace.stats.MetricType;
+import com.singularity.ee.agent.systemagent.api.MetricWriter;
+
+public class MetricEmitterTest {
+
+	private static final String PATH_FORMAT = "LoadBalancers |%s|%s|";
+
+	private static final String[] STATUS_METRICS = { "Status", "Node Count" };
+
+	private static final String[] TRAFFIC_METRICS = { "Current Connections", "Bytes In Delta" };
+
+	private static final MetricType[] TRAFFIC_TYPES = { MetricType.GAUGE, MetricType.DELTA };
+
+	// Map<MetricName, MetricWriter> of the writers created
+	private final Map<String, MetricWriter> writers = new LinkedHashMap<String, MetricWriter>();
+
+	private int created;
+
+	private final MetricWriterFactory writerFactory = new MetricWriterFactory() {
+		public MetricWriter getMetricWriter(String metricName, String aggregation, String timeRollup, String cluster) {
+			created++;
+			MetricWriter writer = mock(MetricWriter.class);
+			writers.put(metricName, writer);
+			return writer;
+		}
+	};
+
+	@Test
+	public void servicesSharingAPathFormatKeepTheirWriters() {
+		MetricEmitter emitter = new MetricEmitter("Custom Metrics|Rackspace|", writerFactory);
+		for (int run = 0; run < 3; run++) {
+			emitter.emit(new CollectorResult("LoadBalancer", PATH_FORMAT, "DFW", status()));
+			emitter.emit(new CollectorResult("LoadBalancer Traffic", PATH_FORMAT, "DFW", traffic()));
+			emitter.flush();
+		}
+
+		assertEquals(4, created);
+		verify(writers.get("Custom Metrics|Rackspace|LoadBalancers |DFW|web|Node Count"), times(3)).printMetric("2");
+		verify(writers.get("Custom Metrics|Rackspace|LoadBalancers |DFW|web|Bytes In Delta"), times(3)).printMetric("1024");
+	}
+
+	@Test
+	public void anEntityIsNotEvictedByAnotherServiceOfItsPathFormat() {
+		MetricEmitter emitter = new MetricEmitter("Custom Metrics|Rackspace|", writerFactory);
+		emitter.emit(new CollectorResult("LoadBalancer", PATH_FORMAT, "DFW", status()));
+		emitter.emit(new CollectorResult("LoadBalancer Traffic", PATH_FORMAT, "DFW", traffic()));
+		emitter.flush();
+
+		// Traffic is not due in the second run
+		emitter.emit(new CollectorResult("LoadBalancer", PATH_FORMAT, "DFW", status()));
+		emitter.flush();
+		emitter.emit(new CollectorResult("LoadBalancer Traffic", PATH_FORMAT, "DFW", traffic()));
+		emitter.flush();
+
+		assertEquals(4, created);
+	}
+
+	@Test
+	public void deltaReportingWritesUnchangedValuesAsAHeartbeat() {
+		MetricEmitter emitter = new MetricEmitter("Custom Metrics|Rackspace|", writerFactory, 3);
+		for (int run = 0; run < 7; run++) {
+			emitter.emit(new CollectorResult("LoadBalancer", PATH_FORMAT, "DFW", status()));
+			emitter.flush();
+		}
+
+		// Written on the first run, then every third run
+		assertEquals(2, created);
+		verify(writers.get("Custom Metrics|Rackspace|LoadBalancers |DFW|web|Status"), times(3)).printMetric("1");
+		verify(writers.get("Custom Metrics|Rackspace|LoadBalancers |DFW|web|Node Count"), times(3)).printMetric("2");
+	}
+
+	@Test
+	public void deltaReportingWritesAChangedValueRightAway() {
+		MetricEmitter emitter = new MetricEmitter("Custom Metrics|Rackspace|", writerFactory, 10);
+		emitter.emit(new CollectorResult("LoadBalancer", PATH_FORMAT, "DFW", status()));
+		emitter.flush();
+		MetricTable changed = status();
+		changed.set(0, 1, 3);
+		emitter.emit(new CollectorResult("LoadBalancer", PATH_FORMAT, "DFW", changed));
+		emitter.flush();
+
+		verify(writers.get("Custom Metrics|Rackspace|LoadBalancers |DFW|web|Status"), times(1)).printMetric("1");
+		verify(writers.get("Custom Metrics|Rackspace|LoadBalancers |DFW|web|Node Count"), times(1)).printMetric("2");
+		verify(writers.get("Custom Metrics|Rackspace|LoadBalancers |DFW|web|Node Count"), times(1)).printMetric("3");
+	}
+
+	private MetricTable status() {
+		MetricTable table = new MetricTable(STATUS_METRICS);
+		int row = table.addEntity("web");
+		table.set(row, 0, 1);
+		table.set(row, 1, 2);
+		return table;
+	}
+
+	private MetricTable traffic() {
+		MetricTable table = new MetricTable(TRAFFIC_METRICS, TRAFFIC_TYPES);
+		int row = table.addEntity("web");
+		table.set(row, 0, 10);
+		table.set(row, 1, 1024);
+		return table;
+	}
+}
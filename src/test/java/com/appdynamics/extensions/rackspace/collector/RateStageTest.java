@@ -0,0 +1,116 @@
+/*
+ *   Copyright 2018. AppDynamics LLC and its affiliates.
+ *   All Rights Reserved.
+ *   This is unpublished proprietary source code of AppDynamics LLC and its affiliates.
+ *   The copyright notice above does not evidence any actual or intended publication of such source code.
+ *
+ */
+package com.appdynamics.extensions.rackspace.collector;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.Test;
+
+import com.appdynamics.extensions.rackspace.stats.MetricTable;
+import com.appdynamics.extensions.rackspace.stats.MetricType;
+
+public class RateStageTest {
+
+	private static final String PATH_FORMAT = "LoadBalancers |%s|%s|";
+
+	private static final String[] METRICS = { "Current Connections", "Bytes In", "Objects" };
+
+	private static final MetricType[] TYPES = { MetricType.GAUGE, MetricType.COUNTER, MetricType.TOTAL };
+
+	private static final long HOUR_MILLIS = 60 * 60 * 1000L;
+
+	private final long start = System.currentTimeMillis() - 10 * 60 * 1000L;
+
+	@Test
+	public void cumulativeMetricsGetADeltaAndPerSecond() {
+		RateStage rates = new RateStage(HOUR_MILLIS);
+		MetricTable first = apply(rates, start, 5, 1000, 10);
+		MetricTable second = apply(rates, start + 60000, 7, 7000, 4);
+
+		assertEquals(Arrays.asList("Current Connections", "Bytes In Delta", "Bytes In per Second", "Objects", "Objects Delta",
+				"Objects per Second"), Arrays.asList(second.getMetricNames()));
+		assertEquals(Arrays.asList(MetricType.GAUGE, MetricType.DELTA, MetricType.RATE, MetricType.GAUGE, MetricType.DELTA, MetricType.RATE),
+				Arrays.asList(second.getMetricTypes()));
+
+		// No rates from the first sample of a series
+		assertEquals(5, first.get(0, 0));
+		assertEquals(MetricTable.NO_VALUE, first.get(0, 1));
+		assertEquals(MetricTable.NO_VALUE, first.get(0, 2));
+		assertEquals(10, first.get(0, 3));
+		assertEquals(MetricTable.NO_VALUE, first.get(0, 4));
+
+		assertEquals(7, second.get(0, 0));
+		assertEquals(6000, second.get(0, 1));
+		assertEquals(100, second.get(0, 2));
+		// A total may go down
+		assertEquals(4, second.get(0, 3));
+		assertEquals(-6, second.get(0, 4));
+		assertEquals(0, second.get(0, 5));
+	}
+
+	@Test
+	public void aCounterThatWentBackHasNoRates() {
+		RateStage rates = new RateStage(HOUR_MILLIS);
+		apply(rates, start, 5, 1000, 10);
+		MetricTable reset = apply(rates, start + 60000, 5, 200, 10);
+		MetricTable next = apply(rates, start + 120000, 5, 800, 10);
+
+		assertEquals(MetricTable.NO_VALUE, reset.get(0, 1));
+		assertEquals(MetricTable.NO_VALUE, reset.get(0, 2));
+		assertEquals(600, next.get(0, 1));
+		assertEquals(10, next.get(0, 2));
+	}
+
+	@Test
+	public void aSampleNotNewerThanTheLastHasNoRates() {
+		RateStage rates = new RateStage(HOUR_MILLIS);
+		apply(rates, start, 5, 1000, 10);
+		MetricTable same = apply(rates, start, 5, 2000, 10);
+
+		assertEquals(MetricTable.NO_VALUE, same.get(0, 1));
+	}
+
+	@Test
+	public void seriesOfServicesAndRegionsAreKeptApart() {
+		RateStage rates = new RateStage(HOUR_MILLIS);
+		rates.apply(Collections.singletonList(result("DFW", start, 1000)));
+		MetricTable otherRegion = rates.apply(Collections.singletonList(result("ORD", start + 60000, 4000))).get(0).getMetrics();
+
+		assertEquals(MetricTable.NO_VALUE, otherRegion.get(0, 1));
+	}
+
+	@Test
+	public void resultsWithoutCumulativeMetricsAreReturnedAsTheyAre() {
+		MetricTable gauges = new MetricTable("Status");
+		gauges.set(gauges.addEntity("web"), 0, 1);
+		CollectorResult result = new CollectorResult("LoadBalancer", PATH_FORMAT, "DFW", gauges);
+
+		assertSame(result, new RateStage(HOUR_MILLIS).apply(Collections.singletonList(result)).get(0));
+	}
+
+	private static MetricTable apply(RateStage rates, long time, long connections, long bytesIn, long objects) {
+		MetricTable metrics = new MetricTable(METRICS, TYPES);
+		int row = metrics.addEntity("web");
+		metrics.set(row, 0, connections);
+		metrics.set(row, 1, bytesIn);
+		metrics.set(row, 2, objects);
+		return rates.apply(Collections.singletonList(new CollectorResult(null, "LoadBalancer Traffic", PATH_FORMAT, "DFW", metrics, time))).get(0)
+				.getMetrics();
+	}
+
+	private static CollectorResult result(String region, long time, long bytesIn) {
+		MetricTable metrics = new MetricTable(METRICS, TYPES);
+		int row = metrics.addEntity("web");
+		metrics.set(row, 1, bytesIn);
+		return new CollectorResult(null, "LoadBalancer Traffic", PATH_FORMAT, region, metrics, time);
+	}
+}
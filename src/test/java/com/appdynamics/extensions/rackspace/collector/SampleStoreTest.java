@@ -0,0 +1,94 @@
+/*
+ *   Copyright 2018. AppDynamics LLC and its affiliates.
+ *   All Rights Reserved.
+ *   This is unpublished proprietary source code of AppDynamics LLC and its affiliates.
+ *   The copyright notice above does not evidence any actual or intended publication of such source code.
+ *
+ */
+package com.appdynamics.extensions.rackspace.collector;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+import org.junit.Test;
+
+public class SampleStoreTest {
+
+	@Test
+	public void aNewSeriesHasNoSample() {
+		SampleStore samples = new SampleStore();
+		int slot = samples.slot(key("web"));
+
+		assertEquals(0, samples.time(slot));
+		assertEquals(1, samples.size());
+		assertEquals(slot, samples.slot(key("web")));
+		assertEquals(1, samples.size());
+	}
+
+	@Test
+	public void samplesAreKeptWhileTheTableGrows() {
+		SampleStore samples = new SampleStore();
+		for (int i = 0; i < 5000; i++) {
+			samples.set(samples.slot(key("server" + i)), i, 1000L + i);
+		}
+
+		assertEquals(5000, samples.size());
+		for (int i = 0; i < 5000; i++) {
+			int slot = samples.slot(key("server" + i));
+			assertEquals(i, samples.value(slot));
+			assertEquals(1000L + i, samples.time(slot));
+		}
+		assertEquals(5000, samples.size());
+	}
+
+	@Test
+	public void evictDropsTheSeriesNotSampledSince() {
+		SampleStore samples = new SampleStore();
+		for (int i = 0; i < 2000; i++) {
+			samples.set(samples.slot(key("server" + i)), i, i < 1500 ? 100L : 200L);
+		}
+
+		assertEquals(1500, samples.evict(200L));
+		assertEquals(500, samples.size());
+		for (int i = 1500; i < 2000; i++) {
+			assertEquals(i, samples.value(samples.slot(key("server" + i))));
+		}
+		assertEquals(0, samples.time(samples.slot(key("server0"))));
+	}
+
+	@Test
+	public void restoreKeepsTheSamplesNotOlderThanGiven() throws IOException {
+		SampleStore samples = new SampleStore();
+		samples.set(samples.slot(key("old")), 1, 100L);
+		samples.set(samples.slot(key("new")), 2, 200L);
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		samples.writeTo(new DataOutputStream(out));
+
+		SampleStore restored = new SampleStore();
+		restored.restore(new DataInputStream(new ByteArrayInputStream(out.toByteArray())), 150L);
+
+		assertEquals(1, restored.size());
+		int slot = restored.slot(key("new"));
+		assertEquals(2, restored.value(slot));
+		assertEquals(200L, restored.time(slot));
+	}
+
+	@Test
+	public void hashSeparatesTheParts() {
+		long ab = SampleStore.hash(SampleStore.hash(SampleStore.HASH_SEED, "a"), "b");
+		long a = SampleStore.hash(SampleStore.hash(SampleStore.HASH_SEED, "ab"), "");
+
+		assertFalse(ab == a);
+		assertEquals(ab, SampleStore.hash(SampleStore.hash(SampleStore.HASH_SEED, "a"), "b"));
+	}
+
+	private static long key(String series) {
+		return SampleStore.hash(SampleStore.HASH_SEED, series);
+	}
+}
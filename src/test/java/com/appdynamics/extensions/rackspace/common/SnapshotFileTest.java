@@ -0,0 +1,97 @@
+/*
+ *   Copyright 2018. AppDynamics LLC and its affiliates.
+ *   All Rights Reserved.
+ *   This is unpublished proprietary source code of AppDynamics LLC and its affiliates.
+ *   The copyright notice above does not evidence any actual or intended publication of such source code.
+ *
+ */
+package com.appdynamics.extensions.rackspace.common;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class SnapshotFileTest {
+
+	private File dir;
+
+	private SnapshotFile snapshot;
+
+	@Before
+	public void setUp() throws IOException {
+		dir = Files.createTempDirectory("snapshot").toFile();
+		snapshot = new SnapshotFile(new File(dir, "rackspace.snapshot"));
+	}
+
+	@After
+	public void tearDown() {
+		for (File file : dir.listFiles()) {
+			file.delete();
+		}
+		dir.delete();
+	}
+
+	@Test
+	public void readsTheSectionsWritten() throws IOException {
+		snapshot.write(sections("tokens", "samples"));
+
+		Map<String, byte[]> read = snapshot.read();
+		assertEquals(2, read.size());
+		assertEquals("tokens", new String(read.get("tokens"), "UTF-8"));
+		assertEquals("samples", new String(read.get("samples"), "UTF-8"));
+	}
+
+	@Test
+	public void replacesTheSnapshotWithoutLeavingTheTemporaryFile() throws IOException {
+		snapshot.write(sections("first"));
+		snapshot.write(sections("second"));
+
+		assertEquals(1, snapshot.read().size());
+		assertTrue(snapshot.read().containsKey("second"));
+		assertEquals(1, dir.listFiles().length);
+	}
+
+	@Test
+	public void ignoresACorruptSnapshot() throws IOException {
+		snapshot.write(sections("tokens"));
+		byte[] content = Files.readAllBytes(snapshot.getFile().toPath());
+		content[content.length / 2] ^= 1;
+		Files.write(snapshot.getFile().toPath(), content);
+
+		assertTrue(snapshot.read().isEmpty());
+	}
+
+	@Test
+	public void ignoresATruncatedSnapshot() throws IOException {
+		snapshot.write(sections("tokens"));
+		byte[] content = Files.readAllBytes(snapshot.getFile().toPath());
+		Files.write(snapshot.getFile().toPath(), Arrays.copyOf(content, content.length - 3));
+
+		assertTrue(snapshot.read().isEmpty());
+	}
+
+	@Test
+	public void readsNothingWithoutASnapshot() {
+		assertFalse(snapshot.getFile().exists());
+		assertTrue(snapshot.read().isEmpty());
+	}
+
+	private static Map<String, byte[]> sections(String... names) throws IOException {
+		Map<String, byte[]> sections = new LinkedHashMap<String, byte[]>();
+		for (String name : names) {
+			sections.put(name, name.getBytes("UTF-8"));
+		}
+		return sections;
+	}
+}
@@ -0,0 +1,74 @@
+/*
+ *   Copyright 2018. AppDynamics LLC and its affiliates.
+ *   All Rights Reserved.
+ *   This is unpublished proprietary source code of AppDynamics LLC and its affiliates.
+ *   The copyright notice above does not evidence any actual or intended publication of such source code.
+ *
+ */
+package com.appdynamics.extensions.rackspace.stats;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.junit.Test;
+
+public class ResponseBodyTest {
+
+	private static final String CONTENT = "{\"servers\":[{\"name\":\"web\"}]}";
+
+	@Test
+	public void anEmptyEncodedBodyIsEmpty() throws IOException {
+		assertEquals("", read(new byte[0], "gzip"));
+		assertEquals("", read(new byte[0], "deflate"));
+	}
+
+	@Test
+	public void aGzipBodyIsDecompressed() throws IOException {
+		ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+		write(new GZIPOutputStream(compressed));
+		ResponseBody body = new ResponseBody(new ByteArrayInputStream(compressed.toByteArray()), "gzip");
+
+		assertEquals(CONTENT, new String(body.getStream().readAllBytes(), StandardCharsets.UTF_8));
+		assertEquals(compressed.size(), body.getReceivedBytes());
+		assertEquals(CONTENT.length(), body.getDecodedBytes());
+	}
+
+	@Test
+	public void zlibAndRawDeflateBodiesAreDecompressed() throws IOException {
+		assertEquals(CONTENT, read(deflate(false), "deflate"));
+		assertEquals(CONTENT, read(deflate(true), "Deflate"));
+	}
+
+	@Test
+	public void anUnknownEncodingIsLeftAsItIs() throws IOException {
+		assertEquals(CONTENT, read(CONTENT.getBytes(StandardCharsets.UTF_8), "identity"));
+	}
+
+	private static byte[] deflate(boolean raw) throws IOException {
+		ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+		write(new DeflaterOutputStream(compressed, new Deflater(Deflater.DEFAULT_COMPRESSION, raw)));
+		return compressed.toByteArray();
+	}
+
+	private static void write(OutputStream out) throws IOException {
+		out.write(CONTENT.getBytes(StandardCharsets.UTF_8));
+		out.close();
+	}
+
+	private static String read(byte[] content, String contentEncoding) throws IOException {
+		ResponseBody body = new ResponseBody(new ByteArrayInputStream(content), contentEncoding);
+		try {
+			return new String(body.getStream().readAllBytes(), StandardCharsets.UTF_8);
+		} finally {
+			body.close();
+		}
+	}
+}